@@ -0,0 +1,45 @@
+package org.strykeforce.telemetry.jmh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.strykeforce.telemetry.RobotInventory;
+import org.strykeforce.telemetry.measurable.Measurable;
+
+/** Building an inventory of 100 measurables and writing its grapher JSON. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InventoryBenchmark {
+
+  List<Measurable> measurables;
+  RobotInventory inventory;
+
+  @Setup
+  public void setUp() {
+    measurables = new ArrayList<>();
+    for (int i = 0; i < 100; i++) measurables.add(new StubMeasurable(i, 20));
+    inventory = new RobotInventory(measurables);
+  }
+
+  @Benchmark
+  public RobotInventory buildInventory() {
+    return new RobotInventory(measurables);
+  }
+
+  @Benchmark
+  public Buffer writeInventory() throws IOException {
+    var buffer = new Buffer();
+    inventory.writeInventory(buffer);
+    return buffer;
+  }
+}
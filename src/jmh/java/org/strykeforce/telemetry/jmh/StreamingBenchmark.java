@@ -0,0 +1,70 @@
+package org.strykeforce.telemetry.jmh;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.strykeforce.telemetry.RobotInventory;
+import org.strykeforce.telemetry.grapher.Subscription;
+
+/**
+ * End-to-end cost of streaming one data frame: sample the subscribed measures, encode the frame and
+ * send it to a loopback UDP socket from a direct buffer on a non-blocking channel, as the grapher
+ * client handler does each tick for a single client.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StreamingBenchmark {
+
+  @Param({"10", "50", "200"})
+  int measures;
+
+  @Param({"json", "binary64"})
+  String format;
+
+  DatagramSocket client;
+  DatagramChannel server;
+  Subscription subscription;
+  ByteBuffer buffer;
+
+  @Setup
+  public void setUp() throws IOException {
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    client = new DatagramSocket(0, localhost);
+    server = DatagramChannel.open();
+    server.configureBlocking(false);
+    server.connect(new InetSocketAddress(localhost, client.getLocalPort()));
+    var inventory = new RobotInventory(Set.of(new StubMeasurable(0, measures)));
+    subscription = new Subscription(inventory, localhost, StubMeasurable.request(measures, format));
+    buffer = ByteBuffer.allocateDirect(subscription.getMaxFrameSize());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    client.close();
+    server.close();
+  }
+
+  @Benchmark
+  public void sampleEncodeSend() throws IOException {
+    buffer.clear();
+    subscription.writeFrame(buffer);
+    buffer.flip();
+    // the client socket is never read, frames beyond its receive buffer are dropped by the kernel
+    server.write(buffer);
+  }
+}
@@ -0,0 +1,55 @@
+package org.strykeforce.telemetry.jmh;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.strykeforce.telemetry.measurable.Measurable;
+import org.strykeforce.telemetry.measurable.Measure;
+
+/** A hardware-free {@link Measurable} whose measures return cheap, changing values. */
+class StubMeasurable implements Measurable {
+
+  private final int deviceId;
+  private final Set<Measure> measures = new LinkedHashSet<>();
+  private double value;
+
+  StubMeasurable(int deviceId, int measureCount) {
+    this.deviceId = deviceId;
+    for (int i = 0; i < measureCount; i++) {
+      int offset = i;
+      measures.add(new Measure(measureName(i), "Stub Measure " + i, () -> value++ + offset));
+    }
+  }
+
+  static String measureName(int index) {
+    return "MEASURE_" + index;
+  }
+
+  /** Returns a subscription request for the first {@code count} measures of inventory item 0. */
+  static String request(int count, String format) {
+    var json = new StringBuilder("{\"type\":\"start\",\"format\":\"").append(format);
+    json.append("\",\"subscription\":[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) json.append(',');
+      json.append("{\"itemId\":0,\"measurementId\":\"").append(measureName(i)).append("\"}");
+    }
+    return json.append("]}").toString();
+  }
+
+  @Override
+  public int getDeviceId() {
+    return deviceId;
+  }
+
+  @NotNull
+  @Override
+  public String getDescription() {
+    return "Stub Measurable " + deviceId;
+  }
+
+  @NotNull
+  @Override
+  public Set<Measure> getMeasures() {
+    return measures;
+  }
+}
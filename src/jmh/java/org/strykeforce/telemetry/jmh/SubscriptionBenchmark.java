@@ -0,0 +1,48 @@
+package org.strykeforce.telemetry.jmh;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.strykeforce.telemetry.RobotInventory;
+import org.strykeforce.telemetry.grapher.Subscription;
+
+/** Sampling and serializing one data frame of a subscription. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SubscriptionBenchmark {
+
+  @Param({"10", "50", "200"})
+  int measures;
+
+  @Param({"json", "binary64", "binary32"})
+  String format;
+
+  Subscription subscription;
+  ByteBuffer buffer;
+
+  @Setup
+  public void setUp() {
+    var inventory = new RobotInventory(Set.of(new StubMeasurable(0, measures)));
+    subscription =
+        new Subscription(
+            inventory, InetAddress.getLoopbackAddress(), StubMeasurable.request(measures, format));
+    buffer = ByteBuffer.allocate(subscription.getMaxFrameSize());
+  }
+
+  @Benchmark
+  public ByteBuffer writeFrame() {
+    buffer.clear();
+    subscription.writeFrame(buffer);
+    return buffer;
+  }
+}
@@ -0,0 +1,230 @@
+package org.strykeforce.telemetry.jmh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import okio.Buffer;
+import org.strykeforce.telemetry.TelemetryController;
+import org.strykeforce.telemetry.TelemetryService;
+import org.strykeforce.telemetry.grapher.ClientHandler;
+import org.strykeforce.telemetry.grapher.FrameFormat;
+import org.strykeforce.telemetry.measurable.SyntheticMeasurable;
+
+/**
+ * Load test of the complete telemetry service on the desktop JVM, to find the streaming throughput
+ * ceiling before a robot does. Registers {@link SyntheticMeasurable} devices with a {@link
+ * TelemetryService}, subscribes several loopback grapher clients to every measure through the
+ * {@link TelemetryController} web service and counts the frames each client receives. Run with:
+ *
+ * <pre>
+ * ./gradlew telemetryLoad --args="--devices 50 --measures 20 --clients 4 --seconds 10"
+ * </pre>
+ *
+ * Options are {@code --devices}, {@code --measures} per device, {@code --clients}, {@code
+ * --seconds}, {@code --format} ({@code binary64}, {@code binary32} or {@code json}), {@code
+ * --rate} in Hz, {@code --port} of the web service and {@code --lookup-table} to read precomputed
+ * signals. Binary frames of every measure must fit in one datagram, so keep measures below about
+ * 8,000 with {@code binary64}.
+ *
+ * <p>For each client it reports frames and bytes per second and, for binary formats, frames lost
+ * between the robot and client, found from gaps in frame sequence numbers. It then reports the
+ * client handler's dropped frames, unsent datagrams and timing percentiles, see {@link
+ * ClientHandler#getStats()}.
+ */
+public final class TelemetryLoadHarness {
+
+  private int devices = 50;
+  private int measures = 20;
+  private int clients = 4;
+  private int seconds = 10;
+  private String format = "binary64";
+  private double rate = 200.0;
+  private int port = 5800;
+  private boolean lookupTable = false;
+
+  public static void main(String[] args) throws Exception {
+    var harness = new TelemetryLoadHarness();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--devices" -> harness.devices = Integer.parseInt(args[++i]);
+        case "--measures" -> harness.measures = Integer.parseInt(args[++i]);
+        case "--clients" -> harness.clients = Integer.parseInt(args[++i]);
+        case "--seconds" -> harness.seconds = Integer.parseInt(args[++i]);
+        case "--format" -> harness.format = args[++i];
+        case "--rate" -> harness.rate = Double.parseDouble(args[++i]);
+        case "--port" -> harness.port = Integer.parseInt(args[++i]);
+        case "--lookup-table" -> harness.lookupTable = true;
+        default -> throw new IllegalArgumentException("unknown option: " + args[i]);
+      }
+    }
+    harness.run();
+  }
+
+  private void run() throws Exception {
+    var clientHandler = new AtomicReference<ClientHandler>();
+    var service =
+        new TelemetryService(
+            inventory -> {
+              try {
+                clientHandler.set(new ClientHandler(5801, DatagramChannel.open()));
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+              return new TelemetryController(
+                  inventory, clientHandler.get(), new InetSocketAddress(port));
+            });
+    var measurables = SyntheticMeasurable.create(devices, measures, lookupTable);
+    service.registerAll(new ArrayList<>(measurables));
+    service.start();
+    System.out.printf(
+        "streaming %d measures of %d devices to %d clients as %s at %.1f Hz for %d s%s%n",
+        devices * measures,
+        devices,
+        clients,
+        format,
+        rate,
+        seconds,
+        lookupTable ? " from lookup tables" : "");
+
+    var http = HttpClient.newHttpClient();
+    var endpoint = URI.create("http://127.0.0.1:" + port + "/v1/grapher/subscription");
+    List<LoadClient> loadClients = new ArrayList<>();
+    try {
+      for (int i = 0; i < clients; i++) {
+        var client = new LoadClient(FrameFormat.fromWireName(format), devices * measures);
+        var response =
+            http.send(
+                HttpRequest.newBuilder(endpoint)
+                    .POST(HttpRequest.BodyPublishers.ofString(request(client.port())))
+                    .build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+          throw new IllegalStateException("subscription rejected: " + response.body());
+        }
+        client.start();
+        loadClients.add(client);
+      }
+
+      Thread.sleep(seconds * 1000L);
+
+      for (var client : loadClients) {
+        http.send(
+            HttpRequest.newBuilder(URI.create(endpoint + "?port=" + client.port()))
+                .DELETE()
+                .build(),
+            HttpResponse.BodyHandlers.discarding());
+      }
+    } finally {
+      service.stop();
+      loadClients.forEach(LoadClient::close);
+    }
+
+    for (int i = 0; i < loadClients.size(); i++) {
+      var client = loadClients.get(i);
+      System.out.printf(
+          "client %d: %.1f frames/s, %.2f MB/s, %d frames lost%n",
+          i,
+          client.frames / (double) seconds,
+          client.bytes / (seconds * 1e6),
+          client.lost);
+    }
+    var handler = clientHandler.get();
+    System.out.printf(
+        "dropped frames: %d, unsent datagrams: %d, max frame lag: %d%n",
+        handler.getDroppedFrames(), handler.getUnsentDatagrams(), handler.getMaxFrameLag());
+    var stats = new Buffer();
+    handler.getStats().writeStats(stats);
+    System.out.println(stats.readUtf8());
+  }
+
+  /** Returns a subscription request for every measure of every device. */
+  private String request(int clientPort) {
+    var json = new StringBuilder("{\"type\":\"start\",\"format\":\"").append(format);
+    json.append("\",\"port\":").append(clientPort).append(",\"rate\":").append(rate);
+    json.append(",\"subscription\":[");
+    for (int device = 0; device < devices; device++) {
+      for (int measure = 0; measure < measures; measure++) {
+        if (device > 0 || measure > 0) json.append(',');
+        json.append("{\"itemId\":").append(device);
+        json.append(",\"measurementId\":\"MEASURE_").append(measure).append("\"}");
+      }
+    }
+    return json.append("]}").toString();
+  }
+
+  /** A grapher client that counts the frames and bytes it receives on its own thread. */
+  private static class LoadClient extends Thread {
+
+    private final DatagramSocket socket;
+    private final FrameFormat format;
+    private final int measureCount;
+    volatile long frames;
+    volatile long bytes;
+    volatile long lost;
+
+    LoadClient(FrameFormat format, int measureCount) throws SocketException {
+      super("LoadClient");
+      setDaemon(true);
+      socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+      socket.setReceiveBufferSize(4 * 1024 * 1024);
+      this.format = format;
+      this.measureCount = measureCount;
+    }
+
+    int port() {
+      return socket.getLocalPort();
+    }
+
+    void close() {
+      socket.close();
+    }
+
+    @Override
+    public void run() {
+      byte[] bytes = new byte[65536];
+      int lastSequence = -1;
+      while (!socket.isClosed()) {
+        var packet = new DatagramPacket(bytes, bytes.length);
+        try {
+          socket.receive(packet);
+        } catch (IOException e) {
+          return;
+        }
+        this.bytes += packet.getLength();
+        if (!format.isBinary()) {
+          frames++;
+          continue;
+        }
+        // binary frames may be batched into one datagram, see FrameFormat for the layout
+        var buffer = ByteBuffer.wrap(bytes, 0, packet.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        while (offset < packet.getLength()) {
+          int sequence = buffer.getInt(offset);
+          if (lastSequence >= 0 && sequence > lastSequence + 1) lost += sequence - lastSequence - 1;
+          lastSequence = sequence;
+          int count = buffer.getShort(offset + 12) & 0xFFFF;
+          boolean masked = (buffer.get(offset + 15) & FrameFormat.FLAG_MEASURE_MASK) != 0;
+          offset +=
+              FrameFormat.BINARY_HEADER_SIZE
+                  + (masked ? (measureCount + 7) / 8 : 0)
+                  + count * format.getValueSize();
+          frames++;
+        }
+      }
+    }
+  }
+}
@@ -4,15 +4,29 @@ import com.sun.net.httpserver.HttpServer
 import java.io.OutputStream
 import java.lang.Exception
 import java.net.InetSocketAddress
+import java.util.concurrent.ExecutorService
 import mu.KotlinLogging
 import org.strykeforce.healthcheck.HealthCheckCommand
+import org.strykeforce.telemetry.util.HttpServerConfig
 
 private val logger = KotlinLogging.logger {}
 
-class ReportServer(private val healthCheck: RobotHealthCheck) {
+private const val REPORT_PORT = 2767
+
+/**
+ * Serves the health check report. Requests are handled on `executor`, which is shut down when the
+ * server is stopped.
+ */
+class ReportServer
+@JvmOverloads
+constructor(
+  private val healthCheck: RobotHealthCheck,
+  private val executor: ExecutorService = newExecutor(),
+) {
   private val httpServer =
-    HttpServer.create(InetSocketAddress(2767), 0).apply {
-      createContext("/run") {
+    newServer().apply {
+      executor = this@ReportServer.executor
+      HttpServerConfig.createContext(this, "/run") {
         logger.info { "${it.requestMethod} ${it.requestURI}" }
         HealthCheckCommand.BUTTON.setPressed(true)
 
@@ -23,7 +37,7 @@ class ReportServer(private val healthCheck: RobotHealthCheck) {
         it.responseBody.writer().use { out -> out.write("BUTTON pressed") }
       }
 
-      createContext("/data") { httpExchange ->
+      HttpServerConfig.createContext(this, "/data") { httpExchange ->
         httpExchange.responseHeaders.let { headers -> headers["Content-Type"] = "application/json" }
         httpExchange.sendResponseHeaders(200, 0)
 
@@ -40,13 +54,26 @@ class ReportServer(private val healthCheck: RobotHealthCheck) {
       start()
     }
 
-  fun stop() = httpServer.stop(0)
+  fun stop() {
+    httpServer.stop(0)
+    executor.shutdown()
+  }
 }
 
-class ReportServerIO(private val healthCheck: RobotIOHealthCheck) {
+/**
+ * Serves the IO health check report. Requests are handled on `executor`, which is shut down when
+ * the server is stopped.
+ */
+class ReportServerIO
+@JvmOverloads
+constructor(
+  private val healthCheck: RobotIOHealthCheck,
+  private val executor: ExecutorService = newExecutor(),
+) {
   private val httpServer =
-    HttpServer.create(InetSocketAddress(2767), 0).apply {
-      createContext("/run") {
+    newServer().apply {
+      executor = this@ReportServerIO.executor
+      HttpServerConfig.createContext(this, "/run") {
         logger.info { "${it.requestMethod} ${it.requestURI}" }
         HealthCheckCommand.BUTTON.setPressed(true)
 
@@ -57,7 +84,7 @@ class ReportServerIO(private val healthCheck: RobotIOHealthCheck) {
         it.responseBody.writer().use { out -> out.write("BUTTON pressed") }
       }
 
-      createContext("/data") { httpExchange ->
+      HttpServerConfig.createContext(this, "/data") { httpExchange ->
         httpExchange.responseHeaders.let { headers -> headers["Content-Type"] = "application/json" }
         httpExchange.sendResponseHeaders(200, 0)
 
@@ -74,9 +101,16 @@ class ReportServerIO(private val healthCheck: RobotIOHealthCheck) {
       start()
     }
 
-  fun stop() = httpServer.stop(0)
+  fun stop() {
+    httpServer.stop(0)
+    executor.shutdown()
+  }
 }
 
+private fun newExecutor() = HttpServerConfig.newExecutor("ReportServer")
+
+private fun newServer(): HttpServer = HttpServer.create(InetSocketAddress(REPORT_PORT), 0)
+
 class JsonVisitor(outputStream: OutputStream) : HealthCheckVisitor {
 
   private val writer = outputStream.bufferedWriter()
@@ -4,33 +4,128 @@ import com.squareup.moshi.JsonWriter
 import java.io.IOException
 import okio.BufferedSink
 import org.strykeforce.telemetry.measurable.Measurable
+import org.strykeforce.telemetry.measurable.MeasureTable
 
-/** An abstract base class intended to be subclassed by concrete implementations of [Inventory]. */
+/**
+ * An abstract base class intended to be subclassed by concrete implementations of [Inventory].
+ *
+ * Items passed to the constructor are sorted and assigned inventory IDs in order. Items registered
+ * later are assigned the next unused ID and IDs of removed items are never reused, so an ID refers
+ * to the same item for the life of the inventory. Each change publishes a new immutable snapshot
+ * and increments the [version], so readers never need to lock. The [MeasureTable] of each item is
+ * built once, when it is added.
+ */
 abstract class AbstractInventory(measurableSet: Collection<Measurable>) : Inventory {
 
-  protected val measurableList = measurableSet.sorted()
+  // replaced, never mutated, when items are registered or removed
+  @Volatile
+  private var snapshot = measurableSet.sorted().let { Snapshot(0, it, it.map(::MeasureTable)) }
 
-  override fun measurableForId(index: Int) = measurableList[index]
+  /**
+   * The `Measurable` items currently in inventory, in inventory ID order. Once an item has been
+   * removed the index of an item is no longer its ID.
+   */
+  @Deprecated(
+    "Indexes are not inventory IDs once an item is removed",
+    ReplaceWith("measurablesById"),
+  )
+  protected val measurableList: List<Measurable>
+    get() = snapshot.items.filterNotNull()
+
+  /** The `Measurable` items currently in inventory, by inventory ID. */
+  val measurables: Map<Int, Measurable>
+    get() = snapshot.byId()
+
+  /**
+   * The `Measurable` items in inventory, indexed by inventory ID. The entry of a removed item is
+   * `null` so the index of every item is still its ID, see [measurables] for only current items.
+   */
+  val measurablesById: List<Measurable?>
+    get() = snapshot.items
+
+  override val version: Int
+    get() = snapshot.version
+
+  override fun measurableForId(index: Int): Measurable =
+    snapshot.items.getOrNull(index) ?: throw IndexOutOfBoundsException("no inventory item $index")
+
+  override fun measureTable(index: Int): MeasureTable =
+    snapshot.tables.getOrNull(index) ?: throw IndexOutOfBoundsException("no inventory item $index")
+
+  /**
+   * Add an item to the inventory, assigning it the next inventory ID.
+   *
+   * @return the inventory ID of the item, its existing ID if already in inventory.
+   */
+  @Synchronized
+  fun register(measurable: Measurable): Int {
+    val current = snapshot
+    val existing = current.items.indexOf(measurable)
+    if (existing >= 0) return existing
+    snapshot =
+      Snapshot(
+        current.version + 1,
+        current.items + measurable,
+        current.tables + MeasureTable(measurable),
+      )
+    return current.items.size
+  }
+
+  /**
+   * Remove an item from the inventory. Its inventory ID is not reused.
+   *
+   * @return `true` if the item was in inventory.
+   */
+  @Synchronized
+  fun remove(measurable: Measurable): Boolean {
+    val current = snapshot
+    val id = current.items.indexOf(measurable)
+    if (id < 0) return false
+    snapshot =
+      Snapshot(
+        current.version + 1,
+        current.items.toMutableList().also { it[id] = null },
+        current.tables.toMutableList().also { it[id] = null },
+      )
+    return true
+  }
+
+  @Throws(IOException::class)
+  override fun writeInventory(sink: BufferedSink) = writeInventory(sink, "  ")
 
   @Throws(IOException::class)
-  override fun writeInventory(sink: BufferedSink) {
+  override fun writeCompactInventory(sink: BufferedSink) = writeInventory(sink, "")
+
+  private fun writeInventory(sink: BufferedSink, indent: String) {
+    val snapshot = snapshot
     val writer = JsonWriter.of(sink)
-    writer.indent = "  "
+    writer.indent = indent
     writer
       .beginObject()
+      .name("version")
+      .value(snapshot.version.toLong())
       .name("items")
-      .writeMeasurableList(measurableList)
+      .writeMeasurableList(snapshot.items)
       .name("measures")
-      .writeMeasures(measurableList)
+      .writeMeasures(snapshot.items.filterNotNull())
       .endObject()
   }
 
-  override fun toString() = "AbstractInventory(items=$measurableList)"
+  override fun toString() = "AbstractInventory(items=$measurables)"
+
+  private class Snapshot(
+    val version: Int,
+    val items: List<Measurable?>,
+    val tables: List<MeasureTable?>,
+  ) {
+    fun byId() = buildMap { items.forEachIndexed { id, item -> if (item != null) put(id, item) } }
+  }
 }
 
-private fun JsonWriter.writeMeasurableList(items: List<Measurable>): JsonWriter {
+private fun JsonWriter.writeMeasurableList(items: List<Measurable?>): JsonWriter {
   beginArray()
   items.forEachIndexed { index, item ->
+    if (item == null) return@forEachIndexed
     beginObject()
     name("id").value(index)
     name("type").value(item.type)
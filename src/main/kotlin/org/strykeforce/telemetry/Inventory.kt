@@ -3,6 +3,7 @@ package org.strykeforce.telemetry
 import java.io.IOException
 import okio.BufferedSink
 import org.strykeforce.telemetry.measurable.Measurable
+import org.strykeforce.telemetry.measurable.MeasureTable
 
 /** Represents the inventory of robot hardware and subsystems that can have telemetry streaming. */
 interface Inventory {
@@ -17,6 +18,19 @@ interface Inventory {
    */
   fun measurableForId(index: Int): Measurable
 
+  /**
+   * Gets the indexed measures of a measurable item by its inventory ID. By default the table is
+   * built on each call, inventories should build it once per item.
+   *
+   * @param index the inventory ID to look up.
+   * @return the measure table of the found Measurable item.
+   */
+  fun measureTable(index: Int): MeasureTable = MeasureTable(measurableForId(index))
+
+  /** Incremented each time items are added to or removed from the inventory. */
+  val version: Int
+    get() = 0
+
   /**
    * Writes the grapher-format JSON inventory to the supplied sink.
    *
@@ -24,4 +38,14 @@ interface Inventory {
    * @throws IOException if an IO error occurs during writing.
    */
   @Throws(IOException::class) fun writeInventory(sink: BufferedSink)
+
+  /**
+   * Writes the grapher-format JSON inventory to the supplied sink without indentation. By default
+   * this is the same as [writeInventory].
+   *
+   * @param sink the sink to write to.
+   * @throws IOException if an IO error occurs during writing.
+   */
+  @Throws(IOException::class)
+  fun writeCompactInventory(sink: BufferedSink) = writeInventory(sink)
 }
@@ -1,42 +1,135 @@
 package org.strykeforce.telemetry
 
+import com.squareup.moshi.JsonDataException
+import com.squareup.moshi.JsonEncodingException
+import com.squareup.moshi.JsonWriter
 import com.sun.net.httpserver.HttpExchange
 import com.sun.net.httpserver.HttpHandler
 import com.sun.net.httpserver.HttpServer
+import java.io.ByteArrayOutputStream
 import java.io.OutputStream
-import java.net.DatagramSocket
+import java.io.OutputStreamWriter
 import java.net.Inet4Address
 import java.net.InetSocketAddress
 import java.net.NetworkInterface
+import java.nio.channels.DatagramChannel
+import java.security.MessageDigest
 import java.util.*
-import java.util.concurrent.Executors
+import java.util.concurrent.ExecutorService
+import java.util.function.Supplier
+import java.util.zip.GZIPOutputStream
 import mu.KotlinLogging
 import okio.Buffer
 import org.strykeforce.telemetry.grapher.ClientHandler
+import org.strykeforce.telemetry.grapher.ClientHandlerMeasurable
 import org.strykeforce.telemetry.grapher.Subscription
+import org.strykeforce.telemetry.grapher.TelemetryStats
+import org.strykeforce.telemetry.recorder.RecordingReader
+import org.strykeforce.telemetry.recorder.TelemetryRecorder
+import org.strykeforce.telemetry.util.HttpServerConfig
 
 private const val SERVER_PORT = 5800
 private const val CLIENT_PORT = 5801
 private const val GRAPHER = "/v1/grapher"
 private const val INVENTORY_ENDPOINT = "$GRAPHER/inventory"
 private const val SUBSCRIPTION_ENDPOINT = "$GRAPHER/subscription"
+private const val RECORDING_ENDPOINT = "$GRAPHER/recording"
+private const val STATS_ENDPOINT = "$GRAPHER/stats"
 
 private val logger = KotlinLogging.logger {}
 
+/**
+ * Serves the inventory JSON, encoded when the controller starts and again only when the inventory
+ * version changes. Responses carry an `ETag` so clients can revalidate with `If-None-Match`, are
+ * gzip-compressed if the `Accept-Encoding` header accepts gzip with a quality above zero, and are
+ * compact, without indentation, if requested with the `compact=true` query parameter.
+ */
 private class InventoryHandler(private val inventory: Inventory) : HttpHandler {
+  private var version = inventory.version
+  @Volatile
+  private var indented = InventoryRepresentation(Buffer().also(inventory::writeInventory))
+  @Volatile
+  private var compact = InventoryRepresentation(Buffer().also(inventory::writeCompactInventory))
+
   override fun handle(exchange: HttpExchange?) {
     checkNotNull(exchange) { "InventoryHandler handle called with null HttpExchange" }
     if (exchange.requestMethod.uppercase() != "GET")
       error("InventoryHandler expects GET request method")
 
-    val buffer = Buffer()
-    inventory.writeInventory(buffer)
-    exchange.jsonResponse(buffer)
-    buffer.close()
+    refresh()
+    val representation = if (exchange.queryParameter("compact") == "true") compact else indented
+    val gzip = acceptsGzip(exchange.requestHeaders.getFirst("Accept-Encoding"))
+    val etag = if (gzip) representation.gzipEtag else representation.etag
+    exchange.responseHeaders.let {
+      it["ETag"] = etag
+      it["Cache-Control"] = "no-cache"
+      it["Vary"] = "Accept-Encoding"
+    }
+    if (exchange.requestHeaders.getFirst("If-None-Match")?.let { matches(it, etag) } == true) {
+      exchange.sendResponseHeaders(304, -1)
+      exchange.close()
+      logger.debug { "inventory not modified for ${exchange.remoteAddress}" }
+      return
+    }
+    if (gzip) exchange.responseHeaders["Content-Encoding"] = "gzip"
+    exchange.jsonResponse(if (gzip) representation.gzipBytes else representation.bytes)
     logger.info { "inventory requested from ${exchange.remoteAddress}" }
   }
+
+  /** Rebuild the cached representations if measurables were registered or removed. */
+  @Synchronized
+  private fun refresh() {
+    if (inventory.version == version) return
+    version = inventory.version
+    indented = InventoryRepresentation(Buffer().also(inventory::writeInventory))
+    compact = InventoryRepresentation(Buffer().also(inventory::writeCompactInventory))
+    logger.info { "inventory changed to version $version" }
+  }
+
+  /** Weak comparison of an `If-None-Match` header value with an entity tag. */
+  private fun matches(ifNoneMatch: String, etag: String) =
+    ifNoneMatch.trim() == "*" || ifNoneMatch.split(',').any { it.trim().removePrefix("W/") == etag }
+
+  /**
+   * Returns `true` if an `Accept-Encoding` header value accepts gzip, either by name or with `*`,
+   * with a quality value above zero. A coding listed by name overrides `*`.
+   */
+  private fun acceptsGzip(acceptEncoding: String?): Boolean {
+    var gzip: Double? = null
+    var any: Double? = null
+    acceptEncoding?.split(',')?.forEach { element ->
+      val params = element.split(';').map { it.trim() }
+      val quality =
+        params
+          .drop(1)
+          .find { it.startsWith("q=", ignoreCase = true) }
+          ?.let { it.substring(2).trim().toDoubleOrNull() ?: 0.0 } ?: 1.0
+      when (params[0].lowercase()) {
+        "gzip",
+        "x-gzip" -> gzip = maxOf(gzip ?: 0.0, quality)
+        "*" -> any = quality
+      }
+    }
+    return (gzip ?: any ?: 0.0) > 0.0
+  }
+}
+
+private class InventoryRepresentation(buffer: Buffer) {
+  val bytes: ByteArray = buffer.readByteArray()
+  val gzipBytes: ByteArray = gzip(bytes)
+  val etag = "\"${sha1(bytes)}\""
+  val gzipEtag = "\"${sha1(bytes)}-gzip\""
+}
+
+private fun gzip(bytes: ByteArray): ByteArray {
+  val out = ByteArrayOutputStream()
+  GZIPOutputStream(out).use { it.write(bytes) }
+  return out.toByteArray()
 }
 
+private fun sha1(bytes: ByteArray) =
+  MessageDigest.getInstance("SHA-1").digest(bytes).joinToString("") { "%02x".format(it) }
+
 private class SubscriptionHandler(
   private val inventory: Inventory,
   private val clientHandler: ClientHandler,
@@ -47,7 +140,16 @@ private class SubscriptionHandler(
     if (exchange.requestMethod.uppercase() == "POST") {
       val buffer = Buffer()
       buffer.readFrom(exchange.requestBody)
-      val sub = Subscription(inventory, exchange.remoteAddress.address, buffer.readUtf8())
+      val sub =
+        try {
+          Subscription(inventory, exchange.remoteAddress.address, buffer.readUtf8())
+        } catch (e: IllegalArgumentException) {
+          return reject(exchange, e)
+        } catch (e: JsonDataException) {
+          return reject(exchange, e)
+        } catch (e: JsonEncodingException) {
+          return reject(exchange, e)
+        }
       clientHandler.start(sub)
       buffer.clear()
       sub.toJson(buffer)
@@ -58,7 +160,12 @@ private class SubscriptionHandler(
     }
 
     if (exchange.requestMethod.uppercase() == "DELETE") {
-      clientHandler.shutdown()
+      val port =
+        exchange.queryParameter("port")?.let {
+          it.toIntOrNull()?.takeIf { port -> port in 0..0xFFFF }
+            ?: return reject(exchange, IllegalArgumentException("invalid client port: $it"))
+        }
+      clientHandler.stop(exchange.remoteAddress.address, port)
       exchange.sendResponseHeaders(204, -1)
       logger.info { "subscription stopped from ${exchange.remoteAddress}" }
       return
@@ -66,6 +173,75 @@ private class SubscriptionHandler(
 
     error("SubscriptionHandler expects POST or DELETE request method")
   }
+
+  /** Respond to an invalid subscription request without disturbing existing subscriptions. */
+  private fun reject(exchange: HttpExchange, e: Exception) {
+    exchange.errorResponse(400, e.message ?: "invalid subscription request")
+    logger.warn { "invalid subscription from ${exchange.remoteAddress}: ${e.message}" }
+  }
+}
+
+private class StatsHandler(private val clientHandler: ClientHandler) : HttpHandler {
+  override fun handle(exchange: HttpExchange?) {
+    checkNotNull(exchange) { "StatsHandler handle called with null HttpExchange" }
+    if (exchange.requestMethod.uppercase() != "GET")
+      error("StatsHandler expects GET request method")
+
+    val buffer = Buffer()
+    clientHandler.stats.writeStats(buffer)
+    exchange.jsonResponse(buffer)
+    logger.debug { "stats requested from ${exchange.remoteAddress}" }
+  }
+}
+
+private class RecordingHandler(private val reader: RecordingReader) : HttpHandler {
+  override fun handle(exchange: HttpExchange?) {
+    checkNotNull(exchange) { "RecordingHandler handle called with null HttpExchange" }
+    if (exchange.requestMethod.uppercase() != "GET")
+      error("RecordingHandler expects GET request method")
+
+    val start = exchange.timeParameter("start", 0L) ?: return reject(exchange)
+    val end = exchange.timeParameter("end", Long.MAX_VALUE) ?: return reject(exchange)
+    exchange.responseHeaders.let { it["Content-Type"] = "text/csv; charset=utf-8" }
+    exchange.sendResponseHeaders(200, 0)
+    OutputStreamWriter(exchange.responseBody, Charsets.UTF_8).buffered().use {
+      reader.writeCsv(start, end, it)
+    }
+    logger.info { "recording $start to $end requested from ${exchange.remoteAddress}" }
+  }
+
+  /** Returns a time query parameter, `default` if missing or `null` if it is not a number. */
+  private fun HttpExchange.timeParameter(name: String, default: Long): Long? =
+    queryParameter(name).let { if (it == null) default else it.toLongOrNull() }
+
+  private fun reject(exchange: HttpExchange) {
+    exchange.errorResponse(400, "start and end must be milliseconds since the epoch")
+    logger.warn { "invalid recording request from ${exchange.remoteAddress}" }
+  }
+}
+
+private fun HttpExchange.queryParameter(name: String): String? =
+  requestURI.rawQuery
+    ?.split('&')
+    ?.map { it.split('=', limit = 2) }
+    ?.find { it[0] == name }
+    ?.getOrNull(1)
+
+/** Respond with a JSON error object, for example `{"type": "error", "message": "..."}`. */
+private fun HttpExchange.errorResponse(code: Int, message: String) {
+  val buffer = Buffer()
+  JsonWriter.of(buffer).use {
+    it.beginObject().name("type").value("error").name("message").value(message).endObject()
+  }
+  this.responseHeaders.let { it["Content-Type"] = "application/json; charset=utf-8" }
+  this.sendResponseHeaders(code, buffer.size)
+  this.responseBody.use { buffer.writeTo(it) }
+}
+
+private fun HttpExchange.jsonResponse(bytes: ByteArray) {
+  this.responseHeaders.let { it["Content-Type"] = "application/json; charset=utf-8" }
+  this.sendResponseHeaders(200, bytes.size.toLong())
+  this.responseBody.use { it.write(bytes) }
 }
 
 private fun HttpExchange.jsonResponse(buffer: Buffer) {
@@ -77,40 +253,101 @@ private fun HttpExchange.jsonResponse(buffer: Buffer) {
   out.close()
 }
 
-/** Provides a web service to config telemetry. */
-class TelemetryController(
+/**
+ * Provides a web service to config telemetry.
+ *
+ * If a [TelemetryRecorder] is supplied, it records the inventory while the web service is running
+ * and recorded time ranges can be downloaded as CSV from `/v1/grapher/recording`, with optional
+ * `start` and `end` query parameters in milliseconds since the epoch.
+ *
+ * Percentiles of the streaming loop timing and frame sizes are available from `/v1/grapher/stats`,
+ * see [TelemetryStats].
+ *
+ * Requests are handled concurrently on an executor created by `executorFactory` each time the web
+ * service starts and shut down when it stops. By default this uses virtual threads if available,
+ * see [HttpServerConfig.newExecutor], which closes requests that take too long and refuses requests
+ * with 503 when too many are waiting.
+ */
+class TelemetryController
+@JvmOverloads
+constructor(
   private val inventory: Inventory,
   private val clientHandler: ClientHandler,
   private val socket: InetSocketAddress,
+  private val recorder: TelemetryRecorder? = null,
+  private val executorFactory: Supplier<ExecutorService> = Supplier {
+    HttpServerConfig.newExecutor("TelemetryController")
+  },
 ) {
 
   constructor(
     inventory: Inventory
-  ) : this(inventory, ClientHandler(CLIENT_PORT, DatagramSocket()), InetSocketAddress(SERVER_PORT))
+  ) : this(
+    inventory,
+    ClientHandler(CLIENT_PORT, DatagramChannel.open()),
+    InetSocketAddress(SERVER_PORT),
+  )
+
+  constructor(
+    inventory: Inventory,
+    recorder: TelemetryRecorder,
+  ) : this(
+    inventory,
+    ClientHandler(CLIENT_PORT, DatagramChannel.open()),
+    InetSocketAddress(SERVER_PORT),
+    recorder,
+  )
+
+  /** Maximum bytes per second streamed to grapher clients, or zero for no limit. */
+  var bandwidthBudget: Int
+    get() = clientHandler.bandwidthBudget
+    set(value) {
+      clientHandler.bandwidthBudget = value
+    }
+
+  /** Histograms of the grapher streaming loop. */
+  val stats: TelemetryStats
+    get() = clientHandler.stats
+
+  /** Dropped frames, sending lag and client count of the grapher streaming loop. */
+  val clientHandlerMeasurable = ClientHandlerMeasurable(clientHandler)
 
   /** HTTP server. */
   private var server: HttpServer? = null
+  private var executor: ExecutorService? = null
 
   /** Start web service to listen for HTTP commands that control telemetry service. */
   fun start() {
     check(server == null) { "start called while already started" }
+    val executor = executorFactory.get().also { executor = it }
     server =
       HttpServer.create().apply {
         bind(socket, 0)
-        executor = Executors.newSingleThreadExecutor()
-        createContext(INVENTORY_ENDPOINT, InventoryHandler(inventory))
-        createContext(SUBSCRIPTION_ENDPOINT, SubscriptionHandler(inventory, clientHandler))
+        this.executor = executor
+        val inventoryHandler = InventoryHandler(inventory)
+        HttpServerConfig.createContext(this, INVENTORY_ENDPOINT, inventoryHandler)
+        val subscriptionHandler = SubscriptionHandler(inventory, clientHandler)
+        HttpServerConfig.createContext(this, SUBSCRIPTION_ENDPOINT, subscriptionHandler)
+        HttpServerConfig.createContext(this, STATS_ENDPOINT, StatsHandler(clientHandler))
+        recorder?.let {
+          val recordingHandler = RecordingHandler(RecordingReader(it.directory))
+          HttpServerConfig.createContext(this, RECORDING_ENDPOINT, recordingHandler)
+        }
       }
     server?.start()
+    recorder?.start(inventory)
     logger.info("started web service")
     inventoryEndpoints.forEach(logger::info)
   }
 
-  /** Stop streaming to client and shut down web service. */
+  /** Stop streaming to all clients and shut down web service. */
   fun shutdown() {
     clientHandler.shutdown()
+    recorder?.stop()
     server?.stop(0)
     server = null
+    executor?.shutdown()
+    executor = null
     logger.info("stopped web service")
   }
 
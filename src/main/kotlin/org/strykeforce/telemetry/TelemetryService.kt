@@ -13,7 +13,10 @@ import java.util.function.Function
 import mu.KotlinLogging
 import org.strykeforce.controller.motorControl.SF_TalonFX
 import org.strykeforce.controller.motorControl.SF_TalonFXS
+import org.strykeforce.telemetry.grapher.ClientHandlerMeasurable
+import org.strykeforce.telemetry.grapher.TelemetryStatsMeasurable
 import org.strykeforce.telemetry.measurable.*
+import org.strykeforce.telemetry.nt.NTSink
 import org.strykeforce.telemetry.talon.TalonFXFaultMeasureable
 import org.strykeforce.telemetry.talon.TalonFXMeasureable
 
@@ -33,9 +36,18 @@ private val logger = KotlinLogging.logger {}
  * ts.register(talon);
  * ts.start();
  * ```
+ *
+ * @param telemetryControllerFactory creates the [TelemetryController] for an inventory.
+ * @param graphStats `true`, the default, to also add a [TelemetryStatsMeasurable] for the
+ *   controller's streaming statistics and a [ClientHandlerMeasurable] for its dropped frames and
+ *   sending lag to the inventory so they can be graphed, or `false` to leave them out. The
+ *   statistics are always available from `/v1/grapher/stats`.
  */
-class TelemetryService(
-  private val telemetryControllerFactory: Function<Inventory, TelemetryController>
+class TelemetryService
+@JvmOverloads
+constructor(
+  private val telemetryControllerFactory: Function<Inventory, TelemetryController>,
+  val graphStats: Boolean = true,
 ) {
 
   // Current implementation passes the `items` list to the inventory as a collection when start is
@@ -43,22 +55,60 @@ class TelemetryService(
   // sorts and copies this collection into a List, using its index in this list as the inventory id.
   // This should provide
   // a stable order of measurable items that assists the Grapher client when saving its
-  // configuration.
+  // configuration. Items registered or removed while running are published to the running
+  // inventory, which assigns new items the next inventory id and never reuses ids.
 
   private val measurableSet = LinkedHashSet<Measurable>()
   private var telemetryController: TelemetryController? = null
+  private var inventory: RobotInventory? = null
+
+  /**
+   * Maximum bytes per second streamed to grapher clients, or zero for no limit. When set, the
+   * sample rates of subscribed measures are lowered, lowest priority first, so streaming stays
+   * within the budget and leaves room on the robot radio for control and camera traffic.
+   */
+  var bandwidthBudget = 0
+    set(value) {
+      require(value >= 0) { "bandwidth budget must not be negative: $value" }
+      field = value
+      telemetryController?.bandwidthBudget = value
+    }
+
+  /**
+   * Publishes the registered items to NetworkTables while the service is running, or `null` to not
+   * publish them. Setting it while running stops the previous sink and starts the new one.
+   */
+  var ntSink: NTSink? = null
+    set(value) {
+      inventory?.let { inventory ->
+        field?.stop()
+        value?.start(inventory)
+      }
+      field = value
+    }
 
   /**
    * Start the Telemetry service and listen for client connections. A new instance of
-   * [TelemetryController] is created that reflects the current list of [Measurable] items.
+   * [TelemetryController] is created that reflects the current list of [Measurable] items. If
+   * [graphStats] is set, a [TelemetryStatsMeasurable] for its streaming statistics and its
+   * [ClientHandlerMeasurable] are added to the inventory.
    */
   fun start() {
     if (telemetryController != null) {
       logger.info("already started")
       return
     }
+    val inventory = RobotInventory(measurableSet).also { inventory = it }
     telemetryController =
-      telemetryControllerFactory.apply(RobotInventory(measurableSet)).also { it.start() }
+      telemetryControllerFactory.apply(inventory).also {
+        if (graphStats) {
+          inventory.register(TelemetryStatsMeasurable(it.stats))
+          inventory.register(it.clientHandlerMeasurable)
+        }
+        it.bandwidthBudget = bandwidthBudget
+        it.start()
+      }
+    ntSink?.start(inventory)
     logger.info("started telemetry controller")
   }
 
@@ -70,31 +120,27 @@ class TelemetryService(
     }
     telemetryController?.shutdown()
     telemetryController = null
+    ntSink?.stop()
+    inventory = null
     logger.info("stopped")
   }
 
-  /**
-   * Un-register all [Measurable] items.
-   *
-   * @throws IllegalStateException if TelemetryService is running.
-   */
+  /** Un-register all [Measurable] items. */
   fun clear() {
-    check(telemetryController == null) {
-      "TelemetryService must be stopped to clear registered items."
-    }
+    inventory?.let { inventory -> measurableSet.forEach { inventory.remove(it) } }
     measurableSet.clear()
     logger.info("item set was cleared")
   }
 
   /**
-   * Registers an Item for telemetry sending.
+   * Registers an Item for telemetry sending. If the service is running, the item is added to the
+   * running inventory and is available to new subscriptions without disturbing existing ones.
    *
    * @param measurable the [Measurable] to register for data collection
-   * @throws IllegalStateException if TelemetryService is running.
    */
   fun register(measurable: Measurable) {
-    check(telemetryController == null) { "TelemetryService must be stopped to register an item." }
     if (measurableSet.add(measurable)) {
+      inventory?.register(measurable)
       logger.info { "registered item ${measurable.description}" }
       return
     }
@@ -105,7 +151,6 @@ class TelemetryService(
    * Register a collection of [Measurable] items for telemetry sending.
    *
    * @param collection the collection of Items to register for data collection
-   * @throws IllegalStateException if TelemetryService is running.
    */
   fun registerAll(collection: Collection<Measurable>) = collection.forEach(this::register)
 
@@ -113,7 +158,6 @@ class TelemetryService(
    * Convenience method to register a [BaseTalon] for telemetry sending.
    *
    * @param talon the BaseTalon to register for data collection
-   * @throws IllegalStateException if TelemetryService is running.
    */
   fun register(talon: BaseTalon) {
     register(BaseTalonMeasurable(talon))
@@ -123,7 +167,6 @@ class TelemetryService(
    * Convenience method to register a [TalonSRX] for telemetry sending.
    *
    * @param talon the TalonSRX to register for data collection
-   * @throws IllegalStateException if TelemetryService is running.
    */
   fun register(talon: TalonSRX) {
     register(TalonSRXMeasurable(talon))
@@ -135,7 +178,6 @@ class TelemetryService(
    *
    * @param talon the TalonFX to register for data collection
    * @param faults boolean to indicate fault registering
-   * @throws IllegalStateException if TelemetryService is running
    */
   fun register(talon: TalonFX, faults: Boolean) {
     if (faults) {
@@ -150,7 +192,6 @@ class TelemetryService(
    *
    * @param talon the TalonFX to register for data collection
    * @param faults boolean to indicate fault registering
-   * @throws IllegalStateException if TelemetryService is running
    */
   fun register(talon: SF_TalonFX, faults: Boolean) {
     if (faults) {
@@ -165,7 +206,6 @@ class TelemetryService(
    *
    * @param talon the TalonFXS to register for data collection
    * @param faults boolean to indicate fault registering
-   * @throws IllegalStateException if TelemetryService is running
    */
   fun register(talon: TalonFXS, faults: Boolean) {
     if (faults) {
@@ -180,7 +220,6 @@ class TelemetryService(
    *
    * @param talon the TalonFXS to register for data collection
    * @param faults boolean to indicate fault registering
-   * @throws IllegalStateException if TelemetryService is running
    */
   fun register(talon: SF_TalonFXS, faults: Boolean) {
     if (faults) {
@@ -193,7 +232,6 @@ class TelemetryService(
    * Convenience method to register a [com.ctre.phoenix6.hardware.CANcoder] for telemetry sending
    *
    * @param cancoder the CANcoder to register for data collection
-   * @throws IllegalStateException if TelemetryService is running
    */
   fun register(cancoder: CANcoder) {
     register(CancoderMeasureable(cancoder))
@@ -203,7 +241,6 @@ class TelemetryService(
    * Convenience method to register a [com.ctre.phoenix6.hardware.Pigeon2] for telemetry sending
    *
    * @param pigeon2 the Pigeon2 to register for data collection
-   * @throws IllegalStateException if TelemetryService is running
    */
   fun register(pigeon2: Pigeon2) {
     register(Pigeon2Measureable(pigeon2))
@@ -219,13 +256,14 @@ class TelemetryService(
   }
 
   /**
-   * Unregister a [Measurable] item. This service must be stopped first.
+   * Unregister a [Measurable] item. If the service is running, the item is removed from the running
+   * inventory and its inventory ID is not reused.
    *
-   * @throws AssertionError if TelemetryService is running.
+   * @throws AssertionError if the item is not registered.
    */
   fun remove(item: Measurable) {
-    check(telemetryController == null) { "TelemetryService must be stopped to remove an item." }
     if (measurableSet.remove(item)) {
+      inventory?.remove(item)
       logger.info { "removed $item" }
       return
     }
@@ -0,0 +1,92 @@
+package org.strykeforce.telemetry.grapher
+
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger {}
+
+private const val TICKS_PER_SECOND = 1000.0 / PERIOD
+
+// IPv4 and UDP headers sent with each datagram
+internal const val DATAGRAM_OVERHEAD = 28
+
+// measures are not slowed below 1 Hz to stay under budget
+private const val MAX_BUDGET_PERIOD = 200L
+
+/**
+ * Slow the effective sample rates of subscribed measures until the estimated bandwidth of all the
+ * subscriptions fits in a budget. Measures with the lowest `priority` are slowed first, fastest
+ * first, by doubling their period so they stay in step with the measures they were sampled with.
+ * Measures are not slowed below 1 Hz, or below their requested rate if that is already slower, the
+ * last step is shortened to stop at exactly 1 Hz.
+ *
+ * The estimate is an upper bound using the encoded frame sizes of each subscription's format,
+ * assuming one frame per datagram and that every measure is sent when due.
+ *
+ * @param subscriptions the subscriptions sharing the budget, their
+ *   [Subscription.effectivePeriods] are replaced.
+ * @param budget bytes per second, or zero for no budget.
+ * @return the estimated bytes per second at the effective rates.
+ */
+internal fun applyBandwidthBudget(subscriptions: List<Subscription>, budget: Int): Double {
+  require(budget >= 0) { "bandwidth budget must not be negative: $budget" }
+  val periods = subscriptions.map { it.periods.copyOf() }
+  if (budget > 0) {
+    while (estimatedBandwidth(subscriptions, periods) > budget) {
+      if (!slowLowestPriority(subscriptions, periods)) {
+        logger.warn { "telemetry bandwidth budget of $budget bytes/sec can't be met" }
+        break
+      }
+    }
+  }
+  subscriptions.forEachIndexed { i, subscription -> subscription.effectivePeriods = periods[i] }
+  return estimatedBandwidth(subscriptions, periods)
+}
+
+/**
+ * Double the period of the fastest measure with the lowest priority that can still be slowed, up to
+ * [MAX_BUDGET_PERIOD] or its requested period if longer.
+ */
+private fun slowLowestPriority(
+  subscriptions: List<Subscription>,
+  periods: List<LongArray>,
+): Boolean {
+  var client = -1
+  var measure = -1
+  subscriptions.forEachIndexed { c, subscription ->
+    for (m in periods[c].indices) {
+      if (periods[c][m] >= maxOf(MAX_BUDGET_PERIOD, subscription.periods[m])) continue
+      if (client < 0) {
+        client = c
+        measure = m
+        continue
+      }
+      val priority = subscription.priorities[m]
+      val best = subscriptions[client].priorities[measure]
+      if (priority < best || priority == best && periods[c][m] < periods[client][measure]) {
+        client = c
+        measure = m
+      }
+    }
+  }
+  if (client < 0) return false
+  val limit = maxOf(MAX_BUDGET_PERIOD, subscriptions[client].periods[measure])
+  periods[client][measure] = minOf(periods[client][measure] * 2, limit)
+  return true
+}
+
+private fun estimatedBandwidth(
+  subscriptions: List<Subscription>,
+  periods: List<LongArray>,
+): Double {
+  var total = 0.0
+  subscriptions.forEachIndexed { c, subscription ->
+    // values per tick, and frames per tick since a frame is sent if any value is due
+    val values = periods[c].sumOf { 1.0 / it }
+    val frames = minOf(1.0, values)
+    total +=
+      TICKS_PER_SECOND *
+        (frames * (subscription.frameOverhead + DATAGRAM_OVERHEAD) +
+          values * subscription.valueCost)
+  }
+  return total
+}
@@ -1,52 +1,455 @@
 package org.strykeforce.telemetry.grapher
 
-import java.net.DatagramPacket
+import java.io.IOException
 import java.net.DatagramSocket
+import java.net.InetAddress
 import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
 import java.util.concurrent.Executors
 import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit.MICROSECONDS
 import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.locks.LockSupport
+import java.util.function.DoubleSupplier
+import java.util.function.Supplier
+import kotlin.math.abs
 import mu.KotlinLogging
-import okio.Buffer
+import org.strykeforce.telemetry.measurable.StatusSignalMeasurement
+import org.strykeforce.telemetry.measurable.StatusSignalRefresher
+import org.strykeforce.telemetry.measurable.WindowedMeasurement
+import org.strykeforce.telemetry.measurable.captureTimeMicros
 
-private const val PERIOD = 5L // milliseconds
+internal const val PERIOD = 5L // milliseconds
+private const val PERIOD_NANOS = PERIOD * 1_000_000
+
+// aggregated measures are sampled at this rate between frames
+internal const val AGGREGATE_PERIOD = 1000L // microseconds
+
+// frames buffered between the sampling and sending threads, must be a power of two
+private const val RING_CAPACITY = 64
+
+// binary frames are batched into datagrams up to this size, safely below a typical Ethernet MTU
+private const val MAX_DATAGRAM_SIZE = 1400
 
 private val logger = KotlinLogging.logger {}
 
-/** Handles data streaming with Grapher client. */
-class ClientHandler(private val port: Int, private val socket: DatagramSocket) {
+/**
+ * Handles data streaming with Grapher clients.
+ *
+ * Each client is identified by its address and UDP port and has its own [Subscription]. All clients
+ * share a single sampling pass per tick, so a measure subscribed to by several clients is only read
+ * once per tick. A [SchedulingWheel] tracks when each subscribed measure is next due so measures
+ * are only read at their requested rate. Phoenix 6 status signals of the due measures are refreshed
+ * in one batch per CAN bus before they are read, see [StatusSignalMeasurement].
+ *
+ * Sampling runs on its own thread at a fixed rate and never waits for the network: sampled frames
+ * are passed to a separate sending thread through a lock-free [SampleRing]. The sending thread
+ * encodes frames for each client and batches consecutive binary frames into one datagram when it
+ * has fallen behind. If it falls more than the ring capacity behind, the oldest frames are dropped
+ * and counted in [droppedFrames].
+ *
+ * Frames are encoded in place into a direct buffer for each client and sent on a single
+ * non-blocking [DatagramChannel], so the sending thread never blocks on the kernel. Datagrams the
+ * kernel has no room for are counted in [unsentDatagrams]. While streaming to a single client the
+ * channel is connected to it.
+ *
+ * Aggregated measures, see [WindowedMeasurement], are sampled every [AGGREGATE_PERIOD] on a
+ * dedicated thread that only runs while at least one client streams them. Each frame then carries
+ * the statistic of the samples taken since the measure's previous frame. Aggregated measures are
+ * not shared between clients, so each client's window spans its own frames.
+ *
+ * The timing of the sampling and sending threads and the size of each frame are recorded in
+ * [stats].
+ *
+ * If a [bandwidthBudget] is set, the effective sample rates of subscribed measures are lowered by
+ * priority until the estimated bandwidth of all clients fits in it, see
+ * [Subscription.effectiveRates].
+ */
+class ClientHandler
+internal constructor(
+  private val port: Int,
+  private val channel: DatagramChannel,
+  private val schedulers: Supplier<ScheduledExecutorService>,
+) {
+
+  /** Create a client handler that sends on `channel` to clients on `port` by default. */
+  constructor(
+    port: Int,
+    channel: DatagramChannel,
+  ) : this(port, channel, Supplier { Executors.newSingleThreadScheduledExecutor() })
+
+  /**
+   * Create a client handler that sends on the channel of `socket`, or on a new channel if the
+   * socket was not created by a [DatagramChannel].
+   */
+  @Deprecated("Use a DatagramChannel", ReplaceWith("ClientHandler(port, DatagramChannel.open())"))
+  constructor(
+    port: Int,
+    socket: DatagramSocket,
+  ) : this(port, socket.channel ?: DatagramChannel.open())
+
+  // only used by the sending thread
+  private var connectedAddress: InetSocketAddress? = null
+
+  init {
+    channel.configureBlocking(false)
+  }
 
+  private val subscriptions = LinkedHashMap<InetSocketAddress, Subscription>()
   private var scheduler: ScheduledExecutorService? = null
+  private var aggregator: ScheduledExecutorService? = null
+  @Volatile private var sender: Thread? = null
+  @Volatile private var sending = false
+  private var tick = 0L
+  private var lastTickNanos = 0L
+
+  // replaced, never mutated, when subscriptions change so the sampling thread needs no locks
+  @Volatile private var snapshot = Snapshot(emptyArray(), emptyArray())
+
+  /** Addresses of the clients currently being streamed to. */
+  val clients: Set<InetSocketAddress>
+    @Synchronized get() = subscriptions.keys.toSet()
+
+  /** Number of clients currently being streamed to, read without locking. */
+  val clientCount: Int
+    get() = snapshot.clients.size
+
+  /** Total number of sampled frames dropped because the sending thread fell behind. */
+  @Volatile
+  var droppedFrames = 0L
+    private set
+
+  /** Number of sampled frames waiting to be sent when the sending thread last woke up. */
+  @Volatile
+  var frameLag = 0L
+    private set
+
+  /** Largest [frameLag] seen since streaming started. */
+  @Volatile
+  var maxFrameLag = 0L
+    private set
+
+  /**
+   * Maximum bytes per second to stream to all clients, or zero for no limit. Changing the budget
+   * recalculates the effective rates of current subscriptions.
+   */
+  @get:Synchronized
+  var bandwidthBudget = 0
+    @Synchronized
+    set(value) {
+      require(value >= 0) { "bandwidth budget must not be negative: $value" }
+      field = value
+      publish()
+    }
+
+  /** Estimated bytes per second streamed to all clients at their effective rates. */
+  @Volatile
+  var estimatedBandwidth = 0.0
+    private set
+
+  /** Histograms of the sampling and sending threads, recorded since the handler was created. */
+  val stats = TelemetryStats()
+
+  /** Total number of datagrams not sent because the channel's send buffer was full. */
+  @Volatile
+  var unsentDatagrams = 0L
+    private set
 
   /**
-   * Start streaming the `Measurable` items specified in the subscription.
+   * Start streaming the `Measurable` items specified in the subscription, replacing any existing
+   * subscription for the same client address and port.
    *
    * @param subscription items to stream to client
    */
+  @Synchronized
   fun start(subscription: Subscription) {
-    if (scheduler != null) return
-
-    val address = InetSocketAddress(subscription.client, port)
-    val packet = DatagramPacket(ByteArray(0), 0, address)
-    val buffer = Buffer()
-    val runnable = {
-      subscription.measurementsToJson(buffer)
-      val bytes = buffer.readByteArray()
-      packet.setData(bytes, 0, bytes.size)
-      socket.send(packet)
+    val address = InetSocketAddress(subscription.client, subscription.port ?: port)
+    subscriptions[address] = subscription
+    publish()
+    if (scheduler == null) {
+      lastTickNanos = 0L
+      sending = true
+      sender =
+        Thread(this::sendFrames, "ClientHandler-sender").also {
+          it.isDaemon = true
+          it.start()
+        }
+      scheduler =
+        schedulers.get().also {
+          it.scheduleAtFixedRate(this::sampleFrame, 0, PERIOD, MILLISECONDS)
+        }
     }
+    updateAggregator()
+    logger.info { "sending ${subscription.format.wireName} graph data to $address" }
+  }
 
-    scheduler =
-      Executors.newSingleThreadScheduledExecutor().also {
-        it.scheduleAtFixedRate(runnable, 0, PERIOD, MILLISECONDS)
-      }
-    logger.info { "sending graph data to ${subscription.client}:$port" }
+  /**
+   * Stop streaming to a client.
+   *
+   * @param client the client address
+   * @param clientPort the client UDP port, or `null` for the default client port
+   */
+  @JvmOverloads
+  @Synchronized
+  fun stop(client: InetAddress, clientPort: Int? = null) {
+    val address = InetSocketAddress(client, clientPort ?: port)
+    if (subscriptions.remove(address) == null) {
+      logger.info { "no subscription for $address" }
+      return
+    }
+    if (subscriptions.isEmpty()) stopScheduler()
+    publish()
+    updateAggregator()
+    logger.info { "stopped streaming graph data to $address" }
   }
 
-  /** Stop streaming to client. */
+  /** Stop streaming to all clients. */
+  @Synchronized
   fun shutdown() {
-    scheduler?.let { it.shutdown() }
-    scheduler = null
+    subscriptions.clear()
+    stopScheduler()
+    publish()
+    updateAggregator()
     logger.info("stopped streaming graph data")
   }
+
+  /** Stop sampling, then let the sending thread send any frames already sampled and exit. */
+  private fun stopScheduler() {
+    scheduler?.let {
+      it.shutdown()
+      it.awaitTermination(1, SECONDS)
+    }
+    scheduler = null
+    sending = false
+    sender?.let {
+      LockSupport.unpark(it)
+      it.join(1000)
+    }
+    sender = null
+  }
+
+  /** Run the aggregating thread only while streaming and at least one measure is aggregated. */
+  private fun updateAggregator() {
+    val needed = scheduler != null && snapshot.windowed.isNotEmpty()
+    if (needed && aggregator == null) {
+      aggregator =
+        schedulers.get().also {
+          it.scheduleAtFixedRate(this::sampleWindows, 0, AGGREGATE_PERIOD, MICROSECONDS)
+        }
+    } else if (!needed) {
+      aggregator?.let {
+        it.shutdown()
+        it.awaitTermination(1, SECONDS)
+      }
+      aggregator = null
+    }
+  }
+
+  /** Build and publish the immutable sampling snapshot for the current subscriptions. */
+  private fun publish() {
+    estimatedBandwidth = applyBandwidthBudget(subscriptions.values.toList(), bandwidthBudget)
+    val slots = LinkedHashMap<Subscription.MeasureKey, Int>()
+    val suppliers = ArrayList<DoubleSupplier>()
+    var entries = 0
+    val clients =
+      subscriptions.map { (address, subscription) ->
+        val indexes =
+          subscription.measureKeys
+            .mapIndexed { i, key ->
+              val newSlot = {
+                suppliers += subscription.supplier(i)
+                suppliers.size - 1
+              }
+              // reading a windowed measure starts its next window, so each subscriber has its own
+              if (key.aggregate != null) newSlot() else slots.getOrPut(key, newSlot)
+            }
+            .toIntArray()
+        Client(address, subscription, indexes, entries).also { entries += indexes.size }
+      }
+    snapshot = Snapshot(suppliers.toTypedArray(), clients.toTypedArray())
+  }
+
+  /** Runs on the scheduler thread each [PERIOD]. */
+  private fun sampleFrame() {
+    val start = System.nanoTime()
+    if (lastTickNanos != 0L) stats.jitter.record(abs(start - lastTickNanos - PERIOD_NANOS) / 1000)
+    lastTickNanos = start
+    val snapshot = this.snapshot
+    val tick = this.tick++
+    val count = snapshot.wheel.advance(tick, snapshot.dueEntries)
+    if (count == 0) return
+    for (i in 0 until count) {
+      val entry = snapshot.dueEntries[i]
+      snapshot.refresher.request(snapshot.entrySlot[entry])
+    }
+    snapshot.refresher.refresh()
+    snapshot.due.fill(false)
+    for (i in 0 until count) {
+      val entry = snapshot.dueEntries[i]
+      snapshot.sample(snapshot.entrySlot[entry], tick)
+      snapshot.due[entry] = true
+    }
+    val timestamp = System.currentTimeMillis()
+    snapshot.ring.offer(timestamp, start / 1000, snapshot.values, snapshot.times, snapshot.due)
+    stats.sampleTime.record((System.nanoTime() - start) / 1000)
+    LockSupport.unpark(sender)
+  }
+
+  /** Runs on the aggregator thread each [AGGREGATE_PERIOD]. */
+  private fun sampleWindows() {
+    val snapshot = this.snapshot
+    snapshot.windowRefresher.requestAll()
+    snapshot.windowRefresher.refresh()
+    for (measurement in snapshot.windowed) measurement.sample()
+  }
+
+  /** Runs on the sender thread until stopped, parking while there is nothing to send. */
+  private fun sendFrames() {
+    var current: Snapshot? = null
+    while (true) {
+      val stopping = !sending
+      val snapshot = this.snapshot
+      if (snapshot !== current) {
+        // send what was sampled before subscriptions changed to the clients it was sampled for
+        current?.let { drain(it) }
+        connect(snapshot)
+        current = snapshot
+      }
+      drain(snapshot)
+      if (stopping) return
+      LockSupport.park(this)
+    }
+  }
+
+  /** Connect the channel to the only client, if there is just one, to skip per-send lookups. */
+  private fun connect(snapshot: Snapshot) {
+    val address = snapshot.clients.singleOrNull()?.address
+    if (address == connectedAddress) return
+    try {
+      if (channel.isConnected) channel.disconnect()
+      connectedAddress = null
+      if (address != null) {
+        channel.connect(address)
+        connectedAddress = address
+      }
+    } catch (e: IOException) {
+      logger.warn(e) { "unable to connect to $address, sending unconnected" }
+    }
+  }
+
+  private fun drain(snapshot: Snapshot) {
+    val ring = snapshot.ring
+    val lag = ring.lag
+    frameLag = lag
+    if (lag > maxFrameLag) maxFrameLag = lag
+    val dropped = ring.dropped
+    while (ring.poll(snapshot.frame)) {
+      for (client in snapshot.clients) client.append(snapshot.frame)
+    }
+    for (client in snapshot.clients) client.flush()
+    if (ring.dropped != dropped) droppedFrames += ring.dropped - dropped
+  }
+
+  private fun Client.append(frame: SampleFrame) {
+    if (buffer.position() > 0 && buffer.remaining() < subscription.maxFrameSize) flush()
+    val start = System.nanoTime()
+    val position = buffer.position()
+    val written =
+      subscription.writeFrame(
+        buffer,
+        frame.timestamp,
+        frame.sampleTime,
+        frame.values,
+        frame.times,
+        slots,
+        frame.due,
+        firstEntry,
+      )
+    if (written) {
+      stats.encodeTime.record((System.nanoTime() - start) / 1000)
+      stats.frameSize.record((buffer.position() - position).toLong())
+    }
+    // JSON frames are self-contained documents so are never batched
+    if (written && !subscription.format.isBinary) flush()
+  }
+
+  private fun Client.flush() {
+    if (buffer.position() == 0) return
+    buffer.flip()
+    try {
+      val start = System.nanoTime()
+      val sent =
+        if (address == connectedAddress) channel.write(buffer) else channel.send(buffer, address)
+      stats.sendTime.record((System.nanoTime() - start) / 1000)
+      if (sent == 0) unsentDatagrams++
+    } catch (e: IOException) {
+      if (sendErrors++ == 0) logger.error(e) { "error sending to $address" }
+    }
+    buffer.clear()
+  }
+
+  private class Snapshot(val suppliers: Array<DoubleSupplier>, val clients: Array<Client>) {
+    val values = DoubleArray(suppliers.size)
+    val times = LongArray(suppliers.size)
+    val refresher = StatusSignalRefresher(suppliers)
+
+    // sampled by the aggregator thread, which refreshes their sources' status signals itself
+    val windowed = suppliers.filterIsInstance<WindowedMeasurement>().toTypedArray()
+    val windowRefresher = StatusSignalRefresher(Array(windowed.size) { windowed[it].source })
+
+    // capture times are only read if a client streams them
+    private val timed = clients.any { it.subscription.sampleTimes }
+    private val sampledTick = LongArray(suppliers.size) { -1L }
+
+    // one wheel entry per subscribed measure of each client, in client order
+    val entrySlot: IntArray
+    val wheel: SchedulingWheel
+    val dueEntries: IntArray
+    val due: BooleanArray
+
+    // written by the sampling thread, read by the sending thread
+    val ring: SampleRing
+    val frame: SampleFrame
+
+    init {
+      val entries = clients.sumOf { it.slots.size }
+      entrySlot = IntArray(entries)
+      val periods = LongArray(entries)
+      var entry = 0
+      for (client in clients) {
+        for (m in client.slots.indices) {
+          entrySlot[entry] = client.slots[m]
+          periods[entry] = client.subscription.effectivePeriods[m]
+          entry++
+        }
+      }
+      wheel = SchedulingWheel(periods)
+      dueEntries = IntArray(entries)
+      due = BooleanArray(entries)
+      ring = SampleRing(RING_CAPACITY, suppliers.size, entries)
+      frame = SampleFrame(suppliers.size, entries)
+    }
+
+    /** Read the slot if not already read this tick, so shared measures are read once per tick. */
+    fun sample(slot: Int, tick: Long) {
+      if (sampledTick[slot] == tick) return
+      values[slot] = suppliers[slot].asDouble
+      if (timed) times[slot] = suppliers[slot].captureTimeMicros()
+      sampledTick[slot] = tick
+    }
+  }
+
+  private class Client(
+    val address: InetSocketAddress,
+    val subscription: Subscription,
+    val slots: IntArray,
+    val firstEntry: Int,
+  ) {
+    // frames are encoded in place and sent from this buffer without copying to the heap
+    val buffer: ByteBuffer =
+      ByteBuffer.allocateDirect(maxOf(subscription.maxFrameSize, MAX_DATAGRAM_SIZE))
+    var sendErrors = 0
+  }
 }
@@ -0,0 +1,32 @@
+package org.strykeforce.telemetry.grapher
+
+import org.strykeforce.telemetry.measurable.Measurable
+import org.strykeforce.telemetry.measurable.Measure
+
+internal const val DROPPED_FRAMES = "DROPPED_FRAMES"
+internal const val FRAME_LAG = "FRAME_LAG"
+internal const val MAX_FRAME_LAG = "MAX_FRAME_LAG"
+internal const val CLIENT_COUNT = "CLIENT_COUNT"
+internal const val UNSENT_DATAGRAMS = "UNSENT_DATAGRAMS"
+
+/**
+ * Represents the streaming health of a [ClientHandler] as a telemetry-enabled `Measurable` item, so
+ * dropped frames and sending lag can be graphed alongside the measures being streamed.
+ */
+class ClientHandlerMeasurable
+@JvmOverloads
+constructor(
+  private val clientHandler: ClientHandler,
+  override val description: String = "Grapher Client Handler",
+  override val deviceId: Int = 0,
+) : Measurable {
+
+  override val measures =
+    setOf(
+      Measure(DROPPED_FRAMES, "Dropped Frames") { clientHandler.droppedFrames.toDouble() },
+      Measure(FRAME_LAG, "Frame Lag") { clientHandler.frameLag.toDouble() },
+      Measure(MAX_FRAME_LAG, "Max Frame Lag") { clientHandler.maxFrameLag.toDouble() },
+      Measure(CLIENT_COUNT, "Client Count") { clientHandler.clientCount.toDouble() },
+      Measure(UNSENT_DATAGRAMS, "Unsent Datagrams") { clientHandler.unsentDatagrams.toDouble() },
+    )
+}
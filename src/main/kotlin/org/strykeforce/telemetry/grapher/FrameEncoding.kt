@@ -0,0 +1,33 @@
+package org.strykeforce.telemetry.grapher
+
+/**
+ * How the values in a subscription's data frames are chosen, negotiated by the optional `encoding`
+ * field of the subscription request.
+ *
+ * With [DELTA] encoding a full keyframe, flagged with [FrameFormat.FLAG_KEYFRAME], is sent every
+ * `keyframeInterval` milliseconds. Frames in between only carry the due measures that have changed
+ * by more than their `deadband` since the value last sent, using the same measure mask as frames of
+ * measures sampled at different rates. Clients rebuild the full stream by holding the last value
+ * received for each measure. A frame is not sent at all if no measure has changed.
+ */
+enum class FrameEncoding(val wireName: String) {
+  /** Every due measure is sent in each frame. */
+  FULL("full"),
+
+  /** Periodic keyframes and frames of only the measures that changed. */
+  DELTA("delta");
+
+  companion object {
+    /**
+     * Look up an encoding by its wire name, defaulting to [FULL] if not specified.
+     *
+     * @throws IllegalArgumentException if the name is not a known encoding.
+     */
+    @JvmStatic
+    fun fromWireName(name: String?): FrameEncoding {
+      if (name == null) return FULL
+      return values().find { it.wireName == name.lowercase() }
+        ?: throw IllegalArgumentException("unknown grapher frame encoding: $name")
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package org.strykeforce.telemetry.grapher
+
+/**
+ * Wire format of the data frames streamed to a grapher client, negotiated by the optional `format`
+ * field of the subscription request.
+ *
+ * Binary frames are little-endian and start with a fixed [BINARY_HEADER_SIZE] byte header:
+ * ```
+ * offset  size  field
+ *      0     4  sequence number, incremented each frame
+ *      4     8  timestamp, milliseconds since the epoch
+ *     12     2  number of values that follow (unsigned)
+ *     14     1  format code, see [code]
+ *     15     1  flags, see [FLAG_MEASURE_MASK], [FLAG_KEYFRAME] and [FLAG_SAMPLE_TIMES]
+ *     16     4  inventory version, see [org.strykeforce.telemetry.Inventory.version]
+ *     20     m  measure mask, only if flagged
+ *   20+m     s  sample time, only if flagged
+ * 20+m+s     n  values as IEEE 754 doubles or floats
+ * 20+m+s+n   o  capture time offsets, only if flagged
+ * ```
+ *
+ * The inventory version changes when items are registered or removed while streaming, telling the
+ * client to fetch the inventory again before subscribing to new items. Subscribed item IDs remain
+ * valid. The version field was added in the same release as inventory changes while streaming,
+ * earlier releases send a 16-byte header that ends with the flags.
+ *
+ * When measures in a subscription are sampled at different rates, a frame only carries the measures
+ * due that tick. These frames set [FLAG_MEASURE_MASK] and follow the header with a bit mask of one
+ * bit per subscribed measure, least significant bit first, marking the measures that have a value
+ * in the frame. Values are always in subscription order.
+ *
+ * Frames with [FLAG_SAMPLE_TIMES] set follow the mask with an 8-byte sample time, in microseconds
+ * of the robot's monotonic clock, and follow the values with a 4-byte signed offset in microseconds
+ * from the sample time to when each value was captured, in value order. Phoenix 6 status signals
+ * are usually captured before the sample time, so their offsets are negative.
+ *
+ * A datagram may hold several consecutive binary frames if the sender has fallen behind, so clients
+ * should keep reading frames until the end of the datagram. JSON frames are always sent one per
+ * datagram.
+ */
+enum class FrameFormat(val wireName: String, val code: Int, val valueSize: Int) {
+  /**
+   * JSON object with `timestamp` and `data` fields, the original grapher format. Partial frames add
+   * a `measures` field of subscribed measure indexes, keyframes add `"keyframe": true` and frames
+   * add the inventory `version` once it is no longer zero. Frames with sample times add
+   * `sampleTime` and an `offsets` array of capture time offsets in value order.
+   */
+  JSON("json", 0, 0),
+
+  /** Binary frame with 8-byte double values. */
+  BINARY64("binary64", 1, 8),
+
+  /** Binary frame with 4-byte float values. */
+  BINARY32("binary32", 2, 4);
+
+  val isBinary: Boolean
+    get() = this != JSON
+
+  companion object {
+    /** Size in bytes of the fixed header that starts each binary frame. */
+    const val BINARY_HEADER_SIZE = 20
+
+    /** Header flag set when the frame only contains the measures marked in its measure mask. */
+    const val FLAG_MEASURE_MASK = 0x01
+
+    /** Header flag set on the periodic full frames of a [FrameEncoding.DELTA] subscription. */
+    const val FLAG_KEYFRAME = 0x02
+
+    /** Header flag set when the frame carries the sample time and capture time of each value. */
+    const val FLAG_SAMPLE_TIMES = 0x04
+
+    /**
+     * Look up a format by its wire name, defaulting to [JSON] if not specified.
+     *
+     * @throws IllegalArgumentException if the name is not a known format.
+     */
+    @JvmStatic
+    fun fromWireName(name: String?): FrameFormat {
+      if (name == null) return JSON
+      return values().find { it.wireName == name.lowercase() }
+        ?: throw IllegalArgumentException("unknown grapher frame format: $name")
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package org.strykeforce.telemetry.grapher
+
+import java.lang.invoke.VarHandle
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A single-producer, single-consumer lock-free ring of primitive sample frames. Each frame holds a
+ * timestamp, a monotonic sample time, one value and capture time per sampling slot and one due flag
+ * per scheduling entry.
+ *
+ * The producer never waits: when the consumer falls behind by more than the ring capacity, the
+ * oldest frames are overwritten. The consumer detects overwritten frames, including one overwritten
+ * while it was being copied, skips them and counts them in [dropped].
+ *
+ * Neither [offer] nor [poll] allocate.
+ *
+ * @param capacity number of frames in the ring, must be a power of two.
+ * @param width number of sample values in a frame.
+ * @param entries number of due flags in a frame.
+ */
+internal class SampleRing(
+  private val capacity: Int,
+  private val width: Int,
+  private val entries: Int,
+) {
+  private val mask = capacity - 1
+  private val timestamps = LongArray(capacity)
+  private val sampleTimes = LongArray(capacity)
+  private val values = DoubleArray(capacity * width)
+  private val times = LongArray(capacity * width)
+  private val due = BooleanArray(capacity * entries)
+
+  // sequence number of the next frame written, only advanced by the producer
+  private val written = AtomicLong()
+
+  // sequence number of the next frame read, only used by the consumer
+  private var read = 0L
+
+  init {
+    require(capacity > 0 && capacity and mask == 0) { "capacity must be a power of two: $capacity" }
+  }
+
+  /** Number of frames overwritten before the consumer could read them. Consumer thread only. */
+  var dropped = 0L
+    private set
+
+  /** Number of frames written but not yet read. Consumer thread only. */
+  val lag: Long
+    get() = written.get() - read
+
+  /** Write a frame, overwriting the oldest frame if the ring is full. Producer thread only. */
+  fun offer(
+    timestamp: Long,
+    sampleTime: Long,
+    frameValues: DoubleArray,
+    frameTimes: LongArray,
+    frameDue: BooleanArray,
+  ) {
+    val sequence = written.get()
+    // order the previous publish before overwriting this slot, consumers check it after copying
+    VarHandle.storeStoreFence()
+    val slot = (sequence and mask.toLong()).toInt()
+    timestamps[slot] = timestamp
+    sampleTimes[slot] = sampleTime
+    System.arraycopy(frameValues, 0, values, slot * width, width)
+    System.arraycopy(frameTimes, 0, times, slot * width, width)
+    System.arraycopy(frameDue, 0, due, slot * entries, entries)
+    written.set(sequence + 1)
+  }
+
+  /**
+   * Copy the oldest unread frame into `frame`, skipping frames that were overwritten. Consumer
+   * thread only.
+   *
+   * @return `false` if there were no frames to read.
+   */
+  fun poll(frame: SampleFrame): Boolean {
+    while (true) {
+      val available = written.get() - read
+      if (available == 0L) return false
+      if (available >= capacity) {
+        // the producer may be writing the slot of the frame `capacity` behind it
+        val oldest = read + available - capacity + 1
+        dropped += oldest - read
+        read = oldest
+      }
+      val slot = (read and mask.toLong()).toInt()
+      frame.timestamp = timestamps[slot]
+      frame.sampleTime = sampleTimes[slot]
+      System.arraycopy(values, slot * width, frame.values, 0, width)
+      System.arraycopy(times, slot * width, frame.times, 0, width)
+      System.arraycopy(due, slot * entries, frame.due, 0, entries)
+      VarHandle.loadLoadFence()
+      if (written.get() - read >= capacity) {
+        // overwritten while copying
+        dropped++
+        read++
+        continue
+      }
+      read++
+      return true
+    }
+  }
+}
+
+/** A frame copied out of a [SampleRing] by its consumer. */
+internal class SampleFrame(width: Int, entries: Int) {
+  var timestamp = 0L
+  var sampleTime = 0L
+  val values = DoubleArray(width)
+  val times = LongArray(width)
+  val due = BooleanArray(entries)
+}
@@ -0,0 +1,69 @@
+package org.strykeforce.telemetry.grapher
+
+private const val NONE = -1
+private const val WHEEL_SIZE = 64
+
+/**
+ * Hashed timing wheel tracking when each sampling entry is next due. Entries are chained into the
+ * bucket for their next due tick, so each tick only visits the entries in one bucket instead of
+ * every subscribed measure. Entries with a period longer than the wheel stay in their bucket until
+ * the lap they are due.
+ *
+ * Advancing the wheel does not allocate.
+ *
+ * @param periods the sampling period of each entry, in ticks.
+ */
+internal class SchedulingWheel(private val periods: LongArray) {
+  private val heads = IntArray(WHEEL_SIZE) { NONE }
+  private val next = IntArray(periods.size) { NONE }
+  private val dueTick = LongArray(periods.size)
+  private var started = false
+
+  init {
+    require(periods.all { it > 0 }) { "periods must be positive" }
+  }
+
+  /** Number of entries in this wheel. */
+  val size: Int
+    get() = periods.size
+
+  /**
+   * Collect the entries due at this tick and reschedule them one period later. All entries are due
+   * on the first tick. Ticks must be consecutive.
+   *
+   * @param tick the current tick.
+   * @param due receives the indexes of the due entries, must be at least [size] long.
+   * @return the number of due entries written to `due`.
+   */
+  fun advance(tick: Long, due: IntArray): Int {
+    if (!started) {
+      for (entry in periods.indices) {
+        dueTick[entry] = tick
+        insert(entry)
+      }
+      started = true
+    }
+    val bucket = bucketFor(tick)
+    var entry = heads[bucket]
+    heads[bucket] = NONE
+    var count = 0
+    while (entry != NONE) {
+      val following = next[entry]
+      if (dueTick[entry] <= tick) {
+        due[count++] = entry
+        dueTick[entry] += periods[entry]
+      }
+      insert(entry)
+      entry = following
+    }
+    return count
+  }
+
+  private fun insert(entry: Int) {
+    val bucket = bucketFor(dueTick[entry])
+    next[entry] = heads[bucket]
+    heads[bucket] = entry
+  }
+
+  private fun bucketFor(tick: Long) = (tick % WHEEL_SIZE).toInt()
+}
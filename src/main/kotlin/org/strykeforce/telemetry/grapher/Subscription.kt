@@ -5,41 +5,418 @@ import com.squareup.moshi.JsonWriter
 import com.squareup.moshi.Moshi
 import java.io.IOException
 import java.net.InetAddress
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import java.util.function.DoubleSupplier
+import kotlin.math.abs
+import kotlin.math.roundToLong
 import mu.KotlinLogging
+import okio.Buffer
 import okio.BufferedSink
 import org.strykeforce.telemetry.Inventory
+import org.strykeforce.telemetry.measurable.Aggregate
+import org.strykeforce.telemetry.measurable.MeasureTable
+import org.strykeforce.telemetry.measurable.StatusSignalRefresher
+import org.strykeforce.telemetry.measurable.WindowedMeasurement
+import org.strykeforce.telemetry.measurable.captureTimeMicros
 
 private val logger = KotlinLogging.logger {}
 
-/** Represents a subscription request for streaming data. */
-class Subscription(inventory: Inventory, val client: InetAddress, requestJson: String) {
-  private val measurements = ArrayList<DoubleSupplier>(16)
-  private val descriptions = ArrayList<String>(16)
+// generous upper bound on the text length of a JSON value or measure index and its separator
+private const val JSON_VALUE_SIZE = 25
+private const val JSON_OVERHEAD = 96
+private const val JSON_SAMPLE_TIMES_OVERHEAD = 48
+private const val DEFAULT_KEYFRAME_INTERVAL = 1000L // milliseconds
+
+/**
+ * Represents a subscription request for streaming data.
+ *
+ * Besides the list of measures, the request may specify the data frame `format`, the client UDP
+ * `port` if it is not the default grapher port and the default sample `rate` in Hz. Each measure
+ * may also specify its own `rate`, for example:
+ * ```
+ * {
+ *   "type": "start",
+ *   "rate": 50.0,
+ *   "subscription": [
+ *     { "itemId": 0, "measurementId": "CLOSED_LOOP_ERROR", "rate": 200.0 },
+ *     { "itemId": 0, "measurementId": "DEVICE_TEMP", "rate": 4.0 }
+ *   ]
+ * }
+ * ```
+ * Rates are rounded to a whole number of [PERIOD] ticks. A frame is sent on each tick that at least
+ * one measure is due and only carries the measures due that tick. Each measure may also set a
+ * `priority`, default 0, and if streaming is over its bandwidth budget the measures with the lowest
+ * priority are slowed first. The subscription response reports the effective `rates`.
+ *
+ * Setting `"encoding": "delta"` only sends measures that have changed, see [FrameEncoding]. The
+ * request may set the `keyframeInterval` in milliseconds and each measure may set a `deadband`,
+ * for example to ignore sensor noise:
+ * ```
+ * {
+ *   "type": "start",
+ *   "format": "binary32",
+ *   "encoding": "delta",
+ *   "keyframeInterval": 500,
+ *   "subscription": [
+ *     { "itemId": 0, "measurementId": "STATOR_CURRENT", "deadband": 0.5 },
+ *     { "itemId": 1, "measurementId": "FORWARD_LIMIT_SWITCH_CLOSED" }
+ *   ]
+ * }
+ * ```
+ *
+ * Setting `"sampleTimes": true` adds when each value was captured to the frames, so a client can
+ * align signals sampled at different times, see [FrameFormat.FLAG_SAMPLE_TIMES]. Phoenix 6 status
+ * signals report their device or CANivore capture time, other measures the time they were read.
+ *
+ * A measure may set an `aggregate` of `min`, `max`, `mean` or `rms` to stream that statistic of
+ * the values sampled at [AGGREGATE_PERIOD] since its last frame, instead of its latest value, so
+ * peaks between frames are not missed, see [WindowedMeasurement]. For example:
+ * ```
+ * { "itemId": 0, "measurementId": "STATOR_CURRENT", "aggregate": "max" }
+ * ```
+ *
+ * Measures are looked up in the [MeasureTable] of their inventory item.
+ *
+ * @throws IllegalArgumentException if the request has an unknown item or measure or invalid
+ *   options.
+ */
+class Subscription(
+  private val inventory: Inventory,
+  val client: InetAddress,
+  requestJson: String,
+) {
+  private val measurements: Array<DoubleSupplier>
+  private val refresher: StatusSignalRefresher
+  internal val measureKeys: List<MeasureKey>
+  private val descriptions: List<String>
+  private val samples: DoubleArray
+  private val due: BooleanArray
+  private var dueCount: Int
   private val moshi: Moshi by lazy { Moshi.Builder().build() }
+  private val jsonBuffer: Buffer by lazy { Buffer() }
+  private var sequence = 0
+  private var timestamp = 0L
+  private var sampleTime = 0L
+  private val captureTimes: LongArray
+  private val lastSent: DoubleArray
+  private var nextKeyframe = Long.MIN_VALUE
+  private var keyframe = false
+
+  /** Wire format requested by the client for data frames, [FrameFormat.JSON] if not specified. */
+  val format: FrameFormat
+
+  /** Client UDP port requested by the client, `null` to use the default grapher port. */
+  val port: Int?
+
+  /** How values are chosen for each frame, [FrameEncoding.FULL] if not specified. */
+  val encoding: FrameEncoding
+
+  /** `true` if frames carry the capture time of each value. */
+  val sampleTimes: Boolean
+
+  /** Milliseconds between keyframes when using [FrameEncoding.DELTA] encoding. */
+  val keyframeInterval: Long
+
+  /** Default number of [PERIOD] ticks between samples of a measure. */
+  val decimation: Long
+
+  /** Number of [PERIOD] ticks between samples of each subscribed measure, as requested. */
+  internal val periods: LongArray
+
+  /** Number of [PERIOD] ticks between samples of each subscribed measure, within budget. */
+  @Volatile internal var effectivePeriods: LongArray
+
+  /** Priority of each subscribed measure when slowing measures to fit a bandwidth budget. */
+  internal val priorities: IntArray
+
+  /** Change in value below which a measure is not resent when using delta encoding. */
+  internal val deadbands: DoubleArray
 
   init {
     val request = Subscription_RequestJsonJsonAdapter(moshi).fromJson(requestJson)
+    format = FrameFormat.fromWireName(request?.format)
+    port = request?.port
+    encoding = FrameEncoding.fromWireName(request?.encoding)
+    sampleTimes = request?.sampleTimes ?: false
+    keyframeInterval = request?.keyframeInterval ?: DEFAULT_KEYFRAME_INTERVAL
+    require(keyframeInterval > 0) { "keyframeInterval must be positive: $keyframeInterval" }
+    decimation = request?.rate?.let { ticksForRate(it) } ?: 1L
+    val suppliers = ArrayList<DoubleSupplier>(16)
+    val ticks = ArrayList<Long>(16)
+    val keys = ArrayList<MeasureKey>(16)
+    val names = ArrayList<String>(16)
+    val bands = ArrayList<Double>(16)
+    val priorityList = ArrayList<Int>(16)
     request?.subscription?.forEach { measurement ->
-      val measurable = inventory.measurableForId(measurement.itemId)
-      // FIXME: add null check
-      val measure = measurable.measures.find { it.name == measurement.measurementId }!!
-      measurements += measure.measurement
-      descriptions += "${measurable.description}: ${measure.description}"
+      val table =
+        try {
+          inventory.measureTable(measurement.itemId)
+        } catch (e: IndexOutOfBoundsException) {
+          throw IllegalArgumentException("unknown inventory item: ${measurement.itemId}", e)
+        }
+      val index = table.indexOf(measurement.measurementId)
+      require(index >= 0) {
+        "unknown measure for inventory item ${measurement.itemId}: ${measurement.measurementId}"
+      }
+      val measure = table[index]
+      val aggregate = measurement.aggregate?.let { Aggregate.fromWireName(it) }
+      suppliers +=
+        aggregate?.let { WindowedMeasurement(measure.measurement, it) } ?: measure.measurement
+      keys += MeasureKey(measurement.itemId, index, aggregate)
+      ticks += measurement.rate?.let { ticksForRate(it) } ?: decimation
+      val deadband = measurement.deadband ?: 0.0
+      require(deadband >= 0.0) { "subscription deadband must not be negative: $deadband" }
+      bands += deadband
+      priorityList += measurement.priority ?: 0
+      val suffix = aggregate?.let { " (${it.wireName})" } ?: ""
+      names += "${table.measurable.description}: ${measure.description}$suffix"
     }
+    measurements = suppliers.toTypedArray()
+    refresher = StatusSignalRefresher(measurements)
+    measureKeys = keys
+    periods = ticks.toLongArray()
+    effectivePeriods = periods
+    priorities = priorityList.toIntArray()
+    descriptions = names
+    deadbands = bands.toDoubleArray()
+    samples = DoubleArray(measurements.size)
+    lastSent = DoubleArray(measurements.size)
+    captureTimes = LongArray(measurements.size)
+    due = BooleanArray(measurements.size) { true }
+    dueCount = due.size
   }
 
+  /** Upper bound on the size in bytes of a data frame in the negotiated [format]. */
+  val maxFrameSize: Int
+    get() = frameOverhead + measurements.size * valueCost
+
+  /** Effective sample rate of each subscribed measure in Hz, after any bandwidth budget. */
+  val effectiveRates: DoubleArray
+    get() = effectivePeriods.let { periods -> DoubleArray(periods.size) { rate(periods[it]) } }
+
+  /** Size in bytes of a frame without values, an upper bound for JSON. */
+  internal val frameOverhead: Int
+    get() =
+      if (format.isBinary) FrameFormat.BINARY_HEADER_SIZE + maskSize + if (sampleTimes) 8 else 0
+      else JSON_OVERHEAD + if (sampleTimes) JSON_SAMPLE_TIMES_OVERHEAD else 0
+
+  /** Size in bytes added to a frame by each value, an upper bound for JSON. */
+  internal val valueCost: Int
+    get() =
+      if (format.isBinary) format.valueSize + if (sampleTimes) 4 else 0
+      else 2 * JSON_VALUE_SIZE + if (sampleTimes) JSON_VALUE_SIZE else 0
+
+  private val maskSize: Int
+    get() = (measurements.size + 7) / 8
+
+  /**
+   * Sample each subscribed measure and write a data frame in the negotiated [format] to the buffer,
+   * starting at its current position. Binary frames are sampled and written without allocating, so
+   * a caller that reuses its buffer has an allocation-free streaming loop.
+   *
+   * @param buffer the buffer to write to, it must have at least [maxFrameSize] bytes remaining.
+   */
+  fun writeFrame(buffer: ByteBuffer) {
+    sample()
+    due.fill(true)
+    dueCount = due.size
+    encode(samples, captureTimes, null)
+    if (format.isBinary) writeBinary(buffer) else writeJson(buffer)
+  }
+
+  /**
+   * Write a data frame containing the due measures, from values sampled by a caller shared with
+   * other subscriptions. Nothing is written if none of the subscribed measures are due.
+   *
+   * @param buffer the buffer to write to.
+   * @param timestamp when the values were sampled, in milliseconds since the epoch.
+   * @param sampleTime when the values were sampled, in microseconds of the monotonic clock.
+   * @param values the shared sample values.
+   * @param times capture time of each of the shared sample values, in microseconds of the monotonic
+   *   clock, only read if the subscription sends [sampleTimes].
+   * @param slots for each subscribed measure in order, its index in `values`.
+   * @param dueMeasures for each subscribed measure in order starting at `dueOffset`, `true` if it
+   *   is due this tick.
+   * @param dueOffset index in `dueMeasures` of the first subscribed measure.
+   * @return `true` if a frame was written.
+   */
+  internal fun writeFrame(
+    buffer: ByteBuffer,
+    timestamp: Long,
+    sampleTime: Long,
+    values: DoubleArray,
+    times: LongArray,
+    slots: IntArray,
+    dueMeasures: BooleanArray,
+    dueOffset: Int = 0,
+  ): Boolean {
+    this.timestamp = timestamp
+    this.sampleTime = sampleTime
+    dueCount = 0
+    for (i in slots.indices) {
+      due[i] = dueMeasures[dueOffset + i]
+      if (due[i]) {
+        samples[i] = values[slots[i]]
+        captureTimes[i] = times[slots[i]]
+        dueCount++
+      }
+    }
+    encode(values, times, slots)
+    if (dueCount == 0) return false
+    if (format.isBinary) writeBinary(buffer) else writeJson(buffer)
+    return true
+  }
+
+  internal fun supplier(index: Int) = measurements[index]
+
   @Throws(IOException::class)
   fun measurementsToJson(sink: BufferedSink) {
+    sample()
+    due.fill(true)
+    dueCount = due.size
+    encode(samples, captureTimes, null)
+    writeJson(sink)
+  }
+
+  /**
+   * Write a data frame to the sink in the negotiated [format].
+   *
+   * @param sink the sink to write to.
+   * @throws IOException if an IO error occurs during writing.
+   */
+  @Throws(IOException::class)
+  fun measurementsToFrame(sink: BufferedSink) =
+    if (format.isBinary) measurementsToBinary(sink) else measurementsToJson(sink)
+
+  /**
+   * Write a binary data frame to the sink, see [FrameFormat] for the frame layout.
+   *
+   * @param sink the sink to write to.
+   * @throws IOException if an IO error occurs during writing.
+   */
+  @Throws(IOException::class)
+  fun measurementsToBinary(sink: BufferedSink) {
+    check(format.isBinary) { "subscription format is $format" }
+    val buffer = ByteBuffer.allocate(maxFrameSize)
+    writeFrame(buffer)
+    sink.write(buffer.array(), 0, buffer.position())
+  }
+
+  private fun sample() {
+    timestamp = System.currentTimeMillis()
+    sampleTime = System.nanoTime() / 1000
+    refresher.requestAll()
+    refresher.refresh()
+    for (i in measurements.indices) {
+      samples[i] = measurements[i].asDouble
+      if (sampleTimes) captureTimes[i] = measurements[i].captureTimeMicros()
+    }
+  }
+
+  /**
+   * Apply the subscription [encoding] to the due measures. Delta keyframes add every measure not
+   * already due, using its latest value in `values`, while other delta frames drop due measures
+   * that have not changed by more than their deadband.
+   *
+   * @param values the latest sample values.
+   * @param times the capture times of the latest sample values.
+   * @param slots for each subscribed measure, its index in `values`, or `null` if in order.
+   */
+  private fun encode(values: DoubleArray, times: LongArray, slots: IntArray?) {
+    keyframe = false
+    if (encoding != FrameEncoding.DELTA) return
+    if (timestamp >= nextKeyframe) {
+      keyframe = true
+      nextKeyframe = timestamp + keyframeInterval
+      for (i in due.indices) {
+        if (due[i]) continue
+        val slot = if (slots == null) i else slots[i]
+        samples[i] = values[slot]
+        captureTimes[i] = times[slot]
+        due[i] = true
+      }
+      dueCount = due.size
+    } else {
+      for (i in due.indices) {
+        if (due[i] && !changed(i)) {
+          due[i] = false
+          dueCount--
+        }
+      }
+    }
+    for (i in due.indices) if (due[i]) lastSent[i] = samples[i]
+  }
+
+  private fun changed(i: Int): Boolean {
+    val sample = samples[i]
+    val sent = lastSent[i]
+    if (sample.isNaN() || sent.isNaN()) return sample.isNaN() != sent.isNaN()
+    return abs(sample - sent) > deadbands[i]
+  }
+
+  private fun writeBinary(buffer: ByteBuffer) {
+    val partial = dueCount < due.size
+    var flags = if (partial) FrameFormat.FLAG_MEASURE_MASK else 0
+    if (keyframe) flags = flags or FrameFormat.FLAG_KEYFRAME
+    if (sampleTimes) flags = flags or FrameFormat.FLAG_SAMPLE_TIMES
+    buffer
+      .order(ByteOrder.LITTLE_ENDIAN)
+      .putInt(sequence++)
+      .putLong(timestamp)
+      .putShort(dueCount.toShort())
+      .put(format.code.toByte())
+      .put(flags.toByte())
+      .putInt(inventory.version)
+    if (partial) {
+      for (b in 0 until maskSize) {
+        var bits = 0
+        for (bit in 0 until 8) {
+          val i = b * 8 + bit
+          if (i < due.size && due[i]) bits = bits or (1 shl bit)
+        }
+        buffer.put(bits.toByte())
+      }
+    }
+    if (sampleTimes) buffer.putLong(sampleTime)
+    for (i in samples.indices) {
+      if (!due[i]) continue
+      if (format == FrameFormat.BINARY32) buffer.putFloat(samples[i].toFloat())
+      else buffer.putDouble(samples[i])
+    }
+    if (sampleTimes) for (i in samples.indices) if (due[i]) buffer.putInt(captureOffset(i))
+  }
+
+  /** Capture time of a value relative to the frame sample time, in microseconds. */
+  private fun captureOffset(i: Int) =
+    (captureTimes[i] - sampleTime).coerceIn(Int.MIN_VALUE.toLong(), Int.MAX_VALUE.toLong()).toInt()
+
+  private fun writeJson(buffer: ByteBuffer) {
+    writeJson(jsonBuffer)
+    check(jsonBuffer.size <= buffer.remaining()) { "JSON frame larger than buffer" }
+    while (!jsonBuffer.exhausted()) jsonBuffer.read(buffer)
+  }
+
+  private fun writeJson(sink: BufferedSink) {
     val writer = JsonWriter.of(sink)
-    writer
-      .beginObject()
-      .name("timestamp")
-      .value(System.currentTimeMillis())
-      .name("data")
-      .beginArray()
-    measurements.forEach { writer.value(it.asDouble) }
-    writer.endArray().endObject()
+    writer.beginObject().name("timestamp").value(timestamp)
+    if (keyframe) writer.name("keyframe").value(true)
+    val version = inventory.version
+    if (version != 0) writer.name("version").value(version.toLong())
+    if (dueCount < due.size) {
+      writer.name("measures").beginArray()
+      for (i in due.indices) if (due[i]) writer.value(i.toLong())
+      writer.endArray()
+    }
+    writer.name("data").beginArray()
+    for (i in samples.indices) if (due[i]) writer.value(samples[i])
+    writer.endArray()
+    if (sampleTimes) {
+      writer.name("sampleTime").value(sampleTime).name("offsets").beginArray()
+      for (i in samples.indices) if (due[i]) writer.value(captureOffset(i).toLong())
+      writer.endArray()
+    }
+    writer.endObject()
   }
 
   @Throws(IOException::class)
@@ -51,15 +428,59 @@ class Subscription(inventory: Inventory, val client: InetAddress, requestJson: S
       .value("subscription")
       .name("timestamp")
       .value(System.currentTimeMillis())
+      .name("format")
+      .value(format.wireName)
+      .name("encoding")
+      .value(encoding.wireName)
+      .name("sampleTimes")
+      .value(sampleTimes)
+      .name("rates")
+      .beginArray()
+    effectiveRates.forEach { writer.value(it) }
+    writer
+      .endArray()
       .name("descriptions")
       .beginArray()
     descriptions.forEach { writer.value(it) }
     writer.endArray().endObject()
   }
 
+  /**
+   * Identifies a measure by inventory item ID and its index in the item's [MeasureTable], and the
+   * statistic streamed if it is aggregated.
+   */
+  internal data class MeasureKey(
+    val itemId: Int,
+    val measureIndex: Int,
+    val aggregate: Aggregate? = null,
+  )
+
   @JsonClass(generateAdapter = true)
-  internal data class MeasurableJson(val itemId: Int, val measurementId: String)
+  internal data class MeasurableJson(
+    val itemId: Int,
+    val measurementId: String,
+    val rate: Double? = null,
+    val deadband: Double? = null,
+    val priority: Int? = null,
+    val aggregate: String? = null,
+  )
 
   @JsonClass(generateAdapter = true)
-  internal data class RequestJson(val type: String, val subscription: List<MeasurableJson>)
+  internal data class RequestJson(
+    val type: String,
+    val subscription: List<MeasurableJson>,
+    val format: String? = null,
+    val port: Int? = null,
+    val rate: Double? = null,
+    val encoding: String? = null,
+    val keyframeInterval: Long? = null,
+    val sampleTimes: Boolean? = null,
+  )
+}
+
+private fun rate(ticks: Long) = 1000.0 / (ticks * PERIOD)
+
+private fun ticksForRate(rate: Double): Long {
+  require(rate > 0.0) { "subscription rate must be positive: $rate" }
+  return (1000.0 / (rate * PERIOD)).roundToLong().coerceAtLeast(1L)
 }
@@ -0,0 +1,80 @@
+package org.strykeforce.telemetry.grapher
+
+import com.squareup.moshi.JsonWriter
+import java.io.IOException
+import okio.BufferedSink
+import org.strykeforce.telemetry.util.Histogram
+
+// durations are recorded in microseconds, up to 10 ms before overflowing
+private const val DURATION_BUCKET_WIDTH = 10L
+private const val DURATION_BUCKET_COUNT = 1000
+
+// frame sizes are recorded in bytes, up to 2 KiB before overflowing
+private const val SIZE_BUCKET_WIDTH = 16L
+private const val SIZE_BUCKET_COUNT = 128
+
+/**
+ * Histograms of the grapher streaming loop, recorded by [ClientHandler] while it is streaming.
+ *
+ * The sampling thread records [jitter] and [sampleTime], the sending thread records [encodeTime],
+ * [sendTime] and [frameSize]. Durations are in microseconds and sizes in bytes.
+ */
+class TelemetryStats {
+
+  /** Difference between the time since the previous sampling tick and the sampling period. */
+  val jitter = Histogram(DURATION_BUCKET_WIDTH, DURATION_BUCKET_COUNT)
+
+  /** Time to refresh and read the measures due in a sampling tick. */
+  val sampleTime = Histogram(DURATION_BUCKET_WIDTH, DURATION_BUCKET_COUNT)
+
+  /** Time to encode a frame for a client. */
+  val encodeTime = Histogram(DURATION_BUCKET_WIDTH, DURATION_BUCKET_COUNT)
+
+  /** Time to send a datagram to a client. */
+  val sendTime = Histogram(DURATION_BUCKET_WIDTH, DURATION_BUCKET_COUNT)
+
+  /** Size of an encoded frame. */
+  val frameSize = Histogram(SIZE_BUCKET_WIDTH, SIZE_BUCKET_COUNT)
+
+  /** The histograms by name, as written by [writeStats]. */
+  val histograms: Map<String, Histogram>
+    get() =
+      mapOf(
+        "jitter" to jitter,
+        "sampleTime" to sampleTime,
+        "encodeTime" to encodeTime,
+        "sendTime" to sendTime,
+        "frameSize" to frameSize,
+      )
+
+  /**
+   * Writes the count, median, 90th and 99th percentile and maximum of each histogram as JSON.
+   *
+   * @param sink the sink to write to.
+   * @throws IOException if an IO error occurs during writing.
+   */
+  @Throws(IOException::class)
+  fun writeStats(sink: BufferedSink) {
+    val writer = JsonWriter.of(sink)
+    writer.indent = "  "
+    writer.beginObject()
+    histograms.forEach { (name, histogram) ->
+      writer
+        .name(name)
+        .beginObject()
+        .name("count")
+        .value(histogram.count)
+        .name("p50")
+        .value(histogram.percentile(0.5))
+        .name("p90")
+        .value(histogram.percentile(0.9))
+        .name("p99")
+        .value(histogram.percentile(0.99))
+        .name("max")
+        .value(histogram.max)
+        .endObject()
+    }
+    writer.endObject()
+    writer.flush()
+  }
+}
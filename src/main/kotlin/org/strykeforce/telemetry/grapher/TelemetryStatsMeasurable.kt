@@ -0,0 +1,104 @@
+package org.strykeforce.telemetry.grapher
+
+import java.util.function.LongSupplier
+import org.strykeforce.telemetry.measurable.Measurable
+import org.strykeforce.telemetry.measurable.Measure
+
+internal const val JITTER_P50 = "JITTER_P50"
+internal const val JITTER_P99 = "JITTER_P99"
+internal const val JITTER_MAX = "JITTER_MAX"
+internal const val SAMPLE_TIME_P50 = "SAMPLE_TIME_P50"
+internal const val SAMPLE_TIME_P99 = "SAMPLE_TIME_P99"
+internal const val ENCODE_TIME_P99 = "ENCODE_TIME_P99"
+internal const val SEND_TIME_P99 = "SEND_TIME_P99"
+internal const val FRAME_SIZE_P50 = "FRAME_SIZE_P50"
+internal const val FRAME_SIZE_MAX = "FRAME_SIZE_MAX"
+
+/**
+ * Represents the [TelemetryStats] of the grapher streaming loop as a telemetry-enabled `Measurable`
+ * item, so the telemetry subsystem's own timing can be graphed. Durations are in microseconds and
+ * sizes in bytes.
+ *
+ * Each statistic is of the values recorded in the latest interval of [intervalMillis], so a current
+ * stall shows up however long the loop has been running. The statistics are computed once per
+ * interval, when a measure is first read after it ends, so reading a measure does not scan the
+ * histograms. The lifetime statistics are available from [TelemetryStats.writeStats].
+ *
+ * @param intervalMillis milliseconds between updates of the statistics.
+ */
+class TelemetryStatsMeasurable
+internal constructor(
+  private val stats: TelemetryStats,
+  override val description: String,
+  override val deviceId: Int,
+  val intervalMillis: Long,
+  private val nanoClock: LongSupplier,
+) : Measurable {
+
+  @JvmOverloads
+  constructor(
+    stats: TelemetryStats,
+    description: String = "Telemetry Statistics",
+    deviceId: Int = 0,
+    intervalMillis: Long = 1000,
+  ) : this(stats, description, deviceId, intervalMillis, LongSupplier { System.nanoTime() })
+
+  init {
+    require(intervalMillis > 0) { "intervalMillis must be positive: $intervalMillis" }
+  }
+
+  private val intervalNanos = intervalMillis * 1_000_000
+  private var updated = false
+  private var updatedNanos = 0L
+
+  private val histograms =
+    with(stats) { arrayOf(jitter, sampleTime, encodeTime, sendTime, frameSize) }
+
+  // snapshots at the start of the latest interval, in the order of histograms
+  private val starts = Array(histograms.size) { histograms[it].snapshot() }
+
+  // statistics of the latest interval, in the order of the measures
+  private val values = DoubleArray(9)
+
+  override val measures =
+    setOf(
+      Measure(JITTER_P50, "Jitter Median (us)") { value(0) },
+      Measure(JITTER_P99, "Jitter 99th (us)") { value(1) },
+      Measure(JITTER_MAX, "Jitter Max (us)") { value(2) },
+      Measure(SAMPLE_TIME_P50, "Sample Time Median (us)") { value(3) },
+      Measure(SAMPLE_TIME_P99, "Sample Time 99th (us)") { value(4) },
+      Measure(ENCODE_TIME_P99, "Encode Time 99th (us)") { value(5) },
+      Measure(SEND_TIME_P99, "Send Time 99th (us)") { value(6) },
+      Measure(FRAME_SIZE_P50, "Frame Size Median (bytes)") { value(7) },
+      Measure(FRAME_SIZE_MAX, "Frame Size Max (bytes)") { value(8) },
+    )
+
+  /** Measures may be read by several threads, for example the grapher and NetworkTables. */
+  @Synchronized
+  private fun value(index: Int): Double {
+    val now = nanoClock.asLong
+    if (!updated || now - updatedNanos >= intervalNanos) {
+      update()
+      updated = true
+      updatedNanos = now
+    }
+    return values[index]
+  }
+
+  private fun update() {
+    val (jitter, sampleTime, encodeTime, sendTime, frameSize) =
+      List(histograms.size) { i ->
+        val end = histograms[i].snapshot()
+        end.since(starts[i]).also { starts[i] = end }
+      }
+    values[0] = jitter.percentile(0.5).toDouble()
+    values[1] = jitter.percentile(0.99).toDouble()
+    values[2] = jitter.max.toDouble()
+    values[3] = sampleTime.percentile(0.5).toDouble()
+    values[4] = sampleTime.percentile(0.99).toDouble()
+    values[5] = encodeTime.percentile(0.99).toDouble()
+    values[6] = sendTime.percentile(0.99).toDouble()
+    values[7] = frameSize.percentile(0.5).toDouble()
+    values[8] = frameSize.max.toDouble()
+  }
+}
@@ -26,27 +26,42 @@ constructor(
   private val scaleFactor = 1000.0
 
   override val deviceId = cancoder.deviceID
+  private val canBus = cancoder.network
   override val measures =
     setOf(
-      Measure(MAGNET_HEALTH, "Magnet Health") { cancoder.magnetHealth.valueAsDouble },
-      Measure(POSITION, "Position") { cancoder.position.valueAsDouble },
-      Measure(POS_SCALE, "Pos. Scaled") { cancoder.position.valueAsDouble * scaleFactor },
-      Measure(POSITION_SINCE_BOOT, "Position Since Boot") {
-        cancoder.positionSinceBoot.valueAsDouble
-      },
-      Measure(POS_BOOT_SCALED, "Pos. since Boot Scaled") {
-        cancoder.positionSinceBoot.valueAsDouble * scaleFactor
-      },
-      Measure(ABS_POSITION, "Absolute Position") { cancoder.absolutePosition.valueAsDouble },
-      Measure(ABS_POS_SCALED, "Absolute Pos. Scaled") {
-        cancoder.absolutePosition.valueAsDouble * scaleFactor
-      },
-      Measure(SUPPLY_VOLTAGE, "Supply Voltage") { cancoder.supplyVoltage.valueAsDouble },
-      Measure(UNFILTERED_VELOCITY, "Unfiltered Velocity") {
-        cancoder.unfilteredVelocity.valueAsDouble
-      },
-      Measure(VELOCITY, "Velocity") { cancoder.velocity.valueAsDouble },
-      Measure(IS_PRO_LIC, "Is Pro Licensed") { cancoder.isProLicensed.valueAsDouble },
+      Measure(MAGNET_HEALTH, "Magnet Health", cancoder.getMagnetHealth(false), canBus),
+      Measure(POSITION, "Position", cancoder.getPosition(false), canBus),
+      Measure(POS_SCALE, "Pos. Scaled", cancoder.getPosition(false), canBus, scaleFactor),
+      Measure(
+        POSITION_SINCE_BOOT,
+        "Position Since Boot",
+        cancoder.getPositionSinceBoot(false),
+        canBus,
+      ),
+      Measure(
+        POS_BOOT_SCALED,
+        "Pos. since Boot Scaled",
+        cancoder.getPositionSinceBoot(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(ABS_POSITION, "Absolute Position", cancoder.getAbsolutePosition(false), canBus),
+      Measure(
+        ABS_POS_SCALED,
+        "Absolute Pos. Scaled",
+        cancoder.getAbsolutePosition(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(SUPPLY_VOLTAGE, "Supply Voltage", cancoder.getSupplyVoltage(false), canBus),
+      Measure(
+        UNFILTERED_VELOCITY,
+        "Unfiltered Velocity",
+        cancoder.getUnfilteredVelocity(false),
+        canBus,
+      ),
+      Measure(VELOCITY, "Velocity", cancoder.getVelocity(false), canBus),
+      Measure(IS_PRO_LIC, "Is Pro Licensed", cancoder.getIsProLicensed(false), canBus),
       Measure(HAS_RESET_OCCURRED, "Has Reset Occurred") {
         cancoder.resetOccurredChecker.asBoolean.toDouble()
       },
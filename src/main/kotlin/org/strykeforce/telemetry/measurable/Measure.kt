@@ -1,7 +1,82 @@
 package org.strykeforce.telemetry.measurable
 
+import com.ctre.phoenix6.BaseStatusSignal
 import java.util.function.DoubleSupplier
 
 data class Measure(val name: String, val description: String, val measurement: DoubleSupplier) {
   constructor(name: String, measurement: DoubleSupplier) : this(name, name, measurement)
+
+  /**
+   * Create a measure that reads a Phoenix 6 status signal, refreshed in batches by samplers, see
+   * [StatusSignalMeasurement].
+   *
+   * @param signal the status signal, obtained without refreshing, for example with
+   *   `talonFX.getPosition(false)`
+   * @param canBus the name of the CAN bus the signal's device is on
+   * @param scale factor the signal value is multiplied by
+   */
+  @JvmOverloads
+  constructor(
+    name: String,
+    description: String,
+    signal: BaseStatusSignal,
+    canBus: String,
+    scale: Double = 1.0,
+  ) : this(name, description, StatusSignalMeasurement(signal, canBus, scale))
+
+  /** The Phoenix 6 status signal this measure reads, or `null` if it does not declare one. */
+  val signal: BaseStatusSignal?
+    get() = (measurement as? StatusSignalMeasurement)?.signal
+}
+
+/**
+ * Window after a batch refresh in which a [StatusSignalMeasurement] reads its signal's cached value
+ * instead of refreshing it, long enough for a sampler to read every measure after refreshing them.
+ */
+internal const val BATCH_REFRESH_WINDOW_NANOS = 2_000_000L
+
+/**
+ * A measurement that reads a Phoenix 6 [BaseStatusSignal]. Samplers refresh the signals of all such
+ * measurements on a CAN bus with a single [BaseStatusSignal.refreshAll] call each tick before
+ * reading them, see [StatusSignalRefresher], instead of each measure refreshing its own signal.
+ * This saves a JNI round-trip per measure and keeps the samples taken in a tick time-coherent.
+ *
+ * A read within [BATCH_REFRESH_WINDOW_NANOS] of the last refresh returns the cached value, any
+ * other read refreshes the signal first, so readers that do not use a refresher still get a current
+ * value.
+ */
+class StatusSignalMeasurement
+@JvmOverloads
+constructor(val signal: BaseStatusSignal, val canBus: String, private val scale: Double = 1.0) :
+  DoubleSupplier {
+  @Volatile private var refreshedNanos = System.nanoTime() - BATCH_REFRESH_WINDOW_NANOS - 1
+
+  override fun getAsDouble(): Double {
+    val now = System.nanoTime()
+    if (now - refreshedNanos > BATCH_REFRESH_WINDOW_NANOS) {
+      BaseStatusSignal.refreshAll(signal)
+      refreshedNanos = now
+    }
+    return signal.valueAsDouble * scale
+  }
+
+  /** Record that the signal was refreshed in a batch at this [System.nanoTime]. */
+  internal fun refreshed(nanos: Long) {
+    refreshedNanos = nanos
+  }
+
+  /** Age of the cached signal value in microseconds, zero if its timestamp is not valid. */
+  val ageMicros: Long
+    get() = signal.timestamp.let { if (it.isValid) (it.latency * 1_000_000).toLong() else 0L }
+}
+
+/**
+ * Time the value read by this measurement was captured, in microseconds of the monotonic
+ * [System.nanoTime] clock. This is the device or CANivore capture time of a
+ * [StatusSignalMeasurement] and the current time of any other measurement, so call it just after
+ * reading the value.
+ */
+internal fun DoubleSupplier.captureTimeMicros(): Long {
+  val now = System.nanoTime() / 1000
+  return if (this is StatusSignalMeasurement) now - ageMicros else now
 }
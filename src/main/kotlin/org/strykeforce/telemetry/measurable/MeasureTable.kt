@@ -0,0 +1,34 @@
+package org.strykeforce.telemetry.measurable
+
+/**
+ * The measures of a [Measurable] in a dense array with a precomputed name-to-index table, so a
+ * measure is found by name in constant time and then referred to by its index.
+ *
+ * @param measurable the item whose measures are indexed, its measures are read once.
+ */
+class MeasureTable(val measurable: Measurable) {
+
+  /** The measures of [measurable], in the order of their indexes. */
+  val measures: Array<Measure> = measurable.measures.toTypedArray()
+
+  private val indexes = HashMap<String, Int>(measures.size * 2)
+
+  init {
+    measures.forEachIndexed { i, measure -> indexes.putIfAbsent(measure.name, i) }
+  }
+
+  /** Number of measures in the table. */
+  val size: Int
+    get() = measures.size
+
+  /**
+   * Gets the index of a measure by name.
+   *
+   * @param name the measure name.
+   * @return the index of the measure, or -1 if [measurable] has no measure with that name.
+   */
+  fun indexOf(name: String): Int = indexes[name] ?: -1
+
+  /** Gets a measure by index. */
+  operator fun get(index: Int): Measure = measures[index]
+}
@@ -46,47 +46,57 @@ constructor(
 ) : Measurable {
 
   override val deviceId = pigeon2.deviceID
+  private val canBus = pigeon2.network
   override val measures =
     setOf(
-      Measure(ROLL, "Roll") { pigeon2.roll.valueAsDouble },
-      Measure(PITCH, "Pitch") { pigeon2.pitch.valueAsDouble },
-      Measure(YAW, "Yaw") { pigeon2.yaw.valueAsDouble },
-      Measure(QUATW, "Quat W") { pigeon2.quatW.valueAsDouble },
-      Measure(QUATX, "Quat X") { pigeon2.quatX.valueAsDouble },
-      Measure(QUATY, "Quat Y") { pigeon2.quatY.valueAsDouble },
-      Measure(QUATZ, "Quat Z") { pigeon2.quatZ.valueAsDouble },
-      Measure(GRAV_X, "Gravity X") { pigeon2.gravityVectorX.valueAsDouble },
-      Measure(GRAV_Y, "Gravity Y") { pigeon2.gravityVectorY.valueAsDouble },
-      Measure(GRAV_Z, "Gravity Z") { pigeon2.gravityVectorZ.valueAsDouble },
-      Measure(TEMP, "Temperature") { pigeon2.temperature.valueAsDouble },
-      Measure(NO_MOT_EN, "No Motion Enabled") { pigeon2.noMotionEnabled.valueAsDouble },
-      Measure(NO_MOT_CNT, "No Motion Count") { pigeon2.noMotionCount.valueAsDouble },
-      Measure(UP_TIME, "Up Time") { pigeon2.upTime.valueAsDouble },
-      Measure(ACCUM_X, "Accumulator X") { pigeon2.accumGyroX.valueAsDouble },
-      Measure(ACCUM_Y, "Accumulator Y") { pigeon2.accumGyroY.valueAsDouble },
-      Measure(ACCUM_Z, "Accumulator Z") { pigeon2.accumGyroZ.valueAsDouble },
-      Measure(ANG_VEL_X, "Angular Vel X") { pigeon2.angularVelocityXDevice.valueAsDouble },
-      Measure(ANG_VEL_Y, "Angular Vel Y") { pigeon2.angularVelocityYDevice.valueAsDouble },
-      Measure(ANG_VEL_Z, "Angular Vel Z") { pigeon2.angularVelocityZDevice.valueAsDouble },
-      Measure(ACCEL_X, "Acceleration X") { pigeon2.accelerationX.valueAsDouble },
-      Measure(ACCEL_Y, "Acceleration Y") { pigeon2.accelerationY.valueAsDouble },
-      Measure(ACCEL_Z, "Acceleration Z") { pigeon2.accelerationZ.valueAsDouble },
-      Measure(SUPPLY_V, "Supply Voltage") { pigeon2.supplyVoltage.valueAsDouble },
-      Measure(ANG_VEL_WORLD_X, "Angular Vel World X") {
-        pigeon2.angularVelocityXWorld.valueAsDouble
-      },
-      Measure(ANG_VEL_WORLD_Y, "Angular Vel World Y") {
-        pigeon2.angularVelocityYWorld.valueAsDouble
-      },
-      Measure(ANG_VEL_WORLD_Z, "Angular Vel World Z") {
-        pigeon2.angularVelocityZWorld.valueAsDouble
-      },
-      Measure(MAG_X, "Mag Field X") { pigeon2.magneticFieldX.valueAsDouble },
-      Measure(MAG_Y, "Mag Field Y") { pigeon2.magneticFieldY.valueAsDouble },
-      Measure(MAG_Z, "Mag Field Z") { pigeon2.magneticFieldZ.valueAsDouble },
-      Measure(IS_PRO, "Is Pro Lic") { pigeon2.isProLicensed.valueAsDouble },
-      Measure(RATE, "Rate") { -pigeon2.angularVelocityZWorld.valueAsDouble },
-      Measure(ANGLE, "Angle") { -pigeon2.yaw.valueAsDouble },
+      Measure(ROLL, "Roll", pigeon2.getRoll(false), canBus),
+      Measure(PITCH, "Pitch", pigeon2.getPitch(false), canBus),
+      Measure(YAW, "Yaw", pigeon2.getYaw(false), canBus),
+      Measure(QUATW, "Quat W", pigeon2.getQuatW(false), canBus),
+      Measure(QUATX, "Quat X", pigeon2.getQuatX(false), canBus),
+      Measure(QUATY, "Quat Y", pigeon2.getQuatY(false), canBus),
+      Measure(QUATZ, "Quat Z", pigeon2.getQuatZ(false), canBus),
+      Measure(GRAV_X, "Gravity X", pigeon2.getGravityVectorX(false), canBus),
+      Measure(GRAV_Y, "Gravity Y", pigeon2.getGravityVectorY(false), canBus),
+      Measure(GRAV_Z, "Gravity Z", pigeon2.getGravityVectorZ(false), canBus),
+      Measure(TEMP, "Temperature", pigeon2.getTemperature(false), canBus),
+      Measure(NO_MOT_EN, "No Motion Enabled", pigeon2.getNoMotionEnabled(false), canBus),
+      Measure(NO_MOT_CNT, "No Motion Count", pigeon2.getNoMotionCount(false), canBus),
+      Measure(UP_TIME, "Up Time", pigeon2.getUpTime(false), canBus),
+      Measure(ACCUM_X, "Accumulator X", pigeon2.getAccumGyroX(false), canBus),
+      Measure(ACCUM_Y, "Accumulator Y", pigeon2.getAccumGyroY(false), canBus),
+      Measure(ACCUM_Z, "Accumulator Z", pigeon2.getAccumGyroZ(false), canBus),
+      Measure(ANG_VEL_X, "Angular Vel X", pigeon2.getAngularVelocityXDevice(false), canBus),
+      Measure(ANG_VEL_Y, "Angular Vel Y", pigeon2.getAngularVelocityYDevice(false), canBus),
+      Measure(ANG_VEL_Z, "Angular Vel Z", pigeon2.getAngularVelocityZDevice(false), canBus),
+      Measure(ACCEL_X, "Acceleration X", pigeon2.getAccelerationX(false), canBus),
+      Measure(ACCEL_Y, "Acceleration Y", pigeon2.getAccelerationY(false), canBus),
+      Measure(ACCEL_Z, "Acceleration Z", pigeon2.getAccelerationZ(false), canBus),
+      Measure(SUPPLY_V, "Supply Voltage", pigeon2.getSupplyVoltage(false), canBus),
+      Measure(
+        ANG_VEL_WORLD_X,
+        "Angular Vel World X",
+        pigeon2.getAngularVelocityXWorld(false),
+        canBus,
+      ),
+      Measure(
+        ANG_VEL_WORLD_Y,
+        "Angular Vel World Y",
+        pigeon2.getAngularVelocityYWorld(false),
+        canBus,
+      ),
+      Measure(
+        ANG_VEL_WORLD_Z,
+        "Angular Vel World Z",
+        pigeon2.getAngularVelocityZWorld(false),
+        canBus,
+      ),
+      Measure(MAG_X, "Mag Field X", pigeon2.getMagneticFieldX(false), canBus),
+      Measure(MAG_Y, "Mag Field Y", pigeon2.getMagneticFieldY(false), canBus),
+      Measure(MAG_Z, "Mag Field Z", pigeon2.getMagneticFieldZ(false), canBus),
+      Measure(IS_PRO, "Is Pro Lic", pigeon2.getIsProLicensed(false), canBus),
+      Measure(RATE, "Rate", pigeon2.getAngularVelocityZWorld(false), canBus, -1.0),
+      Measure(ANGLE, "Angle", pigeon2.getYaw(false), canBus, -1.0),
       Measure(ROTATION2D, "Rotation2d Deg") { pigeon2.rotation2d.degrees },
     )
 
@@ -0,0 +1,65 @@
+package org.strykeforce.telemetry.measurable
+
+import com.ctre.phoenix6.BaseStatusSignal
+import java.util.function.DoubleSupplier
+
+private const val NO_GROUP = -1
+
+/**
+ * Refreshes the Phoenix 6 status signals read by an array of measurements. Signals are grouped by
+ * CAN bus, since [BaseStatusSignal.refreshAll] requires all its signals to be on the same bus, and
+ * each group is refreshed with one call.
+ *
+ * Callers [request] the measurements they are about to read, call [refresh] and then read them. A
+ * group is refreshed if any of its measurements were requested, and its measurements then read the
+ * cached values for [BATCH_REFRESH_WINDOW_NANOS] instead of refreshing their own signals.
+ *
+ * @param measurements the measurements that may be read, [StatusSignalMeasurement] instances have
+ *   their signals refreshed and any others are ignored.
+ */
+internal class StatusSignalRefresher(measurements: Array<out DoubleSupplier>) {
+  private val groupOf = IntArray(measurements.size) { NO_GROUP }
+  private val groups: Array<Array<BaseStatusSignal>>
+  private val groupMeasurements: Array<Array<StatusSignalMeasurement>>
+  private val requested: BooleanArray
+
+  init {
+    val buses = LinkedHashMap<String, LinkedHashSet<BaseStatusSignal>>()
+    val busMeasurements = LinkedHashMap<String, ArrayList<StatusSignalMeasurement>>()
+    measurements.forEachIndexed { i, measurement ->
+      if (measurement is StatusSignalMeasurement) {
+        val signals = buses.getOrPut(measurement.canBus) { LinkedHashSet() }
+        signals += measurement.signal
+        busMeasurements.getOrPut(measurement.canBus) { ArrayList() } += measurement
+        groupOf[i] = buses.keys.indexOf(measurement.canBus)
+      }
+    }
+    groups = buses.values.map { it.toTypedArray() }.toTypedArray()
+    groupMeasurements = busMeasurements.values.map { it.toTypedArray() }.toTypedArray()
+    requested = BooleanArray(groups.size)
+  }
+
+  /** `true` if none of the measurements read a status signal. */
+  val isEmpty: Boolean
+    get() = groups.isEmpty()
+
+  /** Request the signal of the measurement at this index, if any, be refreshed. */
+  fun request(index: Int) {
+    val group = groupOf[index]
+    if (group != NO_GROUP) requested[group] = true
+  }
+
+  /** Request every signal be refreshed. */
+  fun requestAll() = requested.fill(true)
+
+  /** Refresh each group with a requested signal and clear the requests. */
+  fun refresh() {
+    for (group in groups.indices) {
+      if (!requested[group]) continue
+      BaseStatusSignal.refreshAll(*groups[group])
+      val now = System.nanoTime()
+      for (measurement in groupMeasurements[group]) measurement.refreshed(now)
+      requested[group] = false
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package org.strykeforce.telemetry.measurable
+
+import java.util.function.DoubleSupplier
+import org.strykeforce.telemetry.util.SignalGenerator
+import org.strykeforce.telemetry.util.SignalGenerator.SignalType
+
+private const val LOOKUP_TABLE_SIZE = 1024
+
+/**
+ * A hardware-free `Measurable` item whose measures are simulated signals, used to load test
+ * telemetry with more devices and measures than any robot has. Use [create] to build a set of
+ * devices.
+ *
+ * Each measure is backed by a [SignalGenerator], cycling through the signal types with varied
+ * frequencies and amplitudes. By default a read computes the signal from the current time, which
+ * costs a [System.nanoTime] call and usually a trig function. With `lookupTable` one period of each
+ * signal is computed up front and reads step through it, one sample per read, so a benchmark
+ * measures the cost of telemetry rather than of the generators.
+ *
+ * @param deviceId the simulated device id.
+ * @param measureCount number of measures, named `MEASURE_0` to `MEASURE_n`.
+ * @param lookupTable `true` if measures read precomputed signal periods.
+ */
+class SyntheticMeasurable
+@JvmOverloads
+constructor(override val deviceId: Int, measureCount: Int, lookupTable: Boolean = false) :
+  Measurable {
+
+  override val description = "Synthetic Device $deviceId"
+
+  override val measures: Set<Measure>
+
+  init {
+    require(measureCount > 0) { "measureCount must be positive: $measureCount" }
+    val types = SignalType.values()
+    measures =
+      (0 until measureCount)
+        .map { i ->
+          val generator =
+            SignalGenerator.Builder(types[(deviceId + i) % types.size])
+              .frequency(0.5 + (i % 8) * 0.25)
+              .phase((deviceId % 16) / 16.0)
+              .amplitude(1.0 + i % 10)
+              .build()
+          val measurement =
+            if (lookupTable) LookupTableMeasurement(generator.period(LOOKUP_TABLE_SIZE))
+            else DoubleSupplier { generator.value }
+          Measure("MEASURE_$i", "Synthetic Measure $i", measurement)
+        }
+        .toCollection(LinkedHashSet())
+  }
+
+  override fun toString() = "SyntheticMeasurable(deviceId=$deviceId, measures=${measures.size})"
+
+  companion object {
+    /**
+     * Create a set of synthetic devices, with device ids `0` to `devices - 1`.
+     *
+     * @param devices number of devices.
+     * @param measuresPerDevice number of measures of each device.
+     * @param lookupTable `true` if measures read precomputed signal periods.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun create(
+      devices: Int,
+      measuresPerDevice: Int,
+      lookupTable: Boolean = false,
+    ): List<SyntheticMeasurable> {
+      require(devices > 0) { "devices must be positive: $devices" }
+      return List(devices) { SyntheticMeasurable(it, measuresPerDevice, lookupTable) }
+    }
+  }
+}
+
+/** Steps through a precomputed signal, one sample per read. */
+private class LookupTableMeasurement(private val table: DoubleArray) : DoubleSupplier {
+  private var index = 0
+
+  override fun getAsDouble(): Double {
+    val value = table[index]
+    index = if (index == table.size - 1) 0 else index + 1
+    return value
+  }
+}
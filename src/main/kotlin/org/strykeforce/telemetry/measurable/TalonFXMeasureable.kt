@@ -93,110 +93,197 @@ constructor(
   val scaleFactor = 1000.0
 
   override val deviceId = talonFX.deviceID
+  private val canBus = talonFX.network
   override val measures =
     setOf(
-      Measure(ACCELERATION, "Acceleration") { talonFX.acceleration.valueAsDouble },
-      Measure(ACCEL_SCALE, "Accel. scaled") { talonFX.acceleration.valueAsDouble * scaleFactor },
-      Measure(BRIDGE_OUTPUT, "Bridge Output") { talonFX.bridgeOutput.valueAsDouble },
-      Measure(DEVICE_TEMP, "Device Temperature C") { talonFX.deviceTemp.valueAsDouble },
-      Measure(DIFF_AVG_POS, "Differential Avg Position") {
-        talonFX.differentialAveragePosition.valueAsDouble
-      },
-      Measure(DIFF_AVG_POS_SCALE, "Diff Avg Pos scaled") {
-        talonFX.differentialAveragePosition.valueAsDouble * scaleFactor
-      },
-      Measure(DIFF_AVG_VEL, "Differential Avg Velocity") {
-        talonFX.differentialAverageVelocity.valueAsDouble
-      },
-      Measure(DIFF_AVG_VEL_SCALE, "Diff Avg Vel scaled") {
-        talonFX.differentialAverageVelocity.valueAsDouble * scaleFactor
-      },
-      Measure(DIFF_DIFF_POS, "Differential Difference Position") {
-        talonFX.differentialDifferencePosition.valueAsDouble
-      },
-      Measure(DIFF_DIFF_POS_SCALE, "Diff Diff Pos scaled") {
-        talonFX.differentialDifferencePosition.valueAsDouble * scaleFactor
-      },
-      Measure(DIFF_DIFF_VEL, "Differential Difference Velocity") {
-        talonFX.differentialDifferenceVelocity.valueAsDouble
-      },
-      Measure(DIFF_DIFF_VEL_SCALE, "Diff Diff Vel scale") {
-        talonFX.differentialDifferenceVelocity.valueAsDouble * scaleFactor
-      },
-      Measure(DUTY_CYCLE, "Applied Duty Cycle") { talonFX.dutyCycle.value },
-      Measure(FWD_LIM, "Forward Limit Switch Closed") { talonFX.forwardLimit.valueAsDouble },
-      Measure(IS_PRO_LIC, "Is Pro Licensed") { talonFX.isProLicensed.valueAsDouble },
-      Measure(IS_MM_RUNNING, "Motion Magic Running") { talonFX.motionMagicIsRunning.valueAsDouble },
-      Measure(MOTOR_VOLTAGE, "Motor Voltage") { talonFX.motorVoltage.valueAsDouble },
-      Measure(POSITION, "Position") { talonFX.position.valueAsDouble },
-      Measure(POS_SCALE, "Pos. scaled") { talonFX.position.valueAsDouble * scaleFactor },
-      Measure(PROCESSOR_TEMP, "Processor Temp") { talonFX.processorTemp.valueAsDouble },
+      Measure(ACCELERATION, "Acceleration", talonFX.getAcceleration(false), canBus),
+      Measure(ACCEL_SCALE, "Accel. scaled", talonFX.getAcceleration(false), canBus, scaleFactor),
+      Measure(BRIDGE_OUTPUT, "Bridge Output", talonFX.getBridgeOutput(false), canBus),
+      Measure(DEVICE_TEMP, "Device Temperature C", talonFX.getDeviceTemp(false), canBus),
+      Measure(
+        DIFF_AVG_POS,
+        "Differential Avg Position",
+        talonFX.getDifferentialAveragePosition(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_AVG_POS_SCALE,
+        "Diff Avg Pos scaled",
+        talonFX.getDifferentialAveragePosition(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(
+        DIFF_AVG_VEL,
+        "Differential Avg Velocity",
+        talonFX.getDifferentialAverageVelocity(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_AVG_VEL_SCALE,
+        "Diff Avg Vel scaled",
+        talonFX.getDifferentialAverageVelocity(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(
+        DIFF_DIFF_POS,
+        "Differential Difference Position",
+        talonFX.getDifferentialDifferencePosition(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_DIFF_POS_SCALE,
+        "Diff Diff Pos scaled",
+        talonFX.getDifferentialDifferencePosition(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(
+        DIFF_DIFF_VEL,
+        "Differential Difference Velocity",
+        talonFX.getDifferentialDifferenceVelocity(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_DIFF_VEL_SCALE,
+        "Diff Diff Vel scale",
+        talonFX.getDifferentialDifferenceVelocity(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(DUTY_CYCLE, "Applied Duty Cycle", talonFX.getDutyCycle(false), canBus),
+      Measure(FWD_LIM, "Forward Limit Switch Closed", talonFX.getForwardLimit(false), canBus),
+      Measure(IS_PRO_LIC, "Is Pro Licensed", talonFX.getIsProLicensed(false), canBus),
+      Measure(
+        IS_MM_RUNNING,
+        "Motion Magic Running",
+        talonFX.getMotionMagicIsRunning(false),
+        canBus,
+      ),
+      Measure(MOTOR_VOLTAGE, "Motor Voltage", talonFX.getMotorVoltage(false), canBus),
+      Measure(POSITION, "Position", talonFX.getPosition(false), canBus),
+      Measure(POS_SCALE, "Pos. scaled", talonFX.getPosition(false), canBus, scaleFactor),
+      Measure(PROCESSOR_TEMP, "Processor Temp", talonFX.getProcessorTemp(false), canBus),
       Measure(HAS_RESET_OCCURRED, "Has Reset Occurred") { talonFX.hasResetOccurred().toDouble() },
-      Measure(REV_LIM, "Reverse Limit Switch Closed") { talonFX.reverseLimit.valueAsDouble },
-      Measure(ROTOR_POS, "Rotor Position") { talonFX.rotorPosition.valueAsDouble },
-      Measure(ROTOR_POS_SCALE, "Rotor Pos scaled") {
-        talonFX.rotorPosition.valueAsDouble * scaleFactor
-      },
-      Measure(ROTOR_VEL, "Rotor Velocity") { talonFX.rotorVelocity.valueAsDouble },
-      Measure(ROTOR_VEL_SCALE, "Rotor Vel scaled") {
-        talonFX.rotorVelocity.valueAsDouble * scaleFactor
-      },
-      Measure(STATOR_CURRENT, "Stator Current") { talonFX.statorCurrent.valueAsDouble },
-      Measure(SUPPLY_CURRENT, "Supply Current") { talonFX.supplyCurrent.valueAsDouble },
-      Measure(SUPPLY_VOLTAGE, "Supply Voltage") { talonFX.supplyVoltage.valueAsDouble },
-      Measure(TORQUE_CURRENT, "Torque Current") { talonFX.torqueCurrent.valueAsDouble },
-      Measure(VELOCITY, "Velocity") { talonFX.velocity.valueAsDouble },
-      Measure(VEL_SCALE, "Vel. scaled") { talonFX.velocity.valueAsDouble * scaleFactor },
+      Measure(REV_LIM, "Reverse Limit Switch Closed", talonFX.getReverseLimit(false), canBus),
+      Measure(ROTOR_POS, "Rotor Position", talonFX.getRotorPosition(false), canBus),
+      Measure(
+        ROTOR_POS_SCALE,
+        "Rotor Pos scaled",
+        talonFX.getRotorPosition(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(ROTOR_VEL, "Rotor Velocity", talonFX.getRotorVelocity(false), canBus),
+      Measure(
+        ROTOR_VEL_SCALE,
+        "Rotor Vel scaled",
+        talonFX.getRotorVelocity(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(STATOR_CURRENT, "Stator Current", talonFX.getStatorCurrent(false), canBus),
+      Measure(SUPPLY_CURRENT, "Supply Current", talonFX.getSupplyCurrent(false), canBus),
+      Measure(SUPPLY_VOLTAGE, "Supply Voltage", talonFX.getSupplyVoltage(false), canBus),
+      Measure(TORQUE_CURRENT, "Torque Current", talonFX.getTorqueCurrent(false), canBus),
+      Measure(VELOCITY, "Velocity", talonFX.getVelocity(false), canBus),
+      Measure(VEL_SCALE, "Vel. scaled", talonFX.getVelocity(false), canBus, scaleFactor),
       //        Measure(IS_INVERTED, "Is Inverted"){talonFX.inverted.toDouble()},
 
-      Measure(CLOSED_LOOP_D_OUTPUT, "Closed Loop Derivative Output") {
-        talonFX.closedLoopDerivativeOutput.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_ERROR, "Closed Loop Error") { talonFX.closedLoopError.valueAsDouble },
-      Measure(CLOSED_LOOP_FEED_FWD, "Closed Loop Feed Forward") {
-        talonFX.closedLoopFeedForward.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_I_OUTPUT, "Closed Loop Integrated Output") {
-        talonFX.closedLoopIntegratedOutput.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_OUTPUT, "Closed Loop Output") { talonFX.closedLoopError.valueAsDouble },
-      Measure(CLOSED_LOOP_P_OUTPUT, "Closed Loop Proportional Output") {
-        talonFX.closedLoopProportionalOutput.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_REFERENCE, "Closed Loop Reference") {
-        talonFX.closedLoopReference.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_REFERENCE_SLOPE, "Closed Loop Reference Slope") {
-        talonFX.closedLoopReferenceSlope.value
-      },
+      Measure(
+        CLOSED_LOOP_D_OUTPUT,
+        "Closed Loop Derivative Output",
+        talonFX.getClosedLoopDerivativeOutput(false),
+        canBus,
+      ),
+      Measure(CLOSED_LOOP_ERROR, "Closed Loop Error", talonFX.getClosedLoopError(false), canBus),
+      Measure(
+        CLOSED_LOOP_FEED_FWD,
+        "Closed Loop Feed Forward",
+        talonFX.getClosedLoopFeedForward(false),
+        canBus,
+      ),
+      Measure(
+        CLOSED_LOOP_I_OUTPUT,
+        "Closed Loop Integrated Output",
+        talonFX.getClosedLoopIntegratedOutput(false),
+        canBus,
+      ),
+      Measure(CLOSED_LOOP_OUTPUT, "Closed Loop Output", talonFX.getClosedLoopError(false), canBus),
+      Measure(
+        CLOSED_LOOP_P_OUTPUT,
+        "Closed Loop Proportional Output",
+        talonFX.getClosedLoopProportionalOutput(false),
+        canBus,
+      ),
+      Measure(
+        CLOSED_LOOP_REFERENCE,
+        "Closed Loop Reference",
+        talonFX.getClosedLoopReference(false),
+        canBus,
+      ),
+      Measure(
+        CLOSED_LOOP_REFERENCE_SLOPE,
+        "Closed Loop Reference Slope",
+        talonFX.getClosedLoopReferenceSlope(false),
+        canBus,
+      ),
       Measure(CLOSED_LOOP_SLOT, "Closed Loop Slot") { talonFX.closedLoopSlot.value.toDouble() },
-      Measure(DIFF_CLOSED_LOOP_D_OUTPUT, "Differential Closed Loop D Output") {
-        talonFX.differentialClosedLoopDerivativeOutput.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_ERR, "Differential Closed Loop Error") {
-        talonFX.differentialClosedLoopError.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_FEED_FWD, "Differential Closed Loop Feed Fwd") {
-        talonFX.differentialClosedLoopFeedForward.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_I_OUT, "Differential Closed Loop I Output") {
-        talonFX.differentialClosedLoopIntegratedOutput.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_OUT, "Differential Closed Loop Output") {
-        talonFX.differentialClosedLoopOutput.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_P_OUT, "Differential Closed Loop P Output") {
-        talonFX.differentialClosedLoopProportionalOutput.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_REF, "Differential Closed Loop Reference") {
-        talonFX.differentialClosedLoopReference.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_REF_SLOPE, "Differential Closed Loop Reference Slope") {
-        talonFX.differentialClosedLoopReferenceSlope.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_SLOT, "Differential Closed Loop Slot") {
-        talonFX.differentialClosedLoopSlot.valueAsDouble
-      },
+      Measure(
+        DIFF_CLOSED_LOOP_D_OUTPUT,
+        "Differential Closed Loop D Output",
+        talonFX.getDifferentialClosedLoopDerivativeOutput(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_ERR,
+        "Differential Closed Loop Error",
+        talonFX.getDifferentialClosedLoopError(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_FEED_FWD,
+        "Differential Closed Loop Feed Fwd",
+        talonFX.getDifferentialClosedLoopFeedForward(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_I_OUT,
+        "Differential Closed Loop I Output",
+        talonFX.getDifferentialClosedLoopIntegratedOutput(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_OUT,
+        "Differential Closed Loop Output",
+        talonFX.getDifferentialClosedLoopOutput(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_P_OUT,
+        "Differential Closed Loop P Output",
+        talonFX.getDifferentialClosedLoopProportionalOutput(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_REF,
+        "Differential Closed Loop Reference",
+        talonFX.getDifferentialClosedLoopReference(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_REF_SLOPE,
+        "Differential Closed Loop Reference Slope",
+        talonFX.getDifferentialClosedLoopReferenceSlope(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_SLOT,
+        "Differential Closed Loop Slot",
+        talonFX.getDifferentialClosedLoopSlot(false),
+        canBus,
+      ),
     )
 
   override fun equals(other: Any?): Boolean {
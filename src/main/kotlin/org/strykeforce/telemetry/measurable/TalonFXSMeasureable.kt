@@ -71,122 +71,216 @@ constructor(
   val scaleFactor = 1000.0
 
   override val deviceId = talonFXS.deviceID
+  private val canBus = talonFXS.network
   override val measures =
     setOf(
-      Measure(ACCELERATION, "Acceleration") { talonFXS.acceleration.valueAsDouble },
-      Measure(ACCEL_SCALE, "Accel. scaled") { talonFXS.acceleration.valueAsDouble * scaleFactor },
-      Measure(BRIDGE_OUTPUT, "Bridge Output") { talonFXS.bridgeOutput.valueAsDouble },
-      Measure(ANCILLARY_DEVICE_TEMP, "Ancillary Device Temp") {
-        talonFXS.ancillaryDeviceTemp.valueAsDouble
-      },
-      Measure(DEVICE_TEMP, "Device Temperature C") { talonFXS.deviceTemp.valueAsDouble },
-      Measure(EXT_MOTOR_TEMP, "Ext. Motor Temp") { talonFXS.externalMotorTemp.valueAsDouble },
-      Measure(DIFF_AVG_POS, "Differential Avg Position") {
-        talonFXS.differentialAveragePosition.valueAsDouble
-      },
-      Measure(DIFF_AVG_POS_SCALE, "Diff Avg Pos scaled") {
-        talonFXS.differentialAveragePosition.valueAsDouble * scaleFactor
-      },
-      Measure(DIFF_AVG_VEL, "Differential Avg Velocity") {
-        talonFXS.differentialAverageVelocity.valueAsDouble
-      },
-      Measure(DIFF_AVG_VEL_SCALE, "Diff Avg Vel scaled") {
-        talonFXS.differentialAverageVelocity.valueAsDouble * scaleFactor
-      },
-      Measure(DIFF_DIFF_POS, "Differential Difference Position") {
-        talonFXS.differentialDifferencePosition.valueAsDouble
-      },
-      Measure(DIFF_DIFF_POS_SCALE, "Diff Diff Pos scaled") {
-        talonFXS.differentialDifferencePosition.valueAsDouble * scaleFactor
-      },
-      Measure(DIFF_DIFF_VEL, "Differential Difference Velocity") {
-        talonFXS.differentialDifferenceVelocity.valueAsDouble
-      },
-      Measure(DIFF_DIFF_VEL_SCALE, "Diff Diff Vel scale") {
-        talonFXS.differentialDifferenceVelocity.valueAsDouble * scaleFactor
-      },
-      Measure(DUTY_CYCLE, "Applied Duty Cycle") { talonFXS.dutyCycle.value },
-      Measure(FWD_LIM, "Forward Limit Switch Closed") { talonFXS.forwardLimit.valueAsDouble },
-      Measure(IS_PRO_LIC, "Is Pro Licensed") { talonFXS.isProLicensed.valueAsDouble },
-      Measure(IS_MM_RUNNING, "Motion Magic Running") {
-        talonFXS.motionMagicIsRunning.valueAsDouble
-      },
-      Measure(MOTOR_VOLTAGE, "Motor Voltage") { talonFXS.motorVoltage.valueAsDouble },
-      Measure(POSITION, "Position") { talonFXS.position.valueAsDouble },
-      Measure(POS_SCALE, "Pos. scaled") { talonFXS.position.valueAsDouble * scaleFactor },
-      Measure(RAW_PULSE_WIDTH_POS, "Raw Pulse Width Pos") {
-        talonFXS.rawPulseWidthPosition.valueAsDouble
-      },
-      Measure(RAW_QUADRATURE_POS, "Raw Quad Pos") { talonFXS.rawQuadraturePosition.valueAsDouble },
-      Measure(PROCESSOR_TEMP, "Processor Temp") { talonFXS.processorTemp.valueAsDouble },
+      Measure(ACCELERATION, "Acceleration", talonFXS.getAcceleration(false), canBus),
+      Measure(ACCEL_SCALE, "Accel. scaled", talonFXS.getAcceleration(false), canBus, scaleFactor),
+      Measure(BRIDGE_OUTPUT, "Bridge Output", talonFXS.getBridgeOutput(false), canBus),
+      Measure(
+        ANCILLARY_DEVICE_TEMP,
+        "Ancillary Device Temp",
+        talonFXS.getAncillaryDeviceTemp(false),
+        canBus,
+      ),
+      Measure(DEVICE_TEMP, "Device Temperature C", talonFXS.getDeviceTemp(false), canBus),
+      Measure(EXT_MOTOR_TEMP, "Ext. Motor Temp", talonFXS.getExternalMotorTemp(false), canBus),
+      Measure(
+        DIFF_AVG_POS,
+        "Differential Avg Position",
+        talonFXS.getDifferentialAveragePosition(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_AVG_POS_SCALE,
+        "Diff Avg Pos scaled",
+        talonFXS.getDifferentialAveragePosition(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(
+        DIFF_AVG_VEL,
+        "Differential Avg Velocity",
+        talonFXS.getDifferentialAverageVelocity(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_AVG_VEL_SCALE,
+        "Diff Avg Vel scaled",
+        talonFXS.getDifferentialAverageVelocity(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(
+        DIFF_DIFF_POS,
+        "Differential Difference Position",
+        talonFXS.getDifferentialDifferencePosition(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_DIFF_POS_SCALE,
+        "Diff Diff Pos scaled",
+        talonFXS.getDifferentialDifferencePosition(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(
+        DIFF_DIFF_VEL,
+        "Differential Difference Velocity",
+        talonFXS.getDifferentialDifferenceVelocity(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_DIFF_VEL_SCALE,
+        "Diff Diff Vel scale",
+        talonFXS.getDifferentialDifferenceVelocity(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(DUTY_CYCLE, "Applied Duty Cycle", talonFXS.getDutyCycle(false), canBus),
+      Measure(FWD_LIM, "Forward Limit Switch Closed", talonFXS.getForwardLimit(false), canBus),
+      Measure(IS_PRO_LIC, "Is Pro Licensed", talonFXS.getIsProLicensed(false), canBus),
+      Measure(
+        IS_MM_RUNNING,
+        "Motion Magic Running",
+        talonFXS.getMotionMagicIsRunning(false),
+        canBus,
+      ),
+      Measure(MOTOR_VOLTAGE, "Motor Voltage", talonFXS.getMotorVoltage(false), canBus),
+      Measure(POSITION, "Position", talonFXS.getPosition(false), canBus),
+      Measure(POS_SCALE, "Pos. scaled", talonFXS.getPosition(false), canBus, scaleFactor),
+      Measure(
+        RAW_PULSE_WIDTH_POS,
+        "Raw Pulse Width Pos",
+        talonFXS.getRawPulseWidthPosition(false),
+        canBus,
+      ),
+      Measure(RAW_QUADRATURE_POS, "Raw Quad Pos", talonFXS.getRawQuadraturePosition(false), canBus),
+      Measure(PROCESSOR_TEMP, "Processor Temp", talonFXS.getProcessorTemp(false), canBus),
       Measure(HAS_RESET_OCCURRED, "Has Reset Occurred") { talonFXS.hasResetOccurred().toDouble() },
-      Measure(REV_LIM, "Reverse Limit Switch Closed") { talonFXS.reverseLimit.valueAsDouble },
-      Measure(ROTOR_POS, "Rotor Position") { talonFXS.rotorPosition.valueAsDouble },
-      Measure(ROTOR_POS_SCALE, "Rotor Pos scaled") {
-        talonFXS.rotorPosition.valueAsDouble * scaleFactor
-      },
-      Measure(ROTOR_VEL, "Rotor Velocity") { talonFXS.rotorVelocity.valueAsDouble },
-      Measure(ROTOR_VEL_SCALE, "Rotor Vel scaled") {
-        talonFXS.rotorVelocity.valueAsDouble * scaleFactor
-      },
-      Measure(STATOR_CURRENT, "Stator Current") { talonFXS.statorCurrent.valueAsDouble },
-      Measure(SUPPLY_CURRENT, "Supply Current") { talonFXS.supplyCurrent.valueAsDouble },
-      Measure(SUPPLY_VOLTAGE, "Supply Voltage") { talonFXS.supplyVoltage.valueAsDouble },
-      Measure(TORQUE_CURRENT, "Torque Current") { talonFXS.torqueCurrent.valueAsDouble },
-      Measure(VELOCITY, "Velocity") { talonFXS.velocity.valueAsDouble },
-      Measure(VEL_SCALE, "Vel. scaled") { talonFXS.velocity.valueAsDouble * scaleFactor },
-      Measure(RAW_PULSE_WIDTH_VEL, "Raw Pulse Width Vel") {
-        talonFXS.rawPulseWidthVelocity.valueAsDouble
-      },
-      Measure(RAW_QUAD_VEL, "Raw Quad Vel") { talonFXS.rawQuadratureVelocity.valueAsDouble },
-      Measure(CLOSED_LOOP_D_OUTPUT, "Closed Loop Derivative Output") {
-        talonFXS.closedLoopDerivativeOutput.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_ERROR, "Closed Loop Error") { talonFXS.closedLoopError.valueAsDouble },
-      Measure(CLOSED_LOOP_FEED_FWD, "Closed Loop Feed Forward") {
-        talonFXS.closedLoopFeedForward.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_I_OUTPUT, "Closed Loop Integrated Output") {
-        talonFXS.closedLoopIntegratedOutput.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_OUTPUT, "Closed Loop Output") { talonFXS.closedLoopError.valueAsDouble },
-      Measure(CLOSED_LOOP_P_OUTPUT, "Closed Loop Proportional Output") {
-        talonFXS.closedLoopProportionalOutput.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_REFERENCE, "Closed Loop Reference") {
-        talonFXS.closedLoopReference.valueAsDouble
-      },
-      Measure(CLOSED_LOOP_REFERENCE_SLOPE, "Closed Loop Reference Slope") {
-        talonFXS.closedLoopReferenceSlope.value
-      },
+      Measure(REV_LIM, "Reverse Limit Switch Closed", talonFXS.getReverseLimit(false), canBus),
+      Measure(ROTOR_POS, "Rotor Position", talonFXS.getRotorPosition(false), canBus),
+      Measure(
+        ROTOR_POS_SCALE,
+        "Rotor Pos scaled",
+        talonFXS.getRotorPosition(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(ROTOR_VEL, "Rotor Velocity", talonFXS.getRotorVelocity(false), canBus),
+      Measure(
+        ROTOR_VEL_SCALE,
+        "Rotor Vel scaled",
+        talonFXS.getRotorVelocity(false),
+        canBus,
+        scaleFactor,
+      ),
+      Measure(STATOR_CURRENT, "Stator Current", talonFXS.getStatorCurrent(false), canBus),
+      Measure(SUPPLY_CURRENT, "Supply Current", talonFXS.getSupplyCurrent(false), canBus),
+      Measure(SUPPLY_VOLTAGE, "Supply Voltage", talonFXS.getSupplyVoltage(false), canBus),
+      Measure(TORQUE_CURRENT, "Torque Current", talonFXS.getTorqueCurrent(false), canBus),
+      Measure(VELOCITY, "Velocity", talonFXS.getVelocity(false), canBus),
+      Measure(VEL_SCALE, "Vel. scaled", talonFXS.getVelocity(false), canBus, scaleFactor),
+      Measure(
+        RAW_PULSE_WIDTH_VEL,
+        "Raw Pulse Width Vel",
+        talonFXS.getRawPulseWidthVelocity(false),
+        canBus,
+      ),
+      Measure(RAW_QUAD_VEL, "Raw Quad Vel", talonFXS.getRawQuadratureVelocity(false), canBus),
+      Measure(
+        CLOSED_LOOP_D_OUTPUT,
+        "Closed Loop Derivative Output",
+        talonFXS.getClosedLoopDerivativeOutput(false),
+        canBus,
+      ),
+      Measure(CLOSED_LOOP_ERROR, "Closed Loop Error", talonFXS.getClosedLoopError(false), canBus),
+      Measure(
+        CLOSED_LOOP_FEED_FWD,
+        "Closed Loop Feed Forward",
+        talonFXS.getClosedLoopFeedForward(false),
+        canBus,
+      ),
+      Measure(
+        CLOSED_LOOP_I_OUTPUT,
+        "Closed Loop Integrated Output",
+        talonFXS.getClosedLoopIntegratedOutput(false),
+        canBus,
+      ),
+      Measure(CLOSED_LOOP_OUTPUT, "Closed Loop Output", talonFXS.getClosedLoopError(false), canBus),
+      Measure(
+        CLOSED_LOOP_P_OUTPUT,
+        "Closed Loop Proportional Output",
+        talonFXS.getClosedLoopProportionalOutput(false),
+        canBus,
+      ),
+      Measure(
+        CLOSED_LOOP_REFERENCE,
+        "Closed Loop Reference",
+        talonFXS.getClosedLoopReference(false),
+        canBus,
+      ),
+      Measure(
+        CLOSED_LOOP_REFERENCE_SLOPE,
+        "Closed Loop Reference Slope",
+        talonFXS.getClosedLoopReferenceSlope(false),
+        canBus,
+      ),
       Measure(CLOSED_LOOP_SLOT, "Closed Loop Slot") { talonFXS.closedLoopSlot.value.toDouble() },
-      Measure(DIFF_CLOSED_LOOP_D_OUTPUT, "Differential Closed Loop D Output") {
-        talonFXS.differentialClosedLoopDerivativeOutput.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_ERR, "Differential Closed Loop Error") {
-        talonFXS.differentialClosedLoopError.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_FEED_FWD, "Differential Closed Loop Feed Fwd") {
-        talonFXS.differentialClosedLoopFeedForward.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_I_OUT, "Differential Closed Loop I Output") {
-        talonFXS.differentialClosedLoopIntegratedOutput.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_OUT, "Differential Closed Loop Output") {
-        talonFXS.differentialClosedLoopOutput.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_P_OUT, "Differential Closed Loop P Output") {
-        talonFXS.differentialClosedLoopProportionalOutput.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_REF, "Differential Closed Loop Reference") {
-        talonFXS.differentialClosedLoopReference.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_REF_SLOPE, "Differential Closed Loop Reference Slope") {
-        talonFXS.differentialClosedLoopReferenceSlope.valueAsDouble
-      },
-      Measure(DIFF_CLOSED_LOOP_SLOT, "Differential Closed Loop Slot") {
-        talonFXS.differentialClosedLoopSlot.valueAsDouble
-      },
+      Measure(
+        DIFF_CLOSED_LOOP_D_OUTPUT,
+        "Differential Closed Loop D Output",
+        talonFXS.getDifferentialClosedLoopDerivativeOutput(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_ERR,
+        "Differential Closed Loop Error",
+        talonFXS.getDifferentialClosedLoopError(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_FEED_FWD,
+        "Differential Closed Loop Feed Fwd",
+        talonFXS.getDifferentialClosedLoopFeedForward(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_I_OUT,
+        "Differential Closed Loop I Output",
+        talonFXS.getDifferentialClosedLoopIntegratedOutput(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_OUT,
+        "Differential Closed Loop Output",
+        talonFXS.getDifferentialClosedLoopOutput(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_P_OUT,
+        "Differential Closed Loop P Output",
+        talonFXS.getDifferentialClosedLoopProportionalOutput(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_REF,
+        "Differential Closed Loop Reference",
+        talonFXS.getDifferentialClosedLoopReference(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_REF_SLOPE,
+        "Differential Closed Loop Reference Slope",
+        talonFXS.getDifferentialClosedLoopReferenceSlope(false),
+        canBus,
+      ),
+      Measure(
+        DIFF_CLOSED_LOOP_SLOT,
+        "Differential Closed Loop Slot",
+        talonFXS.getDifferentialClosedLoopSlot(false),
+        canBus,
+      ),
       Measure(PULSE_WIDTH_POSITION, "Pulse Width Position") {
         ((MathUtil.inputModulus(talonFXS.rawPulseWidthPosition.valueAsDouble, 0.0, 1.0)))
       },
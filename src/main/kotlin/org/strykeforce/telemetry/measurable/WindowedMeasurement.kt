@@ -0,0 +1,86 @@
+package org.strykeforce.telemetry.measurable
+
+import java.util.function.DoubleSupplier
+import kotlin.math.sqrt
+
+/** The statistic a [WindowedMeasurement] reports for each window of samples. */
+enum class Aggregate(val wireName: String) {
+  /** Smallest sample in the window. */
+  MIN("min"),
+
+  /** Largest sample in the window. */
+  MAX("max"),
+
+  /** Arithmetic mean of the samples in the window. */
+  MEAN("mean"),
+
+  /** Root mean square of the samples in the window. */
+  RMS("rms");
+
+  companion object {
+    /**
+     * Look up an aggregate by its wire name.
+     *
+     * @throws IllegalArgumentException if the name is not a known aggregate.
+     */
+    @JvmStatic
+    fun fromWireName(name: String): Aggregate =
+      values().find { it.wireName == name.lowercase() }
+        ?: throw IllegalArgumentException("unknown aggregate: $name")
+  }
+}
+
+/**
+ * A measurement that reports a statistic of a source measurement over a window of samples, so
+ * peaks and averages between reads are not lost when the source changes faster than it is read.
+ *
+ * A high-rate sampler calls [sample] to accumulate the source value. Each read returns the
+ * [aggregate] of the samples since the previous read and starts a new window. A read with no
+ * samples in its window returns the current source value. `NaN` samples are skipped.
+ *
+ * The window is kept in primitive accumulators guarded by this measurement's monitor, so sampling
+ * does not allocate.
+ *
+ * @param source the measurement to sample.
+ * @param aggregate the statistic to report.
+ */
+class WindowedMeasurement(val source: DoubleSupplier, val aggregate: Aggregate) : DoubleSupplier {
+  private var count = 0
+  private var min = Double.POSITIVE_INFINITY
+  private var max = Double.NEGATIVE_INFINITY
+  private var sum = 0.0
+  private var sumOfSquares = 0.0
+
+  /** Add the current source value to the window. */
+  fun sample() = sample(source.asDouble)
+
+  /** Add a value to the window. */
+  @Synchronized
+  fun sample(value: Double) {
+    if (value.isNaN()) return
+    count++
+    if (value < min) min = value
+    if (value > max) max = value
+    sum += value
+    sumOfSquares += value * value
+  }
+
+  /** Returns the statistic of the current window and starts a new one. */
+  @Synchronized
+  override fun getAsDouble(): Double {
+    if (count == 0) return source.asDouble
+    val value =
+      when (aggregate) {
+        Aggregate.MIN -> min
+        Aggregate.MAX -> max
+        Aggregate.MEAN -> sum / count
+        Aggregate.RMS -> sqrt(sumOfSquares / count)
+      }
+    count = 0
+    min = Double.POSITIVE_INFINITY
+    max = Double.NEGATIVE_INFINITY
+    sum = 0.0
+    sumOfSquares = 0.0
+    return value
+  }
+}
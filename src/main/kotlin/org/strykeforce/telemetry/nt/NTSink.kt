@@ -0,0 +1,199 @@
+package org.strykeforce.telemetry.nt
+
+import edu.wpi.first.networktables.DoublePublisher
+import edu.wpi.first.networktables.NetworkTableInstance
+import edu.wpi.first.networktables.PubSubOption
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.function.DoubleSupplier
+import java.util.function.Supplier
+import mu.KotlinLogging
+import org.strykeforce.telemetry.AbstractInventory
+import org.strykeforce.telemetry.Inventory
+import org.strykeforce.telemetry.measurable.StatusSignalRefresher
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Publishes every measure of every registered `Measurable` item to NetworkTables 4, so dashboards
+ * can use the same instrumentation that is streamed to grapher clients. Each measure is a double
+ * topic named `/<root>/<type>/<deviceId>/<measure>`, where `type` is the simple name of the item's
+ * [type][org.strykeforce.telemetry.measurable.Measurable.type].
+ *
+ * All measures are read in one pass every [periodMillis], after their Phoenix 6 status signals are
+ * refreshed in one batch per CAN bus. Each pass ends with a [NetworkTableInstance.flush] so its
+ * updates are sent together. Publishers are created when publishing starts and when items are
+ * registered or removed, never per pass. If [changesOnly] is set, a value is only published when
+ * it differs from the last value published for that measure. Any exception while publishing stops
+ * publishing, see [isPublishing].
+ *
+ * @param instance the NetworkTables instance to publish to.
+ * @param periodMillis milliseconds between publishing passes.
+ * @param changesOnly `true` to skip values that have not changed.
+ * @param root name of the table the topics are published under.
+ */
+class NTSink
+@JvmOverloads
+constructor(
+  private val instance: NetworkTableInstance = NetworkTableInstance.getDefault(),
+  val periodMillis: Long = 20,
+  val changesOnly: Boolean = true,
+  val root: String = "ThirdCoast",
+) {
+  private var scheduler: ScheduledExecutorService? = null
+  private var inventory: AbstractInventory? = null
+  private var inventoryVersion = 0
+  @Volatile private var published: Array<PublishedMeasure> = emptyArray()
+  private var refresher = StatusSignalRefresher(emptyArray())
+  private var schedulers =
+    Supplier<ScheduledExecutorService> { Executors.newSingleThreadScheduledExecutor() }
+
+  /** Create a sink that publishes on executors from `schedulers`. */
+  internal constructor(
+    instance: NetworkTableInstance,
+    periodMillis: Long,
+    changesOnly: Boolean,
+    root: String,
+    schedulers: Supplier<ScheduledExecutorService>,
+  ) : this(instance, periodMillis, changesOnly, root) {
+    this.schedulers = schedulers
+  }
+
+  init {
+    require(periodMillis > 0) { "periodMillis must be positive: $periodMillis" }
+  }
+
+  /** `true` while publishing. */
+  val isPublishing: Boolean
+    @Synchronized get() = scheduler != null
+
+  /** Names of the published topics. */
+  val topicNames: List<String>
+    get() = published.map { it.name }
+
+  /**
+   * Start publishing all measures of the items in the inventory.
+   *
+   * @param inventory the inventory to publish, must be an [AbstractInventory].
+   * @throws IllegalStateException if already publishing.
+   */
+  @Synchronized
+  fun start(inventory: Inventory) {
+    check(scheduler == null) { "start called while already publishing" }
+    require(inventory is AbstractInventory) { "publishing requires an AbstractInventory" }
+    this.inventory = inventory
+    load(inventory)
+    scheduler =
+      schedulers.get().also {
+        it.scheduleAtFixedRate(this::publish, 0, periodMillis, MILLISECONDS)
+      }
+    logger.info { "publishing ${published.size} measures to NetworkTables under /$root" }
+  }
+
+  /**
+   * Stop publishing and close all publishers. The scheduler is waited for without holding the
+   * sink's lock, and a pass still running when the wait times out closes the publishers itself.
+   */
+  fun stop() {
+    val stopped =
+      synchronized(this) {
+        scheduler?.shutdown()
+        scheduler.also {
+          scheduler = null
+          inventory = null
+        }
+      }
+    if (stopped?.awaitTermination(1, SECONDS) != false) synchronized(this) { closePublishers() }
+    logger.info("stopped publishing to NetworkTables")
+  }
+
+  /**
+   * Load the measures to publish from the current inventory snapshot, keeping the publishers of
+   * topics that are still published and closing the rest.
+   */
+  private fun load(inventory: AbstractInventory) {
+    inventoryVersion = inventory.version
+    val previous = published.associateBy { it.name }
+    val measures = LinkedHashMap<String, PublishedMeasure>()
+    inventory.measurables.values.forEach { measurable ->
+      val table = "/$root/${measurable.type.substringAfterLast('.')}/${measurable.deviceId}"
+      measurable.measures.forEach { measure ->
+        val name = "$table/${measure.name}"
+        if (name in measures) {
+          logger.warn { "$name is already published, skipping ${measurable.description}" }
+          return@forEach
+        }
+        val publisher =
+          previous[name]?.publisher
+            ?: instance
+              .getDoubleTopic(name)
+              .publish(PubSubOption.periodic(periodMillis / 1000.0))
+        measures[name] = PublishedMeasure(name, measure.measurement, publisher)
+      }
+    }
+    previous.values.forEach { if (it.name !in measures) it.publisher.close() }
+    published = measures.values.toTypedArray()
+    refresher = StatusSignalRefresher(Array(published.size) { published[it].measurement })
+  }
+
+  /**
+   * Runs on the scheduler thread each [periodMillis]. Any exception stops publishing, since an
+   * exception escaping a scheduled task would cancel it without a trace.
+   */
+  private fun publish() {
+    try {
+      val inventory = inventory ?: return
+      if (inventory.version != inventoryVersion) {
+        load(inventory)
+        logger.info { "inventory changed, publishing ${published.size} measures" }
+      }
+      refresher.requestAll()
+      refresher.refresh()
+      for (measure in published) measure.publish(changesOnly)
+      instance.flush()
+    } catch (e: Exception) {
+      logger.error(e) { "publishing to NetworkTables stopped" }
+      halt()
+    } finally {
+      closeIfStopped()
+    }
+  }
+
+  /** Stop publishing from the scheduler thread after an error. */
+  @Synchronized
+  private fun halt() {
+    scheduler?.shutdown()
+    scheduler = null
+    inventory = null
+  }
+
+  /** Close the publishers if publishing was stopped while this pass was running. */
+  @Synchronized
+  private fun closeIfStopped() {
+    if (inventory == null) closePublishers()
+  }
+
+  private fun closePublishers() {
+    published.forEach { it.publisher.close() }
+    published = emptyArray()
+  }
+
+  private class PublishedMeasure(
+    val name: String,
+    val measurement: DoubleSupplier,
+    val publisher: DoublePublisher,
+  ) {
+    private var last = Double.NaN
+    private var sent = false
+
+    fun publish(changesOnly: Boolean) {
+      val value = measurement.asDouble
+      if (changesOnly && sent && (value == last || (value.isNaN() && last.isNaN()))) return
+      publisher.set(value)
+      last = value
+      sent = true
+    }
+  }
+}
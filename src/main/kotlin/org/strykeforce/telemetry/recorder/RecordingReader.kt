@@ -0,0 +1,86 @@
+package org.strykeforce.telemetry.recorder
+
+import java.io.IOException
+import java.io.Writer
+import java.nio.file.Path
+import java.nio.file.Paths
+
+/**
+ * Reads the recording segments written by [TelemetryRecorder] to a directory.
+ *
+ * @param directory the recording directory.
+ */
+class RecordingReader
+@JvmOverloads
+constructor(val directory: Path = Paths.get("/home/lvuser/telemetry")) {
+
+  private val opened = HashMap<Path, RecordingSegment>()
+
+  /**
+   * Open the segments in the recording directory. Each segment file is mapped once and reused by
+   * later calls until the file is deleted, so repeated requests do not map it again.
+   *
+   * @return the segments, oldest first.
+   * @throws IOException if a segment can't be read.
+   */
+  @Synchronized
+  @Throws(IOException::class)
+  fun segments(): List<RecordingSegment> {
+    val paths = segmentPaths(directory)
+    opened.keys.retainAll(paths.toSet())
+    return paths.map { opened.getOrPut(it) { RecordingSegment.open(it) } }
+  }
+
+  /**
+   * Visit each record in a time range, oldest first.
+   *
+   * @param start start of the range, inclusive, in milliseconds since the epoch.
+   * @param end end of the range, inclusive, in milliseconds since the epoch.
+   * @param visitor called with the segment and record index of each record in the range.
+   * @throws IOException if a segment can't be read.
+   */
+  @Throws(IOException::class)
+  fun forEachRecord(start: Long, end: Long, visitor: RecordVisitor) {
+    for (segment in segments()) {
+      if (segment.endTime < start || segment.startTime > end) continue
+      var record = segment.firstRecordAtOrAfter(start)
+      val count = segment.recordCount
+      while (record < count && segment.timestamp(record) <= end) visitor.visit(segment, record++)
+    }
+  }
+
+  /**
+   * Write the records in a time range as CSV, with a timestamp column followed by a column for each
+   * recorded measure. A header row is written before the first record and again whenever the
+   * recorded measures change between segments.
+   *
+   * @param start start of the range, inclusive, in milliseconds since the epoch.
+   * @param end end of the range, inclusive, in milliseconds since the epoch.
+   * @param writer the writer to write to.
+   * @throws IOException if a segment can't be read or an IO error occurs during writing.
+   */
+  @Throws(IOException::class)
+  fun writeCsv(start: Long, end: Long, writer: Writer) {
+    var columns: List<RecordedColumn>? = null
+    forEachRecord(start, end) { segment, record ->
+      if (segment.columns != columns) {
+        columns = segment.columns
+        writer.write("timestamp")
+        segment.columns.forEach { writer.write(",\"${it.name.replace("\"", "\"\"")}\"") }
+        writer.write("\n")
+      }
+      writer.write(segment.timestamp(record).toString())
+      for (column in segment.columns.indices) {
+        writer.write(",")
+        writer.write(segment.value(record, column).toString())
+      }
+      writer.write("\n")
+    }
+    writer.flush()
+  }
+
+  /** Visits records read from a [RecordingSegment]. */
+  fun interface RecordVisitor {
+    fun visit(segment: RecordingSegment, record: Int)
+  }
+}
@@ -0,0 +1,179 @@
+package org.strykeforce.telemetry.recorder
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.READ
+
+internal const val MAGIC = 0x31524354 // "TCR1" little-endian
+internal const val VERSION = 1
+internal const val RECORD_COUNT_OFFSET = 24
+internal const val FIXED_HEADER_SIZE = 32
+
+/**
+ * A read-only view of one recording segment file written by [TelemetryRecorder]. Segment files are
+ * memory-mapped and little-endian:
+ * ```
+ * offset  size  field
+ *      0     4  magic "TCR1"
+ *      4     2  format version
+ *      6     2  number of columns
+ *      8     8  segment start time, milliseconds since the epoch
+ *     16     8  segment start time, monotonic nanoseconds
+ *     24     4  number of records written so far
+ *     28     4  offset of the first record
+ *     32     ?  column descriptions
+ *      r     ?  records
+ * ```
+ * Each column description is the inventory item id and device id as 4-byte ints followed by the
+ * item type, item description, measure name and measure description, each as a 2-byte length and
+ * UTF-8 bytes. Each record is an 8-byte monotonic timestamp, in nanoseconds, followed by an 8-byte
+ * double for each column. Records are fixed size and in monotonic timestamp order, so a time range
+ * is found with a binary search.
+ *
+ * The wall clock time of the segment start is only kept as metadata. Record timestamps in
+ * milliseconds since the epoch are the start time plus the monotonic time elapsed since the start,
+ * so they stay in order if the system clock is changed while recording.
+ *
+ * The record count is updated after each record is written, so a segment that is still being
+ * recorded can be read.
+ */
+class RecordingSegment private constructor(val path: Path, private val buffer: ByteBuffer) {
+
+  /** The recorded measures, in record order. */
+  val columns: List<RecordedColumn>
+
+  /** Time the segment was started, in milliseconds since the epoch. */
+  val startTime: Long
+
+  /** Time the segment was started, in monotonic nanoseconds. */
+  val startNanoTime: Long
+
+  private val recordOffset: Int
+  private val recordSize: Int
+
+  init {
+    check(buffer.getInt(0) == MAGIC) { "$path is not a telemetry recording" }
+    val version = buffer.getShort(4).toInt()
+    check(version == VERSION) { "$path has unsupported recording version $version" }
+    val count = buffer.getShort(6).toInt() and 0xFFFF
+    startTime = buffer.getLong(8)
+    startNanoTime = buffer.getLong(16)
+    recordOffset = buffer.getInt(RECORD_COUNT_OFFSET + 4)
+    val header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(FIXED_HEADER_SIZE)
+    columns =
+      List(count) {
+        RecordedColumn(
+          itemId = header.int,
+          deviceId = header.int,
+          type = header.getString(),
+          description = header.getString(),
+          measure = header.getString(),
+          measureDescription = header.getString(),
+        )
+      }
+    recordSize = recordSize(count)
+  }
+
+  /** Number of records in this segment, which grows while the segment is being recorded. */
+  val recordCount: Int
+    get() {
+      val count = buffer.getInt(RECORD_COUNT_OFFSET)
+      return minOf(count, (buffer.capacity() - recordOffset) / recordSize)
+    }
+
+  /** Timestamp of the last record, or [startTime] if there are no records. */
+  val endTime: Long
+    get() = recordCount.let { if (it == 0) startTime else timestamp(it - 1) }
+
+  /** Timestamp of a record, in milliseconds since the epoch, see [startTime]. */
+  fun timestamp(record: Int): Long =
+    startTime + Math.floorDiv(nanoTime(record) - startNanoTime, NANOS_PER_MILLI)
+
+  /** Monotonic timestamp of a record, in nanoseconds. */
+  fun nanoTime(record: Int): Long = buffer.getLong(offset(record))
+
+  /** Value of a column in a record. */
+  fun value(record: Int, column: Int): Double = buffer.getDouble(offset(record) + 8 + column * 8)
+
+  /**
+   * Find the first record at or after a time.
+   *
+   * @param time milliseconds since the epoch.
+   * @return the record index, or [recordCount] if all records are before `time`.
+   */
+  fun firstRecordAtOrAfter(time: Long): Int {
+    var low = 0
+    var high = recordCount
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if (timestamp(mid) < time) low = mid + 1 else high = mid
+    }
+    return low
+  }
+
+  private fun offset(record: Int): Int {
+    if (record < 0 || record >= recordCount) throw IndexOutOfBoundsException("record $record")
+    return recordOffset + record * recordSize
+  }
+
+  override fun toString() =
+    "RecordingSegment(path=$path, startTime=$startTime, recordCount=$recordCount)"
+
+  companion object {
+    /**
+     * Open a segment file for reading.
+     *
+     * @param path the segment file.
+     * @throws IOException if the file can't be read.
+     * @throws IllegalStateException if the file is not a telemetry recording segment.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun open(path: Path): RecordingSegment {
+      val buffer: MappedByteBuffer =
+        FileChannel.open(path, READ).use { it.map(FileChannel.MapMode.READ_ONLY, 0, it.size()) }
+      check(buffer.capacity() >= FIXED_HEADER_SIZE) { "$path is not a telemetry recording" }
+      return RecordingSegment(path, buffer.order(ByteOrder.LITTLE_ENDIAN))
+    }
+  }
+}
+
+/** Describes a measure recorded in a [RecordingSegment]. */
+data class RecordedColumn(
+  val itemId: Int,
+  val deviceId: Int,
+  val type: String,
+  val description: String,
+  val measure: String,
+  val measureDescription: String,
+) {
+  /** Column name in the style of grapher subscription descriptions. */
+  val name: String
+    get() = "$description: $measureDescription"
+}
+
+private const val NANOS_PER_MILLI = 1_000_000L
+
+internal fun recordSize(columns: Int) = 8 + columns * 8
+
+/** Size of the header of a segment of these columns, including padding to the first record. */
+internal fun headerSize(columns: List<RecordedColumn>): Int {
+  var size = FIXED_HEADER_SIZE
+  for (column in columns) {
+    size += 8
+    for (s in listOf(column.type, column.description, column.measure, column.measureDescription)) {
+      size += 2 + s.toByteArray(Charsets.UTF_8).size
+    }
+  }
+  return (size + 7) and 7.inv()
+}
+
+private fun ByteBuffer.getString(): String {
+  val bytes = ByteArray(short.toInt() and 0xFFFF)
+  get(bytes)
+  return String(bytes, Charsets.UTF_8)
+}
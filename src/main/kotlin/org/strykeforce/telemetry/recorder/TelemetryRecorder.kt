@@ -0,0 +1,309 @@
+package org.strykeforce.telemetry.recorder
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardOpenOption.CREATE_NEW
+import java.nio.file.StandardOpenOption.READ
+import java.nio.file.StandardOpenOption.WRITE
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.function.DoubleSupplier
+import java.util.function.LongSupplier
+import java.util.function.Supplier
+import mu.KotlinLogging
+import org.strykeforce.telemetry.AbstractInventory
+import org.strykeforce.telemetry.Inventory
+import org.strykeforce.telemetry.measurable.StatusSignalRefresher
+
+private val logger = KotlinLogging.logger {}
+
+internal const val SEGMENT_PREFIX = "telemetry-"
+internal const val SEGMENT_SUFFIX = ".tcr"
+
+/**
+ * Records every measure of every registered `Measurable` item to memory-mapped, append-only segment
+ * files so telemetry is available after a match without a grapher client streaming during it.
+ *
+ * Segments are named with a sequence number, one more than the highest in the directory, and rolled
+ * over when the next record would not fit in [segmentSize] bytes, or when items are registered or
+ * removed from the inventory while recording. The segments with the lowest sequence numbers are
+ * deleted to keep at most [maxSegments] in the directory. Records are timestamped with a monotonic
+ * clock, so recordings stay in order if the system clock is changed while recording, for example
+ * when the robot controller sets it from the driver station. Use
+ * [RecordingReader] to read them back, or the recording endpoint of
+ * [org.strykeforce.telemetry.TelemetryController] to download a time range.
+ *
+ * @param directory where segment files are written.
+ * @param periodMillis milliseconds between records.
+ * @param segmentSize maximum size in bytes of a segment file.
+ * @param maxSegments maximum number of segment files kept in `directory`.
+ */
+class TelemetryRecorder
+@JvmOverloads
+constructor(
+  val directory: Path = Paths.get("/home/lvuser/telemetry"),
+  val periodMillis: Long = 20,
+  val segmentSize: Int = 8 * 1024 * 1024,
+  val maxSegments: Int = 16,
+) {
+  private var scheduler: ScheduledExecutorService? = null
+  private var inventory: AbstractInventory? = null
+  private var inventoryVersion = 0
+  private var columns: List<RecordedColumn> = emptyList()
+  private var measurements: Array<DoubleSupplier> = emptyArray()
+  private var refresher = StatusSignalRefresher(measurements)
+  private var segment: SegmentWriter? = null
+  private var schedulers =
+    Supplier<ScheduledExecutorService> { Executors.newSingleThreadScheduledExecutor() }
+  private var clock = LongSupplier { System.currentTimeMillis() }
+  private var nanoClock = LongSupplier { System.nanoTime() }
+
+  /**
+   * Create a recorder that runs on executors from `schedulers`, timestamps records with the
+   * monotonic `nanoClock` and segments with the wall `clock`.
+   */
+  internal constructor(
+    directory: Path,
+    periodMillis: Long,
+    segmentSize: Int,
+    maxSegments: Int,
+    schedulers: Supplier<ScheduledExecutorService>,
+    clock: LongSupplier,
+    nanoClock: LongSupplier,
+  ) : this(directory, periodMillis, segmentSize, maxSegments) {
+    this.schedulers = schedulers
+    this.clock = clock
+    this.nanoClock = nanoClock
+  }
+
+  init {
+    require(periodMillis > 0) { "periodMillis must be positive: $periodMillis" }
+    require(maxSegments > 0) { "maxSegments must be positive: $maxSegments" }
+  }
+
+  /** `true` while recording. */
+  val isRecording: Boolean
+    @Synchronized get() = scheduler != null
+
+  /**
+   * Start recording all measures of the items in the inventory.
+   *
+   * @param inventory the inventory to record, must be an [AbstractInventory].
+   * @throws IllegalStateException if already recording.
+   */
+  @Synchronized
+  fun start(inventory: Inventory) {
+    check(scheduler == null) { "start called while already recording" }
+    require(inventory is AbstractInventory) { "recording requires an AbstractInventory" }
+    this.inventory = inventory
+    load(inventory)
+    Files.createDirectories(directory)
+    scheduler =
+      schedulers.get().also {
+        it.scheduleAtFixedRate(this::record, 0, periodMillis, MILLISECONDS)
+      }
+    logger.info { "recording ${columns.size} measures to $directory" }
+  }
+
+  /** Load the columns to record from the current inventory snapshot. */
+  private fun load(inventory: AbstractInventory) {
+    inventoryVersion = inventory.version
+    val columns = ArrayList<RecordedColumn>()
+    val suppliers = ArrayList<DoubleSupplier>()
+    inventory.measurables.forEach { (itemId, measurable) ->
+      measurable.measures.forEach {
+        columns +=
+          RecordedColumn(
+            itemId,
+            measurable.deviceId,
+            measurable.type,
+            measurable.description,
+            it.name,
+            it.description,
+          )
+        suppliers += it.measurement
+      }
+    }
+    check(columns.size <= 0xFFFF) { "too many measures to record: ${columns.size}" }
+    check(recordSize(columns.size) <= segmentSize / 2) { "segmentSize too small for inventory" }
+    check(headerSize(columns) + recordSize(columns.size) <= segmentSize) {
+      "segmentSize too small for the column descriptions of the inventory"
+    }
+    this.columns = columns
+    measurements = suppliers.toTypedArray()
+    refresher = StatusSignalRefresher(measurements)
+  }
+
+  /**
+   * Stop recording and close the current segment. The scheduler is waited for without holding the
+   * recorder's lock, so a recording task that fails while stopping can still [halt]. If a record is
+   * still being written when the wait times out, the task closes the segment itself when it
+   * finishes, since the segment must not be truncated while it is being written.
+   */
+  fun stop() {
+    val stopped =
+      synchronized(this) {
+        scheduler?.shutdown()
+        scheduler.also {
+          scheduler = null
+          inventory = null
+        }
+      }
+    if (stopped?.awaitTermination(1, SECONDS) != false) synchronized(this) { closeSegment() }
+    logger.info("stopped recording")
+  }
+
+  /**
+   * Runs on the scheduler thread each [periodMillis]. Any exception stops recording, since an
+   * exception escaping a scheduled task would cancel it without a trace.
+   */
+  private fun record() {
+    try {
+      val inventory = inventory ?: return
+      if (inventory.version != inventoryVersion) {
+        segment?.close()
+        segment = null
+        load(inventory)
+        logger.info { "inventory changed, recording ${columns.size} measures" }
+      }
+      refresher.requestAll()
+      refresher.refresh()
+      val nanoTime = nanoClock.asLong
+      val segment = segment?.takeIf { it.hasRoom() } ?: roll(nanoTime)
+      segment.append(nanoTime, measurements)
+    } catch (e: IOException) {
+      logger.error(e) { "recording stopped, unable to write segment in $directory" }
+      halt()
+    } catch (e: Exception) {
+      logger.error(e) { "recording stopped" }
+      halt()
+    } finally {
+      closeIfStopped()
+    }
+  }
+
+  /** Stop recording from the scheduler thread after an error. */
+  @Synchronized
+  private fun halt() {
+    scheduler?.shutdown()
+    scheduler = null
+    inventory = null
+  }
+
+  /** Close the segment if recording was stopped while this record was being written. */
+  @Synchronized
+  private fun closeIfStopped() {
+    if (inventory == null) closeSegment()
+  }
+
+  private fun closeSegment() {
+    try {
+      segment?.close()
+    } catch (e: IOException) {
+      logger.error(e) { "unable to close segment in $directory" }
+    }
+    segment = null
+  }
+
+  private fun roll(nanoTime: Long): SegmentWriter {
+    segment?.close()
+    val sequence = segmentPaths(directory).lastOrNull()?.let { segmentSequence(it) + 1 } ?: 1L
+    val path = directory.resolve("$SEGMENT_PREFIX$sequence$SEGMENT_SUFFIX")
+    return SegmentWriter(path, segmentSize, columns, clock.asLong, nanoTime).also {
+      segment = it
+      deleteOldSegments()
+      logger.info { "recording to $path" }
+    }
+  }
+
+  private fun deleteOldSegments() {
+    val segments = segmentPaths(directory)
+    for (path in segments.take(maxOf(0, segments.size - maxSegments))) {
+      Files.deleteIfExists(path)
+      logger.info { "deleted old recording $path" }
+    }
+  }
+}
+
+/** Segment files in the directory, in sequence number order. */
+internal fun segmentPaths(directory: Path): List<Path> {
+  if (!Files.isDirectory(directory)) return emptyList()
+  return Files.list(directory).use { paths ->
+    paths
+      .filter {
+        val name = it.fileName.toString()
+        name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+      }
+      .toList()
+      .sortedBy { segmentSequence(it) }
+  }
+}
+
+private fun segmentSequence(path: Path) =
+  path.fileName.toString().removeSurrounding(SEGMENT_PREFIX, SEGMENT_SUFFIX).toLongOrNull() ?: 0L
+
+/** Appends records to a memory-mapped segment file, see [RecordingSegment] for the layout. */
+private class SegmentWriter(
+  private val path: Path,
+  size: Int,
+  columns: List<RecordedColumn>,
+  startTime: Long,
+  startNanoTime: Long,
+) {
+  private val channel = FileChannel.open(path, CREATE_NEW, READ, WRITE)
+  private val buffer: MappedByteBuffer =
+    channel.map(FileChannel.MapMode.READ_WRITE, 0, size.toLong()).also {
+      it.order(ByteOrder.LITTLE_ENDIAN)
+    }
+  private val recordSize = recordSize(columns.size)
+  private var recordCount = 0
+
+  init {
+    buffer
+      .putInt(MAGIC)
+      .putShort(VERSION.toShort())
+      .putShort(columns.size.toShort())
+      .putLong(startTime)
+      .putLong(startNanoTime)
+      .putInt(0)
+      .putInt(0)
+    for (column in columns) {
+      buffer.putInt(column.itemId).putInt(column.deviceId)
+      buffer.putString(column.type)
+      buffer.putString(column.description)
+      buffer.putString(column.measure)
+      buffer.putString(column.measureDescription)
+    }
+    val recordOffset = (buffer.position() + 7) and 7.inv()
+    buffer.putInt(RECORD_COUNT_OFFSET + 4, recordOffset)
+    buffer.position(recordOffset)
+  }
+
+  fun hasRoom() = buffer.remaining() >= recordSize
+
+  fun append(nanoTime: Long, measurements: Array<DoubleSupplier>) {
+    buffer.putLong(nanoTime)
+    for (measurement in measurements) buffer.putDouble(measurement.asDouble)
+    buffer.putInt(RECORD_COUNT_OFFSET, ++recordCount)
+  }
+
+  /** Flush the segment and trim unused space from the end of the file. */
+  fun close() {
+    buffer.force()
+    channel.truncate(buffer.position().toLong())
+    channel.close()
+  }
+}
+
+private fun ByteBuffer.putString(s: String) {
+  val bytes = s.toByteArray(Charsets.UTF_8)
+  putShort(bytes.size.toShort()).put(bytes)
+}
@@ -0,0 +1,107 @@
+package org.strykeforce.telemetry.util
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A fixed-bucket histogram of non-negative values, recorded by a single thread without allocating
+ * or locking and read from any thread.
+ *
+ * Values are counted in [bucketCount] buckets of [bucketWidth], with larger values counted in a
+ * final overflow bucket. Percentiles are therefore accurate to one bucket width, except in the
+ * overflow bucket where they are reported as [max]. Readers see each count as recorded but may
+ * see a later count of one bucket together with an earlier count of another.
+ *
+ * The count, maximum and percentiles are of every value recorded. Readers that want the values
+ * recorded in an interval, for example to graph current loop health, keep the [Snapshot] taken at
+ * the start of the interval and call [Snapshot.since] on one taken at its end.
+ *
+ * @param bucketWidth width of each bucket, in the units of the recorded values.
+ * @param bucketCount number of buckets before the overflow bucket.
+ */
+class Histogram(val bucketWidth: Long, val bucketCount: Int) {
+  private val counts = AtomicLongArray(bucketCount + 1)
+
+  init {
+    require(bucketWidth > 0) { "bucketWidth must be positive: $bucketWidth" }
+    require(bucketCount > 0) { "bucketCount must be positive: $bucketCount" }
+  }
+
+  /** Number of values recorded. */
+  @Volatile
+  var count = 0L
+    private set
+
+  /** Largest value recorded, or zero if none have been recorded. */
+  @Volatile
+  var max = 0L
+    private set
+
+  /** Record a value, negative values are recorded as zero. Only call from a single thread. */
+  fun record(value: Long) {
+    val v = maxOf(value, 0L)
+    val bucket = minOf(v / bucketWidth, bucketCount.toLong()).toInt()
+    counts.lazySet(bucket, counts.get(bucket) + 1)
+    if (v > max) max = v
+    count++
+  }
+
+  /**
+   * The value at or below which a fraction of the recorded values fall, reported as the upper bound
+   * of its bucket.
+   *
+   * @param fraction between 0 and 1, for example 0.99 for the 99th percentile.
+   * @return the percentile, or zero if no values have been recorded.
+   */
+  fun percentile(fraction: Double): Long = snapshot().percentile(fraction)
+
+  /** Copy the counts of the values recorded so far. */
+  fun snapshot() = Snapshot(LongArray(bucketCount + 1) { counts.get(it) }, max)
+
+  /**
+   * The bucket counts of a [Histogram] when it was read, or of the values recorded between two
+   * reads, see [since].
+   *
+   * @property max largest value counted, for an interval the upper bound of its largest bucket.
+   */
+  inner class Snapshot internal constructor(private val counts: LongArray, val max: Long) {
+
+    /** Number of values counted. */
+    val count = counts.sum()
+
+    /**
+     * The value at or below which a fraction of the counted values fall, reported as the upper
+     * bound of its bucket.
+     *
+     * @param fraction between 0 and 1, for example 0.99 for the 99th percentile.
+     * @return the percentile, or zero if no values were counted.
+     */
+    fun percentile(fraction: Double): Long {
+      require(fraction in 0.0..1.0) { "fraction must be between 0 and 1: $fraction" }
+      if (count == 0L) return 0L
+      val target = maxOf(1L, Math.ceil(fraction * count).toLong())
+      var cumulative = 0L
+      for (i in 0 until bucketCount) {
+        cumulative += counts[i]
+        if (cumulative >= target) return minOf((i + 1) * bucketWidth, max)
+      }
+      return max
+    }
+
+    /**
+     * The values recorded between an earlier snapshot of the same histogram and this one.
+     *
+     * @param earlier a snapshot taken before this one.
+     */
+    fun since(earlier: Snapshot): Snapshot {
+      val interval = LongArray(counts.size) { counts[it] - earlier.counts[it] }
+      val last = interval.indexOfLast { it > 0 }
+      val intervalMax =
+        when {
+          last < 0 -> 0L
+          last == bucketCount -> max
+          else -> minOf((last + 1) * bucketWidth, max)
+        }
+      return Snapshot(interval, intervalMax)
+    }
+  }
+}
@@ -0,0 +1,223 @@
+package org.strykeforce.telemetry.util
+
+import com.sun.net.httpserver.Filter
+import com.sun.net.httpserver.HttpContext
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import java.lang.reflect.InvocationTargetException
+import java.util.concurrent.AbstractExecutorService
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.AtomicInteger
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger {}
+
+private const val HTTP_UNAVAILABLE = 503
+
+/**
+ * Executors for the JDK `HttpServer` instances that serve telemetry and health check reports, so
+ * one slow client can't hold up requests from the others or stop the server.
+ *
+ * The JDK server never times out a client that is slow to send its request or to read its
+ * response, and the `sun.net.httpserver.maxReqTime` and `maxRspTime` system properties that make
+ * it do so only take effect if set before the first server in the JVM is created. Instead, each
+ * exchange run by a [newExecutor] executor has a deadline, after which a watchdog interrupts its
+ * thread. This closes the connection, since the exchange's socket channel is interruptible.
+ *
+ * Exchanges the executor has no room for are answered with `503 Service Unavailable` by contexts
+ * created with [createContext], without blocking the server's dispatcher thread.
+ */
+object HttpServerConfig {
+
+  /** Threads in the pool used when virtual threads are not available. */
+  const val DEFAULT_POOL_SIZE = 4
+
+  /** Exchanges waiting for a pool thread before new exchanges are refused. */
+  const val DEFAULT_QUEUE_SIZE = 32
+
+  /** Milliseconds an exchange may take, including reading the request and sending the response. */
+  const val DEFAULT_DEADLINE_MILLIS = 120_000L
+
+  // set while the overflow thread runs an exchange the pool had no room for
+  private val refusing = ThreadLocal<Boolean>()
+
+  /** Answers exchanges the executor had no room for with 503, see [createContext]. */
+  @JvmField
+  val overloadFilter: Filter =
+    object : Filter() {
+      override fun description() = "Refuses exchanges the executor has no room for"
+
+      override fun doFilter(exchange: HttpExchange, chain: Chain) {
+        if (refusing.get() != true) {
+          chain.doFilter(exchange)
+          return
+        }
+        exchange.responseHeaders["Retry-After"] = "1"
+        exchange.sendResponseHeaders(HTTP_UNAVAILABLE, -1)
+        exchange.close()
+      }
+    }
+
+  /**
+   * Create a context on `server` that answers exchanges its [newExecutor] executor had no room for
+   * with 503.
+   */
+  @JvmStatic
+  fun createContext(server: HttpServer, path: String, handler: HttpHandler): HttpContext =
+    server.createContext(path, handler).also { it.filters += overloadFilter }
+
+  /**
+   * Create an executor that handles each exchange on a new virtual thread if the JVM supports them,
+   * otherwise on a pool of at most `poolSize` daemon threads that time out when idle. At most
+   * `queueSize` exchanges wait for a pool thread. Once the queue is full, exchanges are handed to
+   * a single overflow thread that answers them with 503, see [createContext], and connections are
+   * closed without a response if it is busy too. The server's dispatcher thread never runs an
+   * exchange itself.
+   *
+   * Exchanges still running after `deadlineMillis` are interrupted, which closes their connection.
+   *
+   * @param name prefix of the thread names.
+   * @param poolSize maximum number of pool threads.
+   * @param queueSize maximum number of exchanges waiting for a pool thread.
+   * @param deadlineMillis milliseconds an exchange may take before its connection is closed.
+   */
+  @JvmStatic
+  @JvmOverloads
+  fun newExecutor(
+    name: String,
+    poolSize: Int = DEFAULT_POOL_SIZE,
+    queueSize: Int = DEFAULT_QUEUE_SIZE,
+    deadlineMillis: Long = DEFAULT_DEADLINE_MILLIS,
+  ): ExecutorService {
+    require(poolSize > 0) { "poolSize must be positive: $poolSize" }
+    require(queueSize > 0) { "queueSize must be positive: $queueSize" }
+    require(deadlineMillis > 0) { "deadlineMillis must be positive: $deadlineMillis" }
+    val watchdog = Executors.newSingleThreadScheduledExecutor(threadFactory("$name-watchdog"))
+    newVirtualThreadExecutor()?.let {
+      return DeadlineExecutor(name, it, watchdog, deadlineMillis)
+    }
+    val overflow =
+      ThreadPoolExecutor(
+          1,
+          1,
+          30,
+          SECONDS,
+          ArrayBlockingQueue(queueSize),
+          threadFactory("$name-overflow"),
+        )
+        .also { it.allowCoreThreadTimeOut(true) }
+    val refuse = RejectedExecutionHandler { r, _ ->
+      logger.warn { "$name request queue full, refusing request" }
+      overflow.execute {
+        refusing.set(true)
+        try {
+          r.run()
+        } finally {
+          refusing.remove()
+        }
+      }
+    }
+    val pool =
+      ThreadPoolExecutor(
+          poolSize,
+          poolSize,
+          30,
+          SECONDS,
+          ArrayBlockingQueue(queueSize),
+          threadFactory(name),
+          refuse,
+        )
+        .also { it.allowCoreThreadTimeOut(true) }
+    return DeadlineExecutor(name, pool, watchdog, deadlineMillis, overflow)
+  }
+
+  private fun threadFactory(name: String): ThreadFactory {
+    val count = AtomicInteger()
+    return ThreadFactory { r ->
+      Thread(r, "$name-${count.incrementAndGet()}").also { it.isDaemon = true }
+    }
+  }
+
+  // virtual threads were finalized in Java 21, this library is compiled for Java 17
+  private fun newVirtualThreadExecutor(): ExecutorService? =
+    try {
+      Executors::class.java.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)
+        as ExecutorService
+    } catch (e: NoSuchMethodException) {
+      null
+    } catch (e: InvocationTargetException) {
+      // preview feature not enabled on Java 19 and 20
+      logger.debug(e) { "virtual threads not available" }
+      null
+    }
+}
+
+/**
+ * Runs exchanges on `delegate`, interrupting any still running after `deadlineMillis`. Shutting
+ * it down shuts down the `watchdog` and any `others` executors too.
+ */
+private class DeadlineExecutor(
+  private val name: String,
+  private val delegate: ExecutorService,
+  private val watchdog: ScheduledExecutorService,
+  private val deadlineMillis: Long,
+  vararg others: ExecutorService,
+) : AbstractExecutorService() {
+  private val owned = listOf(delegate, watchdog, *others)
+
+  override fun execute(command: Runnable) = delegate.execute(Deadline(command))
+
+  override fun shutdown() = owned.forEach { it.shutdown() }
+
+  override fun shutdownNow(): List<Runnable> = owned.flatMap { it.shutdownNow() }
+
+  override fun isShutdown() = delegate.isShutdown
+
+  override fun isTerminated() = owned.all { it.isTerminated }
+
+  override fun awaitTermination(timeout: Long, unit: TimeUnit): Boolean {
+    val deadline = System.nanoTime() + unit.toNanos(timeout)
+    return owned.all { it.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) }
+  }
+
+  private inner class Deadline(private val command: Runnable) : Runnable {
+    private var running = false
+
+    override fun run() {
+      val thread = Thread.currentThread()
+      synchronized(this) { running = true }
+      val timeout =
+        try {
+          watchdog.schedule({ expire(thread) }, deadlineMillis, MILLISECONDS)
+        } catch (e: RejectedExecutionException) {
+          null // shutting down
+        }
+      try {
+        command.run()
+      } finally {
+        synchronized(this) { running = false }
+        timeout?.cancel(false)
+        // clear an interrupt from the watchdog so a pool thread is not interrupted by it later
+        Thread.interrupted()
+      }
+    }
+
+    @Synchronized
+    private fun expire(thread: Thread) {
+      if (!running) return
+      logger.warn { "$name request took longer than $deadlineMillis ms, closing its connection" }
+      thread.interrupt()
+    }
+  }
+}
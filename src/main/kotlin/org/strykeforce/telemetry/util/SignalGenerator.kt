@@ -29,6 +29,18 @@ internal constructor(
     startTime = System.nanoTime()
   }
 
+  /**
+   * Precompute one period of the signal, for callers that read it faster than they can afford
+   * [value], see [org.strykeforce.telemetry.measurable.SyntheticMeasurable].
+   *
+   * @param size number of evenly spaced samples in the period.
+   */
+  fun period(size: Int): DoubleArray {
+    require(size > 0) { "size must be positive: $size" }
+    require(frequency > 0.0) { "frequency must be positive: $frequency" }
+    return DoubleArray(size) { getValue(it / (size * frequency)) }
+  }
+
   override fun toString(): String {
     return String.format(
       "%.2f hz with amplitude %.2f, phase %.2f, offset %.2f%s",
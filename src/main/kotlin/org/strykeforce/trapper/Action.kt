@@ -4,8 +4,6 @@ import com.squareup.moshi.JsonClass
 import java.time.LocalDateTime
 import okhttp3.HttpUrl.Companion.toHttpUrl
 import okhttp3.RequestBody
-import okhttp3.RequestBody.Companion.toRequestBody
-import okio.Buffer
 import okio.BufferedSource
 
 private val actionJsonAdapter = ActionJsonAdapter(moshi)
@@ -20,10 +18,8 @@ data class Action(val name: String = "Action ${LocalDateTime.now()}") : Postable
 
   override fun endpoint(baseUrl: String) = "$baseUrl/actions/".toHttpUrl()
 
-  override fun asRequestBody(): RequestBody {
-    val buffer = Buffer()
-    actionJsonAdapter.toJson(buffer, this)
-    return buffer.readUtf8().toRequestBody(MEDIA_TYPE_JSON)
+  override fun asRequestBody(): RequestBody = BufferedRequestBody {
+    actionJsonAdapter.toJson(it, this)
   }
 
   @Suppress("UNCHECKED_CAST")
@@ -2,6 +2,14 @@ package org.strykeforce.trapper
 
 import edu.wpi.first.wpilibj2.command.Command
 
+/**
+ * A command that traces its executions for upload to Trapper.
+ *
+ * Each execute either adds a row of measure values to [traceBuffer] in [record], or collects the
+ * [trace] in [traces] if [record] returns `false`, which it does unless overridden. The columnar
+ * [traceBuffer] stores values as primitives, so it avoids allocating a `Trace` and a boxed value
+ * per measure each execute.
+ */
 abstract class ActionCommand
 @JvmOverloads
 constructor(var action: Action = Action(), val trapperSubsystem: TrapperSubsystem) : Command() {
@@ -17,10 +25,65 @@ constructor(var action: Action = Action(), val trapperSubsystem: TrapperSubsyste
 
   val traces = mutableListOf<Trace>()
 
-  abstract val trace: Trace
+  private var buffer: TraceBuffer? = null
 
-  override fun execute() = if (trapperSubsystem.enabled) traces += trace else Unit
+  /**
+   * Columnar traces of this command, with a column for each of the [action] measures. Created when
+   * first used, so set the measures of the action before tracing.
+   */
+  val traceBuffer: TraceBuffer
+    get() = buffer ?: TraceBuffer(action.measures.size).also { buffer = it }
 
-  fun postWith(session: OkHttpSession) =
-    if (trapperSubsystem.enabled) session.post(traces) else Unit
+  /**
+   * The trace of the current execute, only read if [record] returns `false`. Commands that trace
+   * with [record] need not override it.
+   *
+   * @throws IllegalStateException if not overridden.
+   */
+  open val trace: Trace
+    get() = error("${javaClass.name} must override trace or record to return true")
+
+  /**
+   * Add a row for the current execute to [traceBuffer] instead of returning a [trace].
+   * Implementations usually fill a reused `DoubleArray` and call [TraceBuffer.add].
+   *
+   * @return `true` if a row was added, `false` to collect [trace] instead.
+   */
+  open fun record(): Boolean = false
+
+  override fun execute() {
+    if (trapperSubsystem.enabled && !record()) traces += trace
+  }
+
+  /**
+   * Post the traces with [session] and wait for them to be uploaded. The traces and trace buffer
+   * are cleared once posted, so they are not uploaded again by the next post.
+   */
+  fun postWith(session: Session) {
+    if (!trapperSubsystem.enabled) return
+    val buffer = buffer
+    if (buffer == null || traces.isNotEmpty()) session.post(traces)
+    traces.clear()
+    if (buffer == null) return
+    buffer.action = action.id
+    buffer.measures = action.measures
+    session.post(buffer)
+    buffer.clear()
+  }
+
+  /**
+   * Queue the traces for upload in the background, see [TrapperSubsystem.post]. The traces are
+   * cleared once queued, and the trace buffer is handed to the uploader and a new one is started if
+   * this command traces again, so neither is uploaded again by the next post.
+   */
+  fun post() {
+    trapperSubsystem.post(traces)
+    traces.clear()
+    buffer?.let {
+      it.action = action.id
+      it.measures = action.measures
+      trapperSubsystem.post(it)
+      buffer = null
+    }
+  }
 }
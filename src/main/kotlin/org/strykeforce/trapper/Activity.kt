@@ -4,8 +4,6 @@ import com.squareup.moshi.JsonClass
 import java.time.LocalDateTime
 import okhttp3.HttpUrl.Companion.toHttpUrl
 import okhttp3.RequestBody
-import okhttp3.RequestBody.Companion.toRequestBody
-import okio.Buffer
 import okio.BufferedSource
 
 private val activityJsonAdapter = ActivityJsonAdapter(moshi)
@@ -18,10 +16,8 @@ data class Activity(val name: String = "Activity ${LocalDateTime.now()}") : Post
 
   override fun endpoint(baseUrl: String) = "$baseUrl/activities/".toHttpUrl()
 
-  override fun asRequestBody(): RequestBody {
-    val buffer = Buffer()
-    activityJsonAdapter.toJson(buffer, this)
-    return buffer.readUtf8().toRequestBody(MEDIA_TYPE_JSON)
+  override fun asRequestBody(): RequestBody = BufferedRequestBody {
+    activityJsonAdapter.toJson(it, this)
   }
 
   @Suppress("UNCHECKED_CAST")
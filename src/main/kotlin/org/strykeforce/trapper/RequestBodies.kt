@@ -0,0 +1,59 @@
+package org.strykeforce.trapper
+
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.Buffer
+import okio.BufferedSink
+import okio.ByteString
+import okio.GzipSink
+import okio.buffer
+
+/**
+ * A request body written straight to the sink OkHttp sends it through, so a payload is never held
+ * in memory as a `String` or buffered copy whatever its size. Its length is not known until it is
+ * written, so it is sent with chunked transfer encoding. The body is written each time it is sent,
+ * so the objects it writes must not change until the post completes.
+ *
+ * @param contentType media type of the body, JSON unless a [TraceEncoding] is used.
+ * @param write writes the body to the sink.
+ */
+internal class StreamingRequestBody(
+  private val contentType: MediaType = MEDIA_TYPE_JSON,
+  private val write: (BufferedSink) -> Unit,
+) : RequestBody() {
+  override fun contentType(): MediaType = contentType
+
+  override fun writeTo(sink: BufferedSink) = write(sink)
+}
+
+/**
+ * A request body written once to a buffer when created, so it is sent with a `Content-Length`.
+ * Used for activities, actions and single traces, which are small.
+ *
+ * @param write writes the JSON body to the buffer.
+ */
+internal class BufferedRequestBody(write: (BufferedSink) -> Unit) : RequestBody() {
+  private val bytes: ByteString = Buffer().also(write).readByteString()
+
+  override fun contentType(): MediaType = MEDIA_TYPE_JSON
+
+  override fun contentLength() = bytes.size.toLong()
+
+  override fun writeTo(sink: BufferedSink) {
+    sink.write(bytes)
+  }
+}
+
+/**
+ * Compresses a request body with gzip as it is written, sent with `Content-Encoding: gzip`. The
+ * compressed length is not known until it is written, so it is sent with chunked transfer encoding.
+ */
+internal class GzipRequestBody(private val body: RequestBody) : RequestBody() {
+  override fun contentType(): MediaType? = body.contentType()
+
+  override fun isOneShot() = body.isOneShot()
+
+  override fun writeTo(sink: BufferedSink) {
+    GzipSink(sink).buffer().use { body.writeTo(it) }
+  }
+}
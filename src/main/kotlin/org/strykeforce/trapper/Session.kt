@@ -14,6 +14,8 @@ interface Session {
   fun <T : Postable> postAsync(postable: T, postableConsumer: Consumer<T>)
 
   fun post(traces: List<Trace>)
+
+  fun post(traces: TraceBuffer)
 }
 
 class DummySession : Session {
@@ -22,30 +24,57 @@ class DummySession : Session {
   override fun <T : Postable> postAsync(postable: T, postableConsumer: Consumer<T>) = Unit
 
   override fun post(traces: List<Trace>) = Unit
+
+  override fun post(traces: TraceBuffer) = Unit
 }
 
 val MEDIA_TYPE_JSON: MediaType = "application/json; charset=utf-8".toMediaType()
 val moshi = Moshi.Builder().build()
 private val logger = KotlinLogging.logger {}
+private const val HTTP_UNSUPPORTED_MEDIA_TYPE = 415
+
+/**
+ * Thrown when the Trapper server responds to a post with an error [code], as opposed to the post
+ * not reaching the server.
+ */
+class TrapperResponseException(val code: Int, message: String) : IOException(message)
 
-class OkHttpSession(var baseUrl: String = "http://localhost:8000") : Session {
+/**
+ * Posts to the Trapper server at [baseUrl]. Activities, actions and single traces are sent with a
+ * `Content-Length`. Lists of traces and trace buffers are written while they are sent, with chunked
+ * transfer encoding, so large uploads are never held in memory. Request bodies are compressed if
+ * [gzip] is set, which the server must accept as `Content-Encoding: gzip`, and are then always
+ * chunked. Traces are sent in [traceEncoding], which falls back to [TraceEncoding.JSON] if the
+ * server does not accept it.
+ *
+ * The server must decode chunked request bodies. A WSGI server that does not, such as the Django
+ * development server, reads them as empty.
+ */
+class OkHttpSession
+@JvmOverloads
+constructor(
+  var baseUrl: String = "http://localhost:8000",
+  val gzip: Boolean = false,
+  traceEncoding: TraceEncoding = TraceEncoding.JSON,
+) : Session {
   val client = OkHttpClient()
 
+  /** Encoding of trace uploads, see [TraceEncoding]. */
+  @Volatile var traceEncoding = traceEncoding
+
   val traceEndpoint: HttpUrl
     get() = "$baseUrl/traces/".toHttpUrl()
 
   override fun <T : Postable> post(postable: T): T {
-    val request =
-      Request.Builder().url(postable.endpoint(baseUrl)).post(postable.asRequestBody()).build()
+    val request = request(postable.endpoint(baseUrl), postable.asRequestBody())
     client.newCall(request).execute().use {
-      if (!it.isSuccessful) throw IOException("http response: $it")
+      if (!it.isSuccessful) throw TrapperResponseException(it.code, "http response: $it")
       return postable.fromJson(it.body!!.source())
     }
   }
 
   override fun <T : Postable> postAsync(postable: T, postableConsumer: Consumer<T>) {
-    val request =
-      Request.Builder().url(postable.endpoint(baseUrl)).post(postable.asRequestBody()).build()
+    val request = request(postable.endpoint(baseUrl), postable.asRequestBody())
     client
       .newCall(request)
       .enqueue(
@@ -61,10 +90,30 @@ class OkHttpSession(var baseUrl: String = "http://localhost:8000") : Session {
       )
   }
 
-  override fun post(traces: List<Trace>) {
-    val request = Request.Builder().url(traceEndpoint).post(requestBodyFromList(traces)).build()
-    client.newCall(request).execute().use {
-      if (!it.isSuccessful) throw IOException("http response: $it")
+  override fun post(traces: List<Trace>) = postTraces { it.requestBody(traces) }
+
+  override fun post(traces: TraceBuffer) = postTraces { it.requestBody(traces) }
+
+  /** Post traces in the [traceEncoding], falling back to JSON if the server rejects it. */
+  private fun postTraces(body: (TraceEncoding) -> RequestBody) {
+    val encoding = traceEncoding
+    client.newCall(request(traceEndpoint, body(encoding))).execute().use {
+      if (it.code != HTTP_UNSUPPORTED_MEDIA_TYPE || encoding == TraceEncoding.JSON) {
+        if (!it.isSuccessful) throw TrapperResponseException(it.code, "http response: $it")
+        return
+      }
     }
+    logger.warn { "server does not accept $encoding traces, sending JSON" }
+    traceEncoding = TraceEncoding.JSON
+    postTraces(body)
+  }
+
+  private fun request(url: HttpUrl, body: RequestBody): Request {
+    if (!gzip) return Request.Builder().url(url).post(body).build()
+    return Request.Builder()
+      .url(url)
+      .header("Content-Encoding", "gzip")
+      .post(GzipRequestBody(body))
+      .build()
   }
 }
@@ -0,0 +1,244 @@
+package org.strykeforce.trapper
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder.LITTLE_ENDIAN
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.nio.file.StandardOpenOption.APPEND
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.READ
+import java.nio.file.StandardOpenOption.WRITE
+import java.util.zip.CRC32
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger {}
+
+private const val SPOOL_FILE = "trapper.spool"
+private const val MAP_FILE = "trapper.spool.map"
+private const val SPOOL_MAGIC = 0x31505354 // "TSP1" little-endian
+private const val SPOOL_HEADER_SIZE = 12
+private const val RECORD_HEADER_SIZE = 13
+
+internal const val SPOOL_ACTIVITY = 1
+internal const val SPOOL_ACTION = 2
+internal const val SPOOL_TRACES = 3
+
+/**
+ * An append-only file of Trapper posts waiting to be replayed, see [SpoolingSession].
+ *
+ * The file starts with the magic number "TSP1" and the offset of the next record to replay. Each
+ * record is its payload length, the CRC-32 of the rest of the record, a type byte, the local id
+ * the post was given and the payload, the JSON request body. Integers are little-endian. A record
+ * with a bad checksum, for example one torn by losing power while it was written, ends the spool
+ * and is truncated when the spool is next opened.
+ *
+ * Server ids assigned to replayed posts are appended to a separate map file of `localId remoteId
+ * url` lines, so later records can be remapped even if replay is interrupted by a restart. Both
+ * files are deleted once every record has been replayed, the ids stay mapped in memory for posts
+ * that still use them.
+ *
+ * @param directory where the spool files are kept.
+ * @param maxBytes maximum size of the spool file, records that would not fit are rejected.
+ */
+internal class Spool(val directory: Path, val maxBytes: Long) {
+  private val path = directory.resolve(SPOOL_FILE)
+  private val mapPath = directory.resolve(MAP_FILE)
+  private var channel: FileChannel? = null
+  private var readOffset = SPOOL_HEADER_SIZE.toLong()
+  private var size = SPOOL_HEADER_SIZE.toLong()
+  private val ids = HashMap<Int, Int>()
+  private val urls = HashMap<String, String>()
+  private var closed = false
+
+  /** Smallest local id of a record in the spool, local ids are negative. */
+  var minLocalId = 0
+    private set
+
+  init {
+    Files.createDirectories(directory)
+    if (Files.exists(path)) open()
+    if (Files.exists(mapPath)) loadMap()
+  }
+
+  /** `true` if there are no records waiting to be replayed. */
+  val isEmpty: Boolean
+    @Synchronized get() = readOffset >= size
+
+  /** Size of the spool file in bytes. */
+  val sizeBytes: Long
+    @Synchronized get() = if (channel == null) 0L else size
+
+  /**
+   * Append a record.
+   *
+   * @return `false` if the record would make the spool larger than [maxBytes].
+   * @throws IOException if the record can't be written.
+   * @throws IllegalStateException if the spool is closed.
+   */
+  @Synchronized
+  fun append(type: Int, localId: Int, payload: ByteArray): Boolean {
+    check(!closed) { "spool $path is closed" }
+    val length = RECORD_HEADER_SIZE + payload.size
+    if (size + length > maxBytes) return false
+    val channel = channel ?: create()
+    val record = ByteBuffer.allocate(length).order(LITTLE_ENDIAN)
+    record.putInt(payload.size).putInt(0).put(type.toByte()).putInt(localId).put(payload)
+    record.putInt(4, checksum(record.array(), 8, length - 8))
+    record.flip()
+    while (record.hasRemaining()) channel.write(record, size + record.position())
+    channel.force(false)
+    size += length
+    if (localId < minLocalId) minLocalId = localId
+    return true
+  }
+
+  /** Returns the next record to replay without removing it, or `null` if there are none. */
+  @Synchronized
+  fun peek(): Record? {
+    if (isEmpty) return null
+    return read(checkNotNull(channel), readOffset)
+  }
+
+  /** Remove the record returned by [peek], deleting the spool once it is empty. */
+  @Synchronized
+  fun remove(record: Record) {
+    check(record.offset == readOffset) { "record at ${record.offset} is not next" }
+    readOffset += record.length
+    val channel = checkNotNull(channel)
+    if (readOffset >= size) {
+      delete()
+      return
+    }
+    val offset = ByteBuffer.allocate(8).order(LITTLE_ENDIAN)
+    offset.putLong(readOffset).flip()
+    channel.write(offset, 4)
+    channel.force(false)
+  }
+
+  /** Record the server id and URL assigned to a spooled post. */
+  @Synchronized
+  fun map(localId: Int, remoteId: Int, localUrl: String?, remoteUrl: String?) {
+    ids[localId] = remoteId
+    if (localUrl != null && remoteUrl != null) urls[localUrl] = remoteUrl
+    val line = "$localId $remoteId ${localUrl ?: "-"} ${remoteUrl ?: "-"}\n"
+    Files.writeString(mapPath, line, CREATE, APPEND)
+  }
+
+  /** Returns the server id of a spooled post, or `id` if it is not a replayed local id. */
+  @Synchronized
+  fun remoteId(id: Int?): Int? = id?.let { ids[it] ?: it }
+
+  /** Returns the server URL of a spooled post, or `url` if it is not a replayed local URL. */
+  @Synchronized
+  fun remoteUrl(url: String?): String? = url?.let { urls[it] ?: it }
+
+  @Synchronized
+  fun close() {
+    closed = true
+    channel?.close()
+    channel = null
+  }
+
+  private fun create(): FileChannel {
+    val channel = FileChannel.open(path, CREATE, READ, WRITE)
+    val header = ByteBuffer.allocate(SPOOL_HEADER_SIZE).order(LITTLE_ENDIAN)
+    header.putInt(SPOOL_MAGIC).putLong(SPOOL_HEADER_SIZE.toLong()).flip()
+    channel.write(header, 0)
+    readOffset = SPOOL_HEADER_SIZE.toLong()
+    size = SPOOL_HEADER_SIZE.toLong()
+    this.channel = channel
+    return channel
+  }
+
+  /** Open an existing spool, truncating any torn record at its end. */
+  private fun open() {
+    val channel = FileChannel.open(path, READ, WRITE)
+    val header = ByteBuffer.allocate(SPOOL_HEADER_SIZE).order(LITTLE_ENDIAN)
+    channel.read(header, 0)
+    if (header.getInt(0) != SPOOL_MAGIC) {
+      logger.error { "$path is not a Trapper spool, ignoring it" }
+      channel.close()
+      Files.move(path, directory.resolve("$SPOOL_FILE.bad"), REPLACE_EXISTING)
+      return
+    }
+    this.channel = channel
+    readOffset = header.getLong(4)
+    size = channel.size()
+    var offset = SPOOL_HEADER_SIZE.toLong()
+    while (offset < size) {
+      val record = read(channel, offset) ?: break
+      if (record.localId < minLocalId) minLocalId = record.localId
+      offset += record.length
+    }
+    if (offset < size) {
+      logger.warn { "truncating ${size - offset} bytes of incomplete records from $path" }
+      channel.truncate(offset)
+      size = offset
+    }
+    if (readOffset >= size) {
+      logger.info { "spool $path was already replayed, deleting it" }
+      delete()
+      return
+    }
+    logger.info { "opened spool $path with ${size - readOffset} bytes to replay" }
+  }
+
+  /** Close and delete the spool files once every record is replayed. */
+  private fun delete() {
+    channel?.close()
+    channel = null
+    Files.deleteIfExists(path)
+    Files.deleteIfExists(mapPath)
+    readOffset = SPOOL_HEADER_SIZE.toLong()
+    size = SPOOL_HEADER_SIZE.toLong()
+  }
+
+  private fun loadMap() {
+    Files.readAllLines(mapPath).forEach { line ->
+      val fields = line.split(' ')
+      if (fields.size != 4) return@forEach
+      ids[fields[0].toInt()] = fields[1].toInt()
+      if (fields[2] != "-" && fields[3] != "-") urls[fields[2]] = fields[3]
+    }
+  }
+
+  /** Read the record at an offset, or `null` if it is incomplete or fails its checksum. */
+  private fun read(channel: FileChannel, offset: Long): Record? {
+    if (offset + RECORD_HEADER_SIZE > size) return null
+    val header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(LITTLE_ENDIAN)
+    channel.read(header, offset)
+    val payloadSize = header.getInt(0)
+    if (payloadSize < 0 || offset + RECORD_HEADER_SIZE + payloadSize > size) return null
+    val bytes = ByteArray(RECORD_HEADER_SIZE + payloadSize)
+    val buffer = ByteBuffer.wrap(bytes)
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) return null
+    }
+    if (checksum(bytes, 8, bytes.size - 8) != header.getInt(4)) return null
+    return Record(
+      offset,
+      bytes.size,
+      header.get(8).toInt(),
+      header.getInt(9),
+      bytes.copyOfRange(RECORD_HEADER_SIZE, bytes.size),
+    )
+  }
+
+  private fun checksum(bytes: ByteArray, offset: Int, length: Int): Int {
+    val crc = CRC32()
+    crc.update(bytes, offset, length)
+    return crc.value.toInt()
+  }
+
+  /** A spooled post. */
+  class Record(
+    val offset: Long,
+    val length: Int,
+    val type: Int,
+    val localId: Int,
+    val payload: ByteArray,
+  )
+}
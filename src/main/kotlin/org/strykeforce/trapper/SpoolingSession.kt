@@ -0,0 +1,258 @@
+package org.strykeforce.trapper
+
+import java.io.IOException
+import java.nio.file.Path
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.Consumer
+import mu.KotlinLogging
+import okhttp3.RequestBody
+import okio.Buffer
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * A [Session] that keeps Trapper posts on disk while the server is unreachable, for example at
+ * events with no pit network, and replays them in order once it can be reached again.
+ *
+ * Every post is appended to a spool file in [directory], see [Spool], and returned with a negative
+ * local `id` and a `spool:` `url` standing in for the ones the server will assign. Actions and
+ * traces may refer to these local ids like any other. A background thread posts each record to the
+ * [delegate] in the order it was spooled, remapping `Action.activity` and `Trace.action` to the ids
+ * the server assigned to earlier records. Only this thread posts to the server, so posts are always
+ * received in order and posting never waits for the network, even when the server has just gone
+ * away and the [delegate] has to time out.
+ *
+ * The spool is replayed as soon as a post is added, unless [deferred] is set or the server was
+ * unreachable, in which case it is retried every [replayMillis]. A record the server rejects with a
+ * client error is logged and dropped, any other failure leaves it to be replayed later. The spool
+ * is limited to [maxBytes], posts that would not fit are dropped and counted in [droppedPosts],
+ * along with any later posts that refer to them.
+ *
+ * @param delegate the session used to reach the server.
+ * @param directory where the spool files are kept, they are replayed when the session is created.
+ * @param maxBytes maximum size of the spool file.
+ * @param replayMillis milliseconds between attempts to replay the spool.
+ */
+class SpoolingSession
+@JvmOverloads
+constructor(
+  private val delegate: Session,
+  val directory: Path,
+  val maxBytes: Long = 64L * 1024 * 1024,
+  val replayMillis: Long = 5000,
+) : Session, AutoCloseable {
+  private val spool = Spool(directory, maxBytes)
+  private val lock = Any()
+  private val orphans = HashSet<Int>()
+  private var nextLocalId = spool.minLocalId - 1
+  private val replayQueued = AtomicBoolean()
+  private val executor: ScheduledExecutorService =
+    Executors.newSingleThreadScheduledExecutor {
+      Thread(it, "TrapperSpool").apply { isDaemon = true }
+    }
+
+  /** `true` to keep posts in the spool for later replay, even if the server is reachable. */
+  @Volatile var deferred = false
+
+  /** `true` while posts are kept in the spool because the server could not be reached. */
+  @Volatile
+  var isOffline = false
+    private set
+
+  /** Total number of posts dropped because the spool was full. */
+  @Volatile
+  var droppedPosts = 0L
+    private set
+
+  /** Size of the spool file in bytes. */
+  val spoolBytes: Long
+    get() = spool.sizeBytes
+
+  init {
+    require(maxBytes > 0) { "maxBytes must be positive: $maxBytes" }
+    require(replayMillis > 0) { "replayMillis must be positive: $replayMillis" }
+    executor.scheduleWithFixedDelay(this::replay, 0, replayMillis, MILLISECONDS)
+  }
+
+  override fun <T : Postable> post(postable: T): T {
+    if (postable is Action) postable.activity = spool.remoteUrl(postable.activity)
+    if (postable is Trace) postable.action = spool.remoteId(postable.action)
+    spool(postable)
+    queueReplay()
+    return postable
+  }
+
+  /** Spool the post and pass it, with its local id, to `postableConsumer`. */
+  override fun <T : Postable> postAsync(postable: T, postableConsumer: Consumer<T>) =
+    postableConsumer.accept(post(postable))
+
+  override fun post(traces: List<Trace>) {
+    traces.forEach { it.action = spool.remoteId(it.action) }
+    val action = traces.firstOrNull()?.action
+    spoolTraces(traces.size, action) { requestBodyFromList(traces) }
+    queueReplay()
+  }
+
+  override fun post(traces: TraceBuffer) {
+    traces.action = spool.remoteId(traces.action)
+    spoolTraces(traces.size, traces.action) { traces.asRequestBody() }
+    queueReplay()
+  }
+
+  /** Try to replay the spool now instead of waiting for the next attempt. */
+  fun replayNow() {
+    executor.execute(this::replay)
+  }
+
+  /**
+   * Stop replaying and close the spool, spooled posts are replayed when it is next opened. The
+   * session can not be posted to once closed.
+   */
+  override fun close() {
+    executor.shutdown()
+    executor.awaitTermination(1, SECONDS)
+    spool.close()
+  }
+
+  /**
+   * Replay the spool on the spool thread, unless the server was unreachable and is left to the next
+   * attempt. At most one replay is queued at a time.
+   */
+  private fun queueReplay() {
+    if (deferred || isOffline || !replayQueued.compareAndSet(false, true)) return
+    try {
+      executor.execute {
+        replayQueued.set(false)
+        replay()
+      }
+    } catch (e: RejectedExecutionException) {
+      replayQueued.set(false)
+      logger.warn { "Trapper spool closed, post will be replayed when it is next opened" }
+    }
+  }
+
+  private fun goOffline(e: IOException) {
+    if (!isOffline) logger.warn { "Trapper server unreachable, spooling posts: ${e.message}" }
+    isOffline = true
+  }
+
+  private fun rejected(e: IOException) = e is TrapperResponseException && e.code in 400..499
+
+  private fun <T : Postable> spool(postable: T): T {
+    when (postable) {
+      is Activity -> {
+        val localId = append(SPOOL_ACTIVITY, null, postable.asRequestBody())
+        postable.id = localId
+        postable.url = localUrl("activities", localId)
+      }
+      is Action -> {
+        val activity = postable.activity?.let { localId(it) }
+        val localId = append(SPOOL_ACTION, activity, postable.asRequestBody())
+        postable.id = localId
+        postable.url = localUrl("actions", localId)
+      }
+      is Trace -> spoolTraces(1, postable.action) { requestBodyFromList(listOf(postable)) }
+      else -> throw IllegalArgumentException("can't spool ${postable::class.simpleName}")
+    }
+    return postable
+  }
+
+  private fun spoolTraces(count: Int, action: Int?, body: () -> RequestBody) {
+    if (count == 0) return
+    append(SPOOL_TRACES, action, body())
+  }
+
+  /**
+   * Append a post to the spool, returning the local id it was given. If the spool is full or the
+   * post refers to a dropped post, it is dropped and its local id is remembered so posts that refer
+   * to it are dropped too.
+   *
+   * @param parent local id of the post this post refers to, if any.
+   */
+  private fun append(type: Int, parent: Int?, body: RequestBody): Int {
+    val payload = Buffer().also { body.writeTo(it) }.readByteArray()
+    synchronized(lock) {
+      val localId = nextLocalId--
+      val appended =
+        parent !in orphans &&
+          try {
+            spool.append(type, localId, payload)
+          } catch (e: IOException) {
+            logger.error(e) { "error writing Trapper spool in $directory" }
+            false
+          }
+      if (!appended) {
+        orphans += localId
+        droppedPosts++
+        logger.warn { "Trapper spool full or post refers to a dropped post, dropped $localId" }
+      }
+      return localId
+    }
+  }
+
+  /** Runs on the spool thread, posts spooled records in order until one fails. */
+  private fun replay() {
+    while (!deferred) {
+      val record = spool.peek()
+      if (record == null) {
+        if (spool.isEmpty) {
+          isOffline = false
+          return
+        }
+        logger.error { "Trapper spool in $directory is corrupt, replay stopped" }
+        return
+      }
+      try {
+        replay(record)
+      } catch (e: IOException) {
+        if (!rejected(e)) {
+          goOffline(e)
+          return
+        }
+        logger.error(e) { "Trapper server rejected spooled post ${record.localId}, dropping it" }
+      } catch (e: Exception) {
+        logger.error(e) { "error replaying spooled post ${record.localId}, dropping it" }
+      }
+      spool.remove(record)
+    }
+  }
+
+  private fun replay(record: Spool.Record) {
+    val source = Buffer().write(record.payload)
+    when (record.type) {
+      SPOOL_ACTIVITY -> {
+        val posted = delegate.post(Activity().fromJson<Activity>(source))
+        val localUrl = localUrl("activities", record.localId)
+        spool.map(record.localId, posted.id!!, localUrl, posted.url)
+      }
+      SPOOL_ACTION -> {
+        val action = Action().fromJson<Action>(source)
+        action.activity = spool.remoteUrl(action.activity)
+        val posted = delegate.post(action)
+        spool.map(record.localId, posted.id!!, localUrl("actions", record.localId), posted.url)
+      }
+      SPOOL_TRACES -> {
+        val traces = tracesFromJson(source)
+        traces.forEach { it.action = spool.remoteId(it.action) }
+        delegate.post(traces)
+      }
+      else -> throw IllegalStateException("unknown spool record type ${record.type}")
+    }
+  }
+
+  /** Returns the local id in a `spool:` URL, or `null` if it is a server URL. */
+  private fun localId(url: String): Int? =
+    if (url.startsWith(LOCAL_URL_SCHEME)) url.trimEnd('/').substringAfterLast('/').toInt()
+    else null
+
+  private fun localUrl(endpoint: String, localId: Int) = "$LOCAL_URL_SCHEME/$endpoint/$localId/"
+
+  private companion object {
+    const val LOCAL_URL_SCHEME = "spool:"
+  }
+}
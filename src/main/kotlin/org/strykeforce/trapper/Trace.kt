@@ -1,11 +1,10 @@
 package org.strykeforce.trapper
 
 import com.squareup.moshi.JsonClass
+import com.squareup.moshi.JsonReader
 import com.squareup.moshi.JsonWriter
 import okhttp3.HttpUrl.Companion.toHttpUrl
 import okhttp3.RequestBody
-import okhttp3.RequestBody.Companion.toRequestBody
-import okio.Buffer
 import okio.BufferedSource
 
 private val traceJsonAdapter = TraceJsonAdapter(moshi)
@@ -18,10 +17,8 @@ data class Trace(val time: Int) : Postable {
 
   override fun endpoint(baseUrl: String) = "$baseUrl/traces/".toHttpUrl()
 
-  override fun asRequestBody(): RequestBody {
-    val buffer = Buffer()
-    traceJsonAdapter.toJson(buffer, this)
-    return buffer.readUtf8().toRequestBody(MEDIA_TYPE_JSON)
+  override fun asRequestBody(): RequestBody = BufferedRequestBody {
+    traceJsonAdapter.toJson(it, this)
   }
 
   @Suppress("UNCHECKED_CAST")
@@ -29,11 +26,20 @@ data class Trace(val time: Int) : Postable {
     traceJsonAdapter.fromJson(source)!! as T
 }
 
-internal fun requestBodyFromList(traces: List<Trace>): RequestBody {
-  val buffer = Buffer()
-  val writer: JsonWriter = JsonWriter.of(buffer)
+internal fun requestBodyFromList(traces: List<Trace>): RequestBody = StreamingRequestBody { sink ->
+  val writer: JsonWriter = JsonWriter.of(sink)
   writer.beginArray()
   traces.forEach { traceJsonAdapter.toJson(writer, it) }
   writer.endArray()
-  return buffer.readUtf8().toRequestBody(MEDIA_TYPE_JSON)
+  writer.flush()
+}
+
+/** Read a JSON array of traces, the format written by [requestBodyFromList]. */
+internal fun tracesFromJson(source: BufferedSource): List<Trace> {
+  val reader = JsonReader.of(source)
+  val traces = ArrayList<Trace>()
+  reader.beginArray()
+  while (reader.hasNext()) traces += traceJsonAdapter.fromJson(reader)!!
+  reader.endArray()
+  return traces
 }
@@ -0,0 +1,134 @@
+package org.strykeforce.trapper
+
+import com.squareup.moshi.JsonWriter
+import okhttp3.RequestBody
+import okio.BufferedSink
+import okio.ByteString.Companion.encodeUtf8
+
+/**
+ * Columnar storage for the traces of an action, an `IntArray` of times and a `DoubleArray` of
+ * values for each measure, so tracing does not allocate a [Trace] and a boxed value per measure
+ * for every sample. Columns grow by doubling when full.
+ *
+ * The buffer is uploaded in the same JSON format as a list of traces, with each row written as a
+ * trace of the [action], without creating [Trace] objects, or in one of the compact formats of
+ * [TraceEncoding].
+ *
+ * @param measureCount number of measures in each row, usually the size of [Action.measures].
+ * @param initialCapacity number of rows allocated up front.
+ */
+class TraceBuffer @JvmOverloads constructor(val measureCount: Int, initialCapacity: Int = 1024) {
+  private var times = IntArray(initialCapacity)
+  private var columns = Array(measureCount) { DoubleArray(initialCapacity) }
+
+  init {
+    require(measureCount >= 0) { "measureCount must not be negative: $measureCount" }
+    require(initialCapacity > 0) { "initialCapacity must be positive: $initialCapacity" }
+  }
+
+  /** Inventory id of the action the rows are traces of. */
+  var action: Int? = null
+
+  /** Names of the measures, sent once per upload by the compact [TraceEncoding] formats. */
+  var measures: List<String> = emptyList()
+
+  /** Number of rows added. */
+  var size = 0
+    private set
+
+  /**
+   * Add a row.
+   *
+   * @param time the trace time.
+   * @param values the value of each measure, only the first [measureCount] are read so callers can
+   *   reuse one array for every row.
+   */
+  fun add(time: Int, values: DoubleArray) {
+    require(values.size >= measureCount) { "expected $measureCount values: ${values.size}" }
+    if (size == times.size) grow()
+    times[size] = time
+    for (i in columns.indices) columns[i][size] = values[i]
+    size++
+  }
+
+  /** Time of a row. */
+  fun time(row: Int): Int {
+    checkRow(row)
+    return times[row]
+  }
+
+  /** Value of a measure in a row. */
+  fun value(row: Int, measure: Int): Double {
+    checkRow(row)
+    return columns[measure][row]
+  }
+
+  /** Remove all rows, keeping the allocated columns. */
+  fun clear() {
+    size = 0
+  }
+
+  /** Write the rows as a JSON array of traces, the format of [Session.post] for trace lists. */
+  fun writeJson(sink: BufferedSink) {
+    val writer = JsonWriter.of(sink)
+    writer.beginArray()
+    for (row in 0 until size) {
+      writer.beginObject().name("time").value(times[row].toLong())
+      action?.let { writer.name("action").value(it.toLong()) }
+      writer.name("data").beginArray()
+      for (column in columns) writer.value(column[row])
+      writer.endArray().endObject()
+    }
+    writer.endArray()
+    writer.flush()
+  }
+
+  /** Write the rows as CSV, see [TraceEncoding.CSV]. */
+  fun writeCsv(sink: BufferedSink) {
+    sink.writeUtf8("time,action")
+    for (i in 0 until measureCount) sink.writeUtf8(",").writeUtf8(csvField(measureName(i)))
+    sink.writeUtf8("\r\n")
+    val action = action?.toString() ?: ""
+    for (row in 0 until size) {
+      sink.writeDecimalLong(times[row].toLong()).writeUtf8(",").writeUtf8(action)
+      for (column in columns) sink.writeUtf8(",").writeUtf8(column[row].toString())
+      sink.writeUtf8("\r\n")
+    }
+  }
+
+  /** Write the rows as a binary block, see [TraceEncoding.BINARY]. */
+  fun writeBinary(sink: BufferedSink) {
+    sink.writeIntLe(size).writeIntLe(measureCount).writeIntLe(action ?: 0)
+    for (i in 0 until measureCount) {
+      val name = measureName(i).encodeUtf8()
+      sink.writeShortLe(name.size).write(name)
+    }
+    for (row in 0 until size) sink.writeIntLe(times[row])
+    for (column in columns) {
+      for (row in 0 until size) sink.writeLongLe(column[row].toRawBits())
+    }
+  }
+
+  /** Returns the name of a measure, `data<index>` if [measures] does not name it. */
+  fun measureName(measure: Int): String = measures.getOrNull(measure) ?: "data$measure"
+
+  /** Returns the rows as a JSON request body written straight from the columns, see [writeJson]. */
+  fun asRequestBody(): RequestBody = StreamingRequestBody(write = this::writeJson)
+
+  private fun grow() {
+    val capacity = times.size * 2
+    times = times.copyOf(capacity)
+    for (i in columns.indices) columns[i] = columns[i].copyOf(capacity)
+  }
+
+  private fun csvField(value: String) =
+    if (value.any { it == ',' || it == '"' || it == '\r' || it == '\n' }) {
+      "\"${value.replace("\"", "\"\"")}\""
+    } else {
+      value
+    }
+
+  private fun checkRow(row: Int) {
+    if (row < 0 || row >= size) throw IndexOutOfBoundsException("row $row")
+  }
+}
@@ -0,0 +1,69 @@
+package org.strykeforce.trapper
+
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+
+/**
+ * Encoding of trace uploads, set with [OkHttpSession.traceEncoding]. The compact encodings send the
+ * rows of one action with the measure names once, instead of repeating the `time`, `action` and
+ * `data` keys of every trace. A server that does not accept an encoding responds with 415
+ * Unsupported Media Type and the session falls back to [JSON].
+ *
+ * [CSV] has a header row of `time`, `action` and the measure names, then a row for each trace with
+ * the action id in every row, empty if the traces have no action. Values are written in their
+ * shortest exact decimal form, `NaN` and `Infinity` as named.
+ *
+ * [BINARY] is a little-endian block, with values in columns of one measure each:
+ * ```
+ * size   field
+ *    4   number of rows r
+ *    4   number of measures m
+ *    4   action id, 0 if the traces have no action
+ *  2+n   each measure name, its length in bytes then UTF-8
+ *   4r   times
+ *  8rm   values as IEEE 754 doubles, all rows of the first measure then the next
+ * ```
+ *
+ * Trace lists are only sent in a compact encoding if every trace is of the same action and has the
+ * same number of values, otherwise they are sent as [JSON].
+ */
+enum class TraceEncoding(val mediaType: MediaType) {
+  /** JSON array of traces, the original format accepted by every Trapper server. */
+  JSON(MEDIA_TYPE_JSON),
+
+  /** Comma-separated rows with a header of measure names. */
+  CSV("text/csv; charset=utf-8".toMediaType()),
+
+  /** Binary block of times and columns of doubles. */
+  BINARY("application/vnd.trapper.traces".toMediaType());
+
+  /** Returns a request body of the rows of a trace buffer in this encoding. */
+  fun requestBody(traces: TraceBuffer): RequestBody =
+    when (this) {
+      JSON -> traces.asRequestBody()
+      CSV -> StreamingRequestBody(mediaType, traces::writeCsv)
+      BINARY -> StreamingRequestBody(mediaType, traces::writeBinary)
+    }
+
+  /** Returns a request body of a list of traces in this encoding, or JSON if they are mixed. */
+  fun requestBody(traces: List<Trace>): RequestBody {
+    if (this == JSON) return requestBodyFromList(traces)
+    val buffer = toTraceBuffer(traces) ?: return requestBodyFromList(traces)
+    return requestBody(buffer)
+  }
+
+  private fun toTraceBuffer(traces: List<Trace>): TraceBuffer? {
+    val first = traces.firstOrNull() ?: return null
+    val measureCount = first.data.size
+    if (traces.any { it.action != first.action || it.data.size != measureCount }) return null
+    val buffer = TraceBuffer(measureCount, traces.size)
+    buffer.action = first.action
+    val values = DoubleArray(measureCount)
+    for (trace in traces) {
+      for (i in 0 until measureCount) values[i] = trace.data[i]
+      buffer.add(trace.time, values)
+    }
+    return buffer
+  }
+}
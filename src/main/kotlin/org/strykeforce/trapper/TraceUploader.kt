@@ -0,0 +1,239 @@
+package org.strykeforce.trapper
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.NANOSECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import mu.KotlinLogging
+import org.strykeforce.telemetry.util.Histogram
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Uploads traces to Trapper on a background thread, so posting the traces of a long [ActionCommand]
+ * never blocks the robot's main loop.
+ *
+ * [offer] adds traces to a bounded queue and returns immediately. A worker thread takes traces
+ * from the queue in batches of up to [batchSize], waiting up to [lingerMillis] for a batch to fill,
+ * and posts each batch with [Session.post]. A failed post is retried up to [maxRetries] times,
+ * doubling the wait from [backoffMillis] each time, and the batch is dropped if it still fails.
+ * Traces offered while the queue is full are dropped. Dropped traces are counted in
+ * [droppedTraces] and [failedTraces].
+ *
+ * A [TraceBuffer] takes one place in the queue and is posted in a request of its own, whatever its
+ * size.
+ *
+ * @param session the session traces are posted with.
+ * @param capacity maximum number of traces and trace buffers waiting to be uploaded.
+ * @param batchSize maximum number of traces posted in one request.
+ * @param lingerMillis milliseconds to wait for more traces before posting a partial batch.
+ * @param maxRetries number of times a failed post is retried.
+ * @param backoffMillis milliseconds to wait before the first retry.
+ */
+class TraceUploader
+@JvmOverloads
+constructor(
+  private val session: Session,
+  val capacity: Int = 10_000,
+  val batchSize: Int = 500,
+  val lingerMillis: Long = 100,
+  val maxRetries: Int = 5,
+  val backoffMillis: Long = 100,
+) : AutoCloseable {
+  // holds Trace and TraceBuffer uploads
+  private val queue: ArrayBlockingQueue<Any>
+  private val worker = Thread(this::upload, "TraceUploader")
+  private val dropped = AtomicLong()
+  private val pending = AtomicInteger()
+  private val batch = ArrayList<Trace>()
+  private var buffer: TraceBuffer? = null
+  private var next: Any? = null
+  @Volatile private var running = true
+
+  init {
+    require(capacity > 0) { "capacity must be positive: $capacity" }
+    require(batchSize > 0) { "batchSize must be positive: $batchSize" }
+    require(lingerMillis >= 0) { "lingerMillis must not be negative: $lingerMillis" }
+    require(maxRetries >= 0) { "maxRetries must not be negative: $maxRetries" }
+    require(backoffMillis > 0) { "backoffMillis must be positive: $backoffMillis" }
+    queue = ArrayBlockingQueue(capacity)
+    worker.isDaemon = true
+    worker.start()
+  }
+
+  /** Number of traces queued or being uploaded. */
+  val queueDepth: Int
+    get() = pending.get()
+
+  /** Total number of traces dropped because the queue was full. */
+  val droppedTraces: Long
+    get() = dropped.get()
+
+  /** Total number of traces uploaded. */
+  @Volatile
+  var uploadedTraces = 0L
+    private set
+
+  /** Total number of traces dropped because their batch could not be posted. */
+  @Volatile
+  var failedTraces = 0L
+    private set
+
+  /** Milliseconds taken by each successful post, including retries. */
+  val uploadLatency = Histogram(10, 1000)
+
+  /**
+   * Queue traces for upload without blocking.
+   *
+   * @param traces the traces to upload.
+   * @return `true` if all traces were queued, `false` if some were dropped because the queue is
+   *   full or the uploader is closed.
+   */
+  fun offer(traces: List<Trace>): Boolean {
+    if (!running) {
+      dropped.addAndGet(traces.size.toLong())
+      return false
+    }
+    for ((i, trace) in traces.withIndex()) {
+      pending.incrementAndGet()
+      if (!queue.offer(trace)) {
+        pending.decrementAndGet()
+        val count = traces.size - i
+        dropped.addAndGet(count.toLong())
+        logger.warn { "trace upload queue full, dropped $count traces" }
+        return false
+      }
+    }
+    return true
+  }
+
+  /**
+   * Queue a trace buffer for upload without blocking. The buffer must not be changed after it is
+   * queued.
+   *
+   * @param traces the trace buffer to upload.
+   * @return `true` if the buffer was queued, `false` if it was dropped because the queue is full or
+   *   the uploader is closed.
+   */
+  fun offer(traces: TraceBuffer): Boolean {
+    pending.addAndGet(traces.size)
+    if (!running || !queue.offer(traces)) {
+      pending.addAndGet(-traces.size)
+      dropped.addAndGet(traces.size.toLong())
+      logger.warn { "trace upload queue full, dropped ${traces.size} traces" }
+      return false
+    }
+    return true
+  }
+
+  /**
+   * Wait for the traces queued so far to be uploaded or dropped.
+   *
+   * @param timeoutMillis maximum milliseconds to wait.
+   * @return `true` if the queue was emptied before the timeout.
+   */
+  fun flush(timeoutMillis: Long): Boolean {
+    val deadline = System.nanoTime() + MILLISECONDS.toNanos(timeoutMillis)
+    while (queueDepth > 0) {
+      if (System.nanoTime() >= deadline) return false
+      Thread.sleep(10)
+    }
+    return true
+  }
+
+  /** Upload the traces already queued, waiting up to one second, and stop the worker thread. */
+  override fun close() {
+    running = false
+    worker.interrupt()
+    worker.join(1000)
+  }
+
+  /** Runs on the worker thread until closed and the queue is empty. */
+  private fun upload() {
+    while (running || next != null || queue.isNotEmpty()) {
+      // interrupted when closing, upload what is left without waiting for batches to fill
+      val filled =
+        try {
+          fillBatch()
+        } catch (e: InterruptedException) {
+          batch.isNotEmpty()
+        }
+      if (!filled) continue
+      val buffer = buffer
+      if (buffer != null) {
+        post(buffer.size) { session.post(buffer) }
+        this.buffer = null
+      } else {
+        post(batch.size) { session.post(batch) }
+        batch.clear()
+      }
+    }
+    logger.info { "trace uploader stopped, $uploadedTraces uploaded" }
+  }
+
+  /**
+   * Take the next upload from the queue, either a [buffer] or a [batch] of traces, returning
+   * `false` if nothing arrived. A batch ends at the first trace buffer, which is kept for the next
+   * upload.
+   */
+  private fun fillBatch(): Boolean {
+    if (batch.isEmpty()) {
+      val first =
+        next ?: (if (running) queue.poll(1, SECONDS) else queue.poll()) ?: return false
+      next = null
+      if (first is TraceBuffer) {
+        buffer = first
+        return true
+      }
+      batch += first as Trace
+    }
+    val deadline = System.nanoTime() + MILLISECONDS.toNanos(lingerMillis)
+    while (batch.size < batchSize) {
+      val remaining = deadline - System.nanoTime()
+      val item =
+        queue.poll() ?: if (remaining > 0 && running) queue.poll(remaining, NANOSECONDS) else null
+      if (item == null) break
+      if (item is TraceBuffer) {
+        next = item
+        break
+      }
+      batch += item as Trace
+    }
+    return true
+  }
+
+  /** Post an upload of `count` traces, retrying if it fails. */
+  private fun post(count: Int, upload: () -> Unit) {
+    val start = System.nanoTime()
+    var wait = backoffMillis
+    for (attempt in 0..maxRetries) {
+      try {
+        upload()
+        uploadLatency.record(NANOSECONDS.toMillis(System.nanoTime() - start))
+        uploadedTraces += count
+        pending.addAndGet(-count)
+        return
+      } catch (e: Exception) {
+        if (attempt == maxRetries) {
+          failedTraces += count
+          pending.addAndGet(-count)
+          logger.error(e) { "dropped $count traces after ${attempt + 1} attempts" }
+          return
+        }
+        logger.warn { "trace upload failed, retrying in $wait ms: ${e.message}" }
+        if (!sleep(wait)) wait = 0 else wait *= 2
+      }
+    }
+  }
+
+  /** Sleep unless interrupted by [close], returning `false` if interrupted. */
+  private fun sleep(millis: Long): Boolean =
+    try {
+      Thread.sleep(millis)
+      true
+    } catch (e: InterruptedException) {
+      false
+    }
+}
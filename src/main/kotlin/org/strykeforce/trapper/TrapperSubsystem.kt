@@ -1,17 +1,38 @@
 package org.strykeforce.trapper
 
 import edu.wpi.first.wpilibj2.command.SubsystemBase
+import java.nio.file.Path
 
+/**
+ * Posts activities, actions and traces to the Trapper server at [baseUrl]. If [spoolDirectory] is
+ * set, posts are kept there until the server has them, so none are lost while it is unreachable,
+ * and are replayed in the background, see [SpoolingSession].
+ *
+ * Call [close] when the robot program ends to upload the traces still queued by [uploader].
+ */
 class TrapperSubsystem
 @JvmOverloads
-constructor(val baseUrl: String, @get:JvmName("isEnabled") var enabled: Boolean = true) :
-  SubsystemBase() {
+constructor(
+  val baseUrl: String,
+  @get:JvmName("isEnabled") var enabled: Boolean = true,
+  val spoolDirectory: Path? = null,
+) : SubsystemBase(), AutoCloseable {
 
-  private val session: Session = if (enabled) OkHttpSession(baseUrl) else DummySession()
+  private val session: Session =
+    when {
+      !enabled -> DummySession()
+      spoolDirectory != null -> SpoolingSession(OkHttpSession(baseUrl), spoolDirectory)
+      else -> OkHttpSession(baseUrl)
+    }
   var activity: Activity = Activity()
   var action: Action = Action()
   var isFinished = !enabled
 
+  private val lazyUploader = lazy { TraceUploader(session) }
+
+  /** Uploads traces posted with [post] in the background, created when first used. */
+  val uploader: TraceUploader by lazyUploader
+
   fun <T : Postable> post(postable: T) =
     if (enabled) {
       isFinished = false
@@ -38,5 +59,24 @@ constructor(val baseUrl: String, @get:JvmName("isEnabled") var enabled: Boolean
       isFinished = true
     }
 
-  fun post(traces: List<Trace>) = if (enabled) session.post(traces) else Unit
+  /**
+   * Queue traces for upload by [uploader] and return without waiting for them to be posted, so it
+   * is safe to call from the robot's main loop.
+   */
+  fun post(traces: List<Trace>) {
+    if (enabled) uploader.offer(traces)
+  }
+
+  /**
+   * Queue a trace buffer for upload by [uploader] and return without waiting for it to be posted.
+   * The buffer must not be changed after it is posted.
+   */
+  fun post(traces: TraceBuffer) {
+    if (enabled) uploader.offer(traces)
+  }
+
+  /** Upload the traces still queued and stop [uploader], if it was used. */
+  override fun close() {
+    if (lazyUploader.isInitialized()) uploader.close()
+  }
 }
@@ -0,0 +1,46 @@
+package org.strykeforce.telemetry;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.strykeforce.telemetry.measurable.Measurable;
+import org.strykeforce.telemetry.measurable.Measure;
+
+/**
+ * A measurable whose {@code COUNT} measure counts how many times it has been read, along with a
+ * {@code CONSTANT} measure that is always 2767.
+ */
+public class CountingMeasurable implements Measurable {
+
+  private final AtomicInteger count = new AtomicInteger();
+
+  /** Number of times {@code COUNT} has been read, which is also the last value it returned. */
+  public int getCount() {
+    return count.get();
+  }
+
+  @Override
+  public int getDeviceId() {
+    return 2767;
+  }
+
+  @NotNull
+  @Override
+  public String getType() {
+    return "counting";
+  }
+
+  @NotNull
+  @Override
+  public String getDescription() {
+    return "Counting Measurable";
+  }
+
+  @NotNull
+  @Override
+  public Set<Measure> getMeasures() {
+    return Set.of(
+        new Measure("COUNT", "Count", count::incrementAndGet),
+        new Measure("CONSTANT", "Constant", () -> 2767.0));
+  }
+}
@@ -0,0 +1,196 @@
+package org.strykeforce.telemetry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Creates scheduled executors that share a virtual clock and only run their periodic tasks when a
+ * test calls {@link #advance}, so sampling can be driven deterministically without sleeping.
+ */
+public class ManualScheduler implements Supplier<ScheduledExecutorService> {
+
+  private final List<Task> tasks = new ArrayList<>();
+  private long nowNanos;
+
+  @Override
+  public synchronized ScheduledExecutorService get() {
+    return new Executor();
+  }
+
+  /** Nanoseconds on the virtual clock, which starts at zero. */
+  public synchronized long nanoTime() {
+    return nowNanos;
+  }
+
+  /** Milliseconds on the virtual clock, which starts at zero. */
+  public synchronized long currentTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(nowNanos);
+  }
+
+  /** Number of periodic tasks still scheduled. */
+  public synchronized int getTaskCount() {
+    return (int) tasks.stream().filter(t -> !t.cancelled).count();
+  }
+
+  /**
+   * Advance the clock, running each task every time it falls due in order of due time. Tasks run on
+   * the calling thread.
+   */
+  public void advance(long duration, TimeUnit unit) {
+    long target;
+    synchronized (this) {
+      target = nowNanos + unit.toNanos(duration);
+    }
+    while (true) {
+      Task next = null;
+      synchronized (this) {
+        // indexed so that advancing does not allocate an iterator
+        for (int i = 0; i < tasks.size(); i++) {
+          var task = tasks.get(i);
+          if (task.cancelled || task.nextNanos > target) continue;
+          if (next == null || task.nextNanos < next.nextNanos) next = task;
+        }
+        if (next == null) {
+          nowNanos = target;
+          return;
+        }
+        nowNanos = next.nextNanos;
+        next.nextNanos += next.periodNanos;
+      }
+      next.command.run();
+    }
+  }
+
+  private class Task implements ScheduledFuture<Object> {
+    final Runnable command;
+    final long periodNanos;
+    long nextNanos;
+    volatile boolean cancelled;
+
+    Task(Runnable command, long nextNanos, long periodNanos) {
+      this.command = command;
+      this.nextNanos = nextNanos;
+      this.periodNanos = periodNanos;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      synchronized (ManualScheduler.this) {
+        return unit.convert(nextNanos - nowNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      cancelled = true;
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return cancelled;
+    }
+
+    @Override
+    public Object get() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object get(long timeout, TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private class Executor extends AbstractExecutorService implements ScheduledExecutorService {
+    private final List<Task> owned = new ArrayList<>();
+    private boolean shutdown;
+
+    private Task schedule(Runnable command, long initialDelay, long period, TimeUnit unit) {
+      synchronized (ManualScheduler.this) {
+        if (shutdown) throw new IllegalStateException("executor is shut down");
+        long periodNanos = Math.max(1, unit.toNanos(period));
+        var task = new Task(command, nowNanos + unit.toNanos(initialDelay), periodNanos);
+        tasks.add(task);
+        owned.add(task);
+        return task;
+      }
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(
+        Runnable command, long initialDelay, long period, TimeUnit unit) {
+      return schedule(command, initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(
+        Runnable command, long initialDelay, long delay, TimeUnit unit) {
+      return schedule(command, initialDelay, delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+
+    @Override
+    public void shutdown() {
+      synchronized (ManualScheduler.this) {
+        shutdown = true;
+        owned.forEach(task -> task.cancel(false));
+        tasks.removeAll(owned);
+      }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      shutdown();
+      return List.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      synchronized (ManualScheduler.this) {
+        return shutdown;
+      }
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return isShutdown();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return isShutdown();
+    }
+  }
+}
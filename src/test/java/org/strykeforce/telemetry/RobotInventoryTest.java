@@ -1,6 +1,7 @@
 package org.strykeforce.telemetry;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -86,6 +87,74 @@ class RobotInventoryTest {
     assertThat(inventory.measurableForId(0)).isSameAs(itemOne);
   }
 
+  @Test
+  void registerAndRemoveKeepIds() {
+    Measurable m0 = new TestMeasurable(0);
+    Measurable m1 = new TestMeasurable(1);
+    Measurable m2 = new TestMeasurable(2);
+    var inventory = new RobotInventory(List.of(m0, m1));
+    assertThat(inventory.getVersion()).isZero();
+
+    assertThat(inventory.register(m2)).isEqualTo(2);
+    assertThat(inventory.register(m2)).isEqualTo(2);
+    assertThat(inventory.getVersion()).isEqualTo(1);
+
+    assertThat(inventory.remove(m1)).isTrue();
+    assertThat(inventory.remove(m1)).isFalse();
+    assertThat(inventory.getVersion()).isEqualTo(2);
+    assertThat(inventory.measurableForId(0)).isSameAs(m0);
+    assertThat(inventory.measurableForId(2)).isSameAs(m2);
+    assertThatThrownBy(() -> inventory.measurableForId(1))
+        .isInstanceOf(IndexOutOfBoundsException.class);
+    assertThat(inventory.getMeasurables()).containsOnlyKeys(0, 2);
+
+    assertThat(inventory.register(m1)).isEqualTo(3);
+  }
+
+  @Test
+  void measurablesByIdIndexIsId() {
+    Measurable m0 = new TestMeasurable(0);
+    Measurable m1 = new TestMeasurable(1);
+    Measurable m2 = new TestMeasurable(2);
+    var inventory = new ListInventory(List.of(m0, m1, m2));
+    inventory.remove(m1);
+    assertThat(inventory.getMeasurablesById()).containsExactly(m0, null, m2);
+    for (int id : inventory.getMeasurables().keySet()) {
+      assertThat(inventory.getMeasurablesById().get(id)).isSameAs(inventory.measurableForId(id));
+    }
+    // subclasses using the deprecated list only see current items
+    assertThat(inventory.items()).containsExactly(m0, m2);
+  }
+
+  @Test
+  void writeInventoryAfterRemove() throws IOException, JSONException {
+    Measurable m0 = new TestMeasurable(0);
+    Measurable m1 = new TestMeasurable(1);
+    var inventory = new RobotInventory(List.of(m0, m1));
+    inventory.remove(m0);
+    var buffer = new Buffer();
+    inventory.writeInventory(buffer);
+
+    // the version counts changes and the remaining item keeps its id
+    String expected =
+        "{\"version\":1,\"items\":[{\"id\":1,\"description\":\"Test Measurable\"}]}";
+    JSONAssert.assertEquals(expected, buffer.readString(Charset.defaultCharset()), false);
+  }
+
+  @Test
+  void measureTableIsBuiltOnce() {
+    Measurable m0 = new TestMeasurable(0);
+    var inventory = new RobotInventory(List.of(m0));
+    var table = inventory.measureTable(0);
+    assertThat(inventory.measureTable(0)).isSameAs(table);
+    assertThat(table.getMeasurable()).isSameAs(m0);
+    assertThat(table.getSize()).isEqualTo(2);
+    assertThat(table.get(table.indexOf("Measure 2")).getName()).isEqualTo("Measure 2");
+    assertThat(table.indexOf("Measure 3")).isEqualTo(-1);
+    assertThatThrownBy(() -> inventory.measureTable(1))
+        .isInstanceOf(IndexOutOfBoundsException.class);
+  }
+
   @Test
   void writeInventory() throws IOException, JSONException {
     when(itemOne.getMeasures())
@@ -107,6 +176,18 @@ class RobotInventoryTest {
     JSONAssert.assertEquals(golden, actual, false);
   }
 
+  static class ListInventory extends AbstractInventory {
+
+    ListInventory(Collection<Measurable> measurables) {
+      super(measurables);
+    }
+
+    @SuppressWarnings("deprecation")
+    List<Measurable> items() {
+      return getMeasurableList();
+    }
+  }
+
   static class TestMeasurable implements Measurable {
 
     private final int id;
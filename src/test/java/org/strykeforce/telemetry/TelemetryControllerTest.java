@@ -1,11 +1,19 @@
 package org.strykeforce.telemetry;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
@@ -13,13 +21,20 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.skyscreamer.jsonassert.JSONAssert;
@@ -27,6 +42,7 @@ import org.strykeforce.telemetry.grapher.ClientHandler;
 import org.strykeforce.telemetry.grapher.ResourceHelper;
 import org.strykeforce.telemetry.measurable.Measurable;
 import org.strykeforce.telemetry.measurable.Measure;
+import org.strykeforce.telemetry.recorder.TelemetryRecorder;
 
 @ExtendWith(MockitoExtension.class)
 public class TelemetryControllerTest {
@@ -70,6 +86,105 @@ public class TelemetryControllerTest {
     }
   }
 
+  @Test
+  @DisplayName("Should get streaming stats")
+  void shouldGetStats() throws Exception {
+    var controller =
+        new TelemetryController(
+            inventory,
+            new ClientHandler(5801, DatagramChannel.open()),
+            new InetSocketAddress(port));
+    controller.start();
+    controller.getStats().getFrameSize().record(40);
+    var uri = new URI("http", null, "127.0.0.1", port, "/v1/grapher/stats", null, null);
+    try {
+      HttpResponse<String> response =
+          HttpClient.newHttpClient()
+              .send(HttpRequest.newBuilder(uri).GET().build(), BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      JSONAssert.assertEquals(
+          "{\"jitter\":{\"count\":0},\"frameSize\":{\"count\":1,\"p50\":40,\"max\":40}}",
+          response.body(),
+          false);
+    } finally {
+      controller.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("Should revalidate inventory with ETag")
+  void shouldRevalidateInventoryWithETag() throws Exception {
+    telemetryController.start();
+    var client = HttpClient.newHttpClient();
+    var uri = new URI("http", null, "127.0.0.1", port, "/v1/grapher/inventory", null, null);
+    try {
+      HttpResponse<String> response =
+          client.send(HttpRequest.newBuilder(uri).GET().build(), BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      var etag = response.headers().firstValue("ETag").orElseThrow();
+
+      var revalidate = HttpRequest.newBuilder(uri).header("If-None-Match", etag).GET().build();
+      assertEquals(304, client.send(revalidate, BodyHandlers.ofString()).statusCode());
+    } finally {
+      telemetryController.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("Should get compressed compact inventory")
+  void shouldGetCompressedCompactInventory() throws Exception {
+    telemetryController.start();
+    var client = HttpClient.newHttpClient();
+    var uri =
+        new URI("http", null, "127.0.0.1", port, "/v1/grapher/inventory", "compact=true", null);
+    var request = HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip").GET().build();
+    try {
+      HttpResponse<byte[]> response = client.send(request, BodyHandlers.ofByteArray());
+      assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElseThrow());
+      String body;
+      try (var in = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+        body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      assertFalse(body.contains("\n"));
+      var expected = ResourceHelper.getString("/telemetry-controller-inventory.json");
+      JSONAssert.assertEquals(expected, body, false);
+    } finally {
+      telemetryController.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("Should honour Accept-Encoding quality values")
+  void shouldHonourAcceptEncodingQuality() throws Exception {
+    telemetryController.start();
+    var client = HttpClient.newHttpClient();
+    var uri = new URI("http", null, "127.0.0.1", port, "/v1/grapher/inventory", null, null);
+    var encodings =
+        Map.of(
+            "gzip", true,
+            "deflate, gzip;q=0.5", true,
+            "*", true,
+            "gzip;q=0", false,
+            "gzip; q=0.0, deflate", false,
+            "*;q=1, gzip;q=0", false,
+            "identity", false,
+            "gzip;q=bogus", false);
+    try {
+      for (var encoding : encodings.entrySet()) {
+        var request =
+            HttpRequest.newBuilder(uri).header("Accept-Encoding", encoding.getKey()).GET().build();
+        HttpResponse<byte[]> response = client.send(request, BodyHandlers.ofByteArray());
+        assertEquals(200, response.statusCode());
+        assertEquals(
+            encoding.getValue(),
+            response.headers().firstValue("Content-Encoding").isPresent(),
+            encoding.getKey());
+      }
+    } finally {
+      telemetryController.shutdown();
+    }
+  }
+
   @Test
   @DisplayName("Should handle subscription request")
   void shouldHandleSubscriptionRequest() throws URISyntaxException {
@@ -94,6 +209,73 @@ public class TelemetryControllerTest {
     }
   }
 
+  @Test
+  @DisplayName("Should reject subscription to unknown measure")
+  void shouldRejectUnknownMeasure() throws Exception {
+    telemetryController.start();
+    var uri = new URI("http", null, "127.0.0.1", port, "/v1/grapher/subscription", null, null);
+    var subReq =
+        "{\"type\":\"start\",\"subscription\":[{\"itemId\":0,\"measurementId\":\"NOPE\"}]}";
+    var request =
+        HttpRequest.newBuilder(uri)
+            .header("Content-Type", "application/json")
+            .POST(BodyPublishers.ofString(subReq))
+            .build();
+    try {
+      HttpResponse<String> response =
+          HttpClient.newHttpClient().send(request, BodyHandlers.ofString());
+      assertEquals(400, response.statusCode());
+      JSONAssert.assertEquals("{\"type\":\"error\"}", response.body(), false);
+      verify(clientHandler, never()).start(any());
+    } finally {
+      telemetryController.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("Should reject unsubscribe with invalid port")
+  void shouldRejectInvalidUnsubscribePort() throws Exception {
+    telemetryController.start();
+    var client = HttpClient.newHttpClient();
+    try {
+      for (String query : new String[] {"port=", "port=abc", "port=70000"}) {
+        HttpResponse<String> response = client.send(unsubscribe(query), BodyHandlers.ofString());
+        assertEquals(400, response.statusCode(), query);
+        JSONAssert.assertEquals("{\"type\":\"error\"}", response.body(), false);
+      }
+      verify(clientHandler, never()).stop(any(), any());
+
+      var response = client.send(unsubscribe("port=5801"), BodyHandlers.discarding());
+      assertEquals(204, response.statusCode());
+      verify(clientHandler).stop(any(), eq(5801));
+    } finally {
+      telemetryController.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("Should serve inventory while another request is stalled")
+  void shouldServeWhileRequestStalled() throws Exception {
+    telemetryController.start();
+    try (var stalled = new Socket("127.0.0.1", port)) {
+      // subscription request body never finishes arriving
+      var out = stalled.getOutputStream();
+      out.write(
+          ("POST /v1/grapher/subscription HTTP/1.1\r\nHost: localhost\r\n"
+                  + "Content-Length: 100\r\n\r\n{")
+              .getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+      Thread.sleep(100);
+
+      var uri = new URI("http", null, "127.0.0.1", port, "/v1/grapher/inventory", null, null);
+      var request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(2)).GET().build();
+      var response = HttpClient.newHttpClient().send(request, BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+    } finally {
+      telemetryController.shutdown();
+    }
+  }
+
   @Test
   @DisplayName("Should throw when started twice")
   void shouldThrowWhenStartedTwice() {
@@ -108,6 +290,38 @@ public class TelemetryControllerTest {
     assertThrows(IllegalStateException.class, telemetryController::start);
   }
 
+  @Test
+  @DisplayName("Should reject recording request with invalid time range")
+  void shouldRejectInvalidRecordingRange(@TempDir Path directory) throws Exception {
+    var controller =
+        new TelemetryController(
+            inventory,
+            clientHandler,
+            new InetSocketAddress(port),
+            new TelemetryRecorder(directory));
+    controller.start();
+    var client = HttpClient.newHttpClient();
+    try {
+      for (var query : new String[] {"start=abc", "start=0&end=1e3", "end="}) {
+        var uri = new URI("http", null, "127.0.0.1", port, "/v1/grapher/recording", query, null);
+        HttpResponse<String> response =
+            client.send(HttpRequest.newBuilder(uri).GET().build(), BodyHandlers.ofString());
+        assertEquals(400, response.statusCode(), query);
+      }
+      var uri = new URI("http", null, "127.0.0.1", port, "/v1/grapher/recording", "start=0", null);
+      HttpResponse<String> response =
+          client.send(HttpRequest.newBuilder(uri).GET().build(), BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+    } finally {
+      controller.shutdown();
+    }
+  }
+
+  private HttpRequest unsubscribe(String query) throws URISyntaxException {
+    var uri = new URI("http", null, "127.0.0.1", port, "/v1/grapher/subscription", query, null);
+    return HttpRequest.newBuilder(uri).DELETE().build();
+  }
+
   private int getFreePort() throws IOException {
     try (ServerSocket socket = new ServerSocket(0)) {
       socket.setReuseAddress(true);
@@ -0,0 +1,71 @@
+package org.strykeforce.telemetry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.DatagramChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.strykeforce.telemetry.grapher.ClientHandler;
+import org.strykeforce.telemetry.grapher.TelemetryStatsMeasurable;
+
+class TelemetryServiceTest {
+
+  private final CountingMeasurable counting = new CountingMeasurable();
+  private DatagramChannel channel;
+  private TelemetryController controller;
+  private RobotInventory inventory;
+  private int port;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    channel = DatagramChannel.open();
+    try (ServerSocket socket = new ServerSocket(0)) {
+      socket.setReuseAddress(true);
+      port = socket.getLocalPort();
+    }
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    channel.close();
+  }
+
+  @Test
+  void registersStreamingMeasurables() {
+    var service = new TelemetryService(this::createController);
+    service.register(counting);
+    service.start();
+    try {
+      assertThat(inventory.getMeasurables().values())
+          .contains(counting, controller.getClientHandlerMeasurable())
+          .hasAtLeastOneElementOfType(TelemetryStatsMeasurable.class)
+          .hasSize(3);
+    } finally {
+      service.stop();
+    }
+  }
+
+  @Test
+  void leavesOutStreamingMeasurablesIfNotGraphed() {
+    var service = new TelemetryService(this::createController, false);
+    service.register(counting);
+    service.start();
+    try {
+      assertThat(inventory.getMeasurables().values()).containsExactly(counting);
+    } finally {
+      service.stop();
+    }
+  }
+
+  private TelemetryController createController(Inventory inventory) {
+    this.inventory = (RobotInventory) inventory;
+    controller =
+        new TelemetryController(
+            inventory, new ClientHandler(port, channel), new InetSocketAddress(port));
+    return controller;
+  }
+}
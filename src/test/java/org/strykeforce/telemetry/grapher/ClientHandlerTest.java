@@ -0,0 +1,307 @@
+package org.strykeforce.telemetry.grapher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.strykeforce.telemetry.CountingMeasurable;
+import org.strykeforce.telemetry.Inventory;
+import org.strykeforce.telemetry.ManualScheduler;
+import org.strykeforce.telemetry.RobotInventory;
+import org.strykeforce.telemetry.measurable.Measure;
+
+class ClientHandlerTest {
+
+  private final CountingMeasurable counting = new CountingMeasurable();
+  private final Inventory inventory = new RobotInventory(Set.of(counting));
+  private final ManualScheduler scheduler = new ManualScheduler();
+  private DatagramSocket clientA, clientB;
+  private DatagramChannel server;
+  private ClientHandler clientHandler;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    clientA = new DatagramSocket(0, localhost);
+    clientB = new DatagramSocket(0, localhost);
+    server = DatagramChannel.open();
+    clientHandler = new ClientHandler(clientA.getLocalPort(), server, scheduler);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    clientHandler.shutdown();
+    clientA.close();
+    clientB.close();
+    server.close();
+  }
+
+  @Test
+  void clientsShareSamplingPass() throws Exception {
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    clientHandler.start(new Subscription(inventory, localhost, request(null)));
+    tick(10);
+    clientHandler.start(new Subscription(inventory, localhost, request(clientB.getLocalPort())));
+    tick(20);
+    assertThat(clientHandler.getClients()).hasSize(2);
+
+    clientHandler.shutdown();
+    assertThat(clientHandler.getClients()).isEmpty();
+    assertThat(scheduler.getTaskCount()).isZero();
+
+    int framesA = drain(clientA);
+    int framesB = drain(clientB);
+    assertThat(framesA).isEqualTo(30);
+    assertThat(framesB).isEqualTo(20);
+    assertThat(counting.getCount()).as("one read per tick").isEqualTo(framesA);
+  }
+
+  @Test
+  void stopOneClient() throws Exception {
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    clientHandler.start(new Subscription(inventory, localhost, request(null)));
+    clientHandler.start(new Subscription(inventory, localhost, request(clientB.getLocalPort())));
+    clientHandler.stop(localhost, clientB.getLocalPort());
+    assertThat(clientHandler.getClients()).hasSize(1);
+    tick(10);
+    clientHandler.shutdown();
+    assertThat(drain(clientA)).isEqualTo(10);
+    assertThat(drain(clientB)).isZero();
+  }
+
+  @Test
+  void framesOnlyCarryDueMeasures() throws Exception {
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    String request =
+        "{\"type\":\"start\",\"format\":\"binary64\",\"subscription\":["
+            + "{\"itemId\":0,\"measurementId\":\"COUNT\",\"rate\":200.0},"
+            + "{\"itemId\":0,\"measurementId\":\"CONSTANT\",\"rate\":20.0}]}";
+    clientHandler.start(new Subscription(inventory, localhost, request));
+    tick(20);
+    clientA.setSoTimeout(1000);
+    byte[] bytes = new byte[2048];
+
+    int frames = 0;
+    while (frames < 20) {
+      var packet = new DatagramPacket(bytes, bytes.length);
+      clientA.receive(packet);
+      var buffer = ByteBuffer.wrap(bytes, 0, packet.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+      // frames are batched into one datagram if the sender falls behind
+      int offset = 0;
+      while (offset < packet.getLength()) {
+        int sequence = buffer.getInt(offset);
+        int count = buffer.getShort(offset + 12);
+        int flags = buffer.get(offset + 15);
+        if (sequence % 10 == 0) {
+          assertThat(count).isEqualTo(2);
+          assertThat(flags).isZero();
+          assertThat(buffer.getDouble(offset + FrameFormat.BINARY_HEADER_SIZE + 8))
+              .isEqualTo(2767.0);
+        } else {
+          assertThat(count).isEqualTo(1);
+          assertThat(flags).isEqualTo(FrameFormat.FLAG_MEASURE_MASK);
+          assertThat(buffer.get(offset + FrameFormat.BINARY_HEADER_SIZE)).isEqualTo((byte) 0b01);
+        }
+        offset += frameSize(buffer, offset);
+        frames++;
+      }
+      assertThat(offset).isEqualTo(packet.getLength());
+    }
+  }
+
+  @Test
+  void droppedFramesMeasurable() {
+    var measurable = new ClientHandlerMeasurable(clientHandler);
+    assertThat(measurable.getMeasures())
+        .extracting(Measure::getName)
+        .containsExactlyInAnyOrder(
+            "DROPPED_FRAMES", "FRAME_LAG", "MAX_FRAME_LAG", "CLIENT_COUNT", "UNSENT_DATAGRAMS");
+    clientHandler.start(
+        new Subscription(inventory, InetAddress.getLoopbackAddress(), request(null)));
+    assertThat(
+            measurable.getMeasures().stream()
+                .filter(m -> m.getName().equals("CLIENT_COUNT"))
+                .findFirst()
+                .orElseThrow()
+                .getMeasurement()
+                .getAsDouble())
+        .isEqualTo(1.0);
+  }
+
+  @Test
+  void recordsStats() throws Exception {
+    clientHandler.start(
+        new Subscription(inventory, InetAddress.getLoopbackAddress(), request(null)));
+    tick(20);
+    clientHandler.shutdown();
+    int frames = drain(clientA);
+
+    var stats = clientHandler.getStats();
+    assertThat(frames).isEqualTo(20);
+    assertThat(stats.getJitter().getCount()).isEqualTo(19);
+    assertThat(stats.getSampleTime().getCount()).isEqualTo(counting.getCount());
+    assertThat(stats.getEncodeTime().getCount()).isEqualTo(frames);
+    assertThat(stats.getSendTime().getCount()).isPositive().isLessThanOrEqualTo(frames);
+    // one measure, unmasked
+    assertThat(stats.getFrameSize().getMax()).isEqualTo(FrameFormat.BINARY_HEADER_SIZE + 8);
+  }
+
+  @Test
+  void bandwidthBudgetSlowsLowestPriorityFirst() {
+    String request =
+        "{\"type\":\"start\",\"format\":\"binary64\",\"subscription\":["
+            + "{\"itemId\":0,\"measurementId\":\"COUNT\",\"priority\":1},"
+            + "{\"itemId\":0,\"measurementId\":\"CONSTANT\"}]}";
+    var subscription = new Subscription(inventory, InetAddress.getLoopbackAddress(), request);
+    clientHandler.setBandwidthBudget(8000);
+    clientHandler.start(subscription);
+    // CONSTANT is slowed to its 1 Hz floor before COUNT is slowed
+    assertThat(subscription.getEffectiveRates()).containsExactly(100.0, 1.0);
+    assertThat(clientHandler.getEstimatedBandwidth()).isLessThanOrEqualTo(8000.0);
+
+    clientHandler.setBandwidthBudget(0);
+    assertThat(subscription.getEffectiveRates()).containsExactly(200.0, 200.0);
+  }
+
+  @Test
+  void aggregatedMeasureIsSampledBetweenFrames() throws Exception {
+    String request =
+        "{\"type\":\"start\",\"format\":\"binary64\",\"rate\":20.0,\"subscription\":["
+            + "{\"itemId\":0,\"measurementId\":\"COUNT\",\"aggregate\":\"max\"}]}";
+    clientHandler.start(new Subscription(inventory, InetAddress.getLoopbackAddress(), request));
+    clientA.setSoTimeout(1000);
+    byte[] bytes = new byte[2048];
+    double previous = 0.0;
+    for (int frames = 0; frames < 3; frames++) {
+      // one frame every 10 ticks
+      tick(10);
+      var packet = new DatagramPacket(bytes, bytes.length);
+      clientA.receive(packet);
+      var buffer = ByteBuffer.wrap(bytes, 0, packet.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+      double max = buffer.getDouble(FrameFormat.BINARY_HEADER_SIZE);
+      // COUNT is read every millisecond between frames, 50 ms apart
+      if (frames > 0) assertThat(max - previous).isEqualTo(50.0);
+      previous = max;
+    }
+  }
+
+  @Test
+  void aggregatedMeasureWindowsAreNotSharedBetweenClients() throws Exception {
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    String slow =
+        "{\"type\":\"start\",\"format\":\"binary64\",\"rate\":20.0,\"subscription\":["
+            + "{\"itemId\":0,\"measurementId\":\"COUNT\",\"aggregate\":\"min\"},"
+            + "{\"itemId\":0,\"measurementId\":\"COUNT\"}]}";
+    String fast =
+        "{\"type\":\"start\",\"format\":\"binary64\",\"port\":"
+            + clientB.getLocalPort()
+            + ",\"subscription\":["
+            + "{\"itemId\":0,\"measurementId\":\"COUNT\",\"aggregate\":\"min\"}]}";
+    clientHandler.start(new Subscription(inventory, localhost, slow));
+    clientHandler.start(new Subscription(inventory, localhost, fast));
+    clientA.setSoTimeout(1000);
+    byte[] bytes = new byte[2048];
+    double previousCount = 0.0;
+    for (int frames = 0; frames < 3; frames++) {
+      // one frame to the 20 Hz client every 10 ticks, while the 200 Hz client reads every tick
+      tick(10);
+      var packet = new DatagramPacket(bytes, bytes.length);
+      clientA.receive(packet);
+      var buffer = ByteBuffer.wrap(bytes, 0, packet.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+      double min = buffer.getDouble(FrameFormat.BINARY_HEADER_SIZE);
+      double count = buffer.getDouble(FrameFormat.BINARY_HEADER_SIZE + 8);
+      // COUNT only increases, so the minimum of the window is its first sample after the previous
+      // frame, rather than its first sample after the 200 Hz client's previous frame
+      if (frames > 0) assertThat(min).isGreaterThan(previousCount).isLessThan(previousCount + 5);
+      previousCount = count;
+    }
+  }
+
+  @Test
+  void steadyStateStreamingDoesNotAllocate() throws Exception {
+    clientHandler.start(
+        new Subscription(inventory, InetAddress.getLoopbackAddress(), request(null)));
+    var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // the manual scheduler samples on this thread, frames are drained and sent on the sender
+    long samplerId = Thread.currentThread().getId();
+    long senderId =
+        Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().equals("ClientHandler-sender"))
+            .findFirst()
+            .orElseThrow()
+            .getId();
+    clientA.setSoTimeout(1000);
+    var packet = new DatagramPacket(new byte[2048], 2048);
+    int ticks = 10_000;
+
+    for (int i = 0; i < ticks; i++) { // warm up
+      tick(1);
+      clientA.receive(packet);
+    }
+
+    long sampled = 0;
+    long senderBefore = threadBean.getThreadAllocatedBytes(senderId);
+    for (int i = 0; i < ticks; i++) {
+      long before = threadBean.getThreadAllocatedBytes(samplerId);
+      tick(1);
+      sampled += threadBean.getThreadAllocatedBytes(samplerId) - before;
+      // each frame is sampled, passed through the ring, drained and sent before the next tick
+      clientA.receive(packet);
+    }
+    long sent = threadBean.getThreadAllocatedBytes(senderId) - senderBefore;
+
+    assertThat(packet.getLength()).isEqualTo(FrameFormat.BINARY_HEADER_SIZE + 8);
+    assertThat(sampled / ticks).as("bytes allocated sampling per tick").isZero();
+    assertThat(sent / ticks).as("bytes allocated sending per tick").isZero();
+  }
+
+  /** Run the next {@code count} sampling passes, the first is due at the current time. */
+  private void tick(int count) {
+    long period = TimeUnit.MILLISECONDS.toNanos(ClientHandlerKt.PERIOD);
+    scheduler.advance(count * period - 1, TimeUnit.NANOSECONDS);
+  }
+
+  private static String request(Integer port) {
+    return "{\"type\":\"start\",\"format\":\"binary64\","
+        + (port != null ? "\"port\":" + port + "," : "")
+        + "\"subscription\":[{\"itemId\":0,\"measurementId\":\"COUNT\"}]}";
+  }
+
+  /** Returns the number of binary frames received, counting each frame of a batched datagram. */
+  private static int drain(DatagramSocket socket) throws IOException {
+    socket.setSoTimeout(20);
+    byte[] bytes = new byte[2048];
+    int count = 0;
+    while (true) {
+      var packet = new DatagramPacket(bytes, bytes.length);
+      try {
+        socket.receive(packet);
+      } catch (SocketTimeoutException e) {
+        return count;
+      }
+      var buffer = ByteBuffer.wrap(bytes, 0, packet.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+      for (int offset = 0; offset < packet.getLength(); offset += frameSize(buffer, offset)) {
+        count++;
+      }
+    }
+  }
+
+  private static int frameSize(ByteBuffer buffer, int offset) {
+    int count = buffer.getShort(offset + 12);
+    boolean masked = (buffer.get(offset + 15) & FrameFormat.FLAG_MEASURE_MASK) != 0;
+    // subscriptions in these tests have at most 8 measures so the mask is a single byte
+    return FrameFormat.BINARY_HEADER_SIZE + (masked ? 1 : 0) + count * 8;
+  }
+}
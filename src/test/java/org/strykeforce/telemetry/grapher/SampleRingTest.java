@@ -0,0 +1,86 @@
+package org.strykeforce.telemetry.grapher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class SampleRingTest {
+
+  @Test
+  void pollReturnsFramesInOrder() {
+    var ring = new SampleRing(4, 2, 1);
+    var frame = new SampleFrame(2, 1);
+    assertThat(ring.poll(frame)).isFalse();
+
+    ring.offer(1L, 10L, new double[] {1.0, 2.0}, new long[] {11L, 12L}, new boolean[] {true});
+    ring.offer(2L, 20L, new double[] {3.0, 4.0}, new long[] {21L, 22L}, new boolean[] {false});
+    assertThat(ring.getLag()).isEqualTo(2);
+
+    assertThat(ring.poll(frame)).isTrue();
+    assertThat(frame.getTimestamp()).isEqualTo(1L);
+    assertThat(frame.getSampleTime()).isEqualTo(10L);
+    assertThat(frame.getValues()).containsExactly(1.0, 2.0);
+    assertThat(frame.getTimes()).containsExactly(11L, 12L);
+    assertThat(frame.getDue()).containsExactly(true);
+    assertThat(ring.poll(frame)).isTrue();
+    assertThat(frame.getTimestamp()).isEqualTo(2L);
+    assertThat(frame.getSampleTime()).isEqualTo(20L);
+    assertThat(frame.getValues()).containsExactly(3.0, 4.0);
+    assertThat(frame.getTimes()).containsExactly(21L, 22L);
+    assertThat(frame.getDue()).containsExactly(false);
+    assertThat(ring.poll(frame)).isFalse();
+    assertThat(ring.getDropped()).isZero();
+  }
+
+  @Test
+  void overrunDropsOldestFrames() {
+    var ring = new SampleRing(4, 1, 0);
+    var frame = new SampleFrame(1, 0);
+    for (int i = 0; i < 10; i++) ring.offer(i, i, new double[] {i}, new long[] {i}, new boolean[0]);
+
+    // the slot after the newest frame is treated as being overwritten, so capacity - 1 survive
+    assertThat(ring.poll(frame)).isTrue();
+    assertThat(frame.getTimestamp()).isEqualTo(7L);
+    assertThat(ring.getDropped()).isEqualTo(7);
+    assertThat(ring.poll(frame)).isTrue();
+    assertThat(ring.poll(frame)).isTrue();
+    assertThat(frame.getTimestamp()).isEqualTo(9L);
+    assertThat(ring.poll(frame)).isFalse();
+  }
+
+  @Test
+  void concurrentConsumerSeesOrderedConsistentFrames() throws Exception {
+    var ring = new SampleRing(8, 4, 0);
+    int frames = 200_000;
+    var producer =
+        new Thread(
+            () -> {
+              var values = new double[4];
+              var times = new long[4];
+              for (int i = 1; i <= frames; i++) {
+                Arrays.fill(values, i);
+                Arrays.fill(times, i);
+                ring.offer(i, i, values, times, new boolean[0]);
+              }
+            });
+    producer.start();
+
+    var frame = new SampleFrame(4, 0);
+    long last = 0;
+    long received = 0;
+    while (last < frames) {
+      if (!ring.poll(frame)) {
+        if (!producer.isAlive() && ring.getLag() == 0) break;
+        continue;
+      }
+      assertThat(frame.getTimestamp()).isGreaterThan(last);
+      assertThat(frame.getValues()).containsOnly((double) frame.getTimestamp());
+      assertThat(frame.getTimes()).containsOnly(frame.getTimestamp());
+      last = frame.getTimestamp();
+      received++;
+    }
+    producer.join();
+    assertThat(received + ring.getDropped()).isEqualTo(frames);
+  }
+}
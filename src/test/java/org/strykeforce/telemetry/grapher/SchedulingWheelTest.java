@@ -0,0 +1,28 @@
+package org.strykeforce.telemetry.grapher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class SchedulingWheelTest {
+
+  @Test
+  void entriesAreDueAtTheirPeriod() {
+    long[] periods = {1, 2, 80, 3};
+    var wheel = new SchedulingWheel(periods);
+    int[] due = new int[wheel.getSize()];
+    int[] counts = new int[periods.length];
+    long start = 1000;
+
+    for (long tick = start; tick < start + 240; tick++) {
+      int count = wheel.advance(tick, due);
+      for (int i = 0; i < count; i++) {
+        int entry = due[i];
+        assertThat((tick - start) % periods[entry]).isZero();
+        counts[entry]++;
+      }
+    }
+
+    assertThat(counts).containsExactly(240, 120, 3, 80);
+  }
+}
@@ -0,0 +1,81 @@
+package org.strykeforce.telemetry.grapher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.strykeforce.telemetry.Inventory;
+import org.strykeforce.telemetry.RobotInventory;
+import org.strykeforce.telemetry.measurable.Measurable;
+import org.strykeforce.telemetry.measurable.Measure;
+
+class SubscriptionRequestTest {
+
+  private final Inventory inventory = new RobotInventory(Set.of(new TestMeasurable()));
+
+  @Test
+  void frameFormatFromWireName() {
+    assertThat(FrameFormat.fromWireName(null)).isEqualTo(FrameFormat.JSON);
+    assertThat(FrameFormat.fromWireName("binary32")).isEqualTo(FrameFormat.BINARY32);
+    assertThrows(IllegalArgumentException.class, () -> FrameFormat.fromWireName("xml"));
+    assertThat(FrameEncoding.fromWireName(null)).isEqualTo(FrameEncoding.FULL);
+    assertThat(FrameEncoding.fromWireName("delta")).isEqualTo(FrameEncoding.DELTA);
+  }
+
+  @Test
+  void resolvesMeasureByName() {
+    var subscription = subscribe(0, "MEASURE_B");
+    var buffer = ByteBuffer.allocate(subscription.getMaxFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+    subscription.writeFrame(buffer);
+    assertThat(buffer.getDouble(FrameFormat.BINARY_HEADER_SIZE)).isEqualTo(2.0);
+  }
+
+  @Test
+  void unknownItemIsRejected() {
+    assertThatThrownBy(() -> subscribe(1, "MEASURE_A"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("unknown inventory item: 1");
+  }
+
+  @Test
+  void unknownMeasureIsRejected() {
+    assertThatThrownBy(() -> subscribe(0, "NOPE"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("NOPE");
+  }
+
+  private Subscription subscribe(int itemId, String measurementId) {
+    String request =
+        String.format(
+            "{\"type\":\"start\",\"format\":\"binary64\",\"subscription\":["
+                + "{\"itemId\":%d,\"measurementId\":\"%s\"}]}",
+            itemId, measurementId);
+    return new Subscription(inventory, InetAddress.getLoopbackAddress(), request);
+  }
+
+  static class TestMeasurable implements Measurable {
+
+    @Override
+    public int getDeviceId() {
+      return 0;
+    }
+
+    @NotNull
+    @Override
+    public String getDescription() {
+      return "Test Measurable";
+    }
+
+    @NotNull
+    @Override
+    public Set<Measure> getMeasures() {
+      return Set.of(new Measure("MEASURE_A", () -> 1.0), new Measure("MEASURE_B", () -> 2.0));
+    }
+  }
+}
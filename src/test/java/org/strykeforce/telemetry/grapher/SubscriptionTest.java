@@ -1,11 +1,17 @@
 package org.strykeforce.telemetry.grapher;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Set;
 import okio.Buffer;
 import org.json.JSONException;
@@ -13,11 +19,13 @@ import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONParser;
 import org.strykeforce.telemetry.Inventory;
+import org.strykeforce.telemetry.RobotInventory;
 import org.strykeforce.telemetry.measurable.Measurable;
 import org.strykeforce.telemetry.measurable.Measure;
 
@@ -25,12 +33,16 @@ import org.strykeforce.telemetry.measurable.Measure;
 class SubscriptionTest {
 
   @Mock Measurable itemZero, itemOne;
-  @Mock Inventory inventory;
+  // inventory default methods look items up with the stubbed measurableForId
+  @Mock(answer = Answers.CALLS_REAL_METHODS)
+  Inventory inventory;
 
   Measure baseId = new Measure("BASE_ID", "BASE_ID", () -> 27.0);
   Measure value = new Measure("VALUE", "VALUE", () -> 67.0);
   Measure jerkExpected = new Measure("JERK_EXPECTED", "JERK_EXPECTED", () -> 2767.0);
-  Set<Measure> measures = Set.of(baseId, value, jerkExpected);
+  double counter = 0.0;
+  Measure counterMeasure = new Measure("COUNTER", "COUNTER", () -> counter);
+  Set<Measure> measures = Set.of(baseId, value, jerkExpected, counterMeasure);
 
   @BeforeEach
   void setUp() {
@@ -62,6 +74,158 @@ class SubscriptionTest {
     JSONAssert.assertEquals("{\"timestamp\":2767,\"data\":[27.0,67.0,2767.0]}", actual, true);
   }
 
+  @Test
+  void measurementToBinary() throws IOException {
+    Subscription subscription =
+        new Subscription(
+            inventory,
+            InetAddress.getByName("localhost"),
+            ResourceHelper.getString("/request-binary.json"));
+    assertThat(subscription.getFormat()).isEqualTo(FrameFormat.BINARY64);
+
+    Buffer buffer = new Buffer();
+    subscription.measurementsToFrame(buffer);
+    subscription.measurementsToFrame(buffer);
+    assertThat(buffer.size()).isEqualTo(2 * (FrameFormat.BINARY_HEADER_SIZE + 3 * 8));
+
+    for (int sequence = 0; sequence < 2; sequence++) {
+      assertThat(buffer.readIntLe()).isEqualTo(sequence);
+      assertThat(buffer.readLongLe()).isPositive();
+      assertThat(buffer.readShortLe()).isEqualTo((short) 3);
+      assertThat(buffer.readByte()).isEqualTo((byte) FrameFormat.BINARY64.getCode());
+      assertThat(buffer.readByte()).isEqualTo((byte) 0);
+      assertThat(buffer.readIntLe()).isZero();
+      assertThat(Double.longBitsToDouble(buffer.readLongLe())).isEqualTo(27.0);
+      assertThat(Double.longBitsToDouble(buffer.readLongLe())).isEqualTo(67.0);
+      assertThat(Double.longBitsToDouble(buffer.readLongLe())).isEqualTo(2767.0);
+    }
+    assertThat(buffer.exhausted()).isTrue();
+  }
+
+  @Test
+  void framesCarryInventoryVersion() throws IOException, JSONException {
+    var robotInventory =
+        new RobotInventory(List.of(inventory.measurableForId(0), inventory.measurableForId(1)));
+    var localhost = InetAddress.getByName("localhost");
+    var json =
+        new Subscription(robotInventory, localhost, ResourceHelper.getString("/request.json"));
+    var binary =
+        new Subscription(
+            robotInventory, localhost, ResourceHelper.getString("/request-binary.json"));
+
+    Buffer buffer = new Buffer();
+    json.measurementsToJson(buffer);
+    assertThat(new JSONObject(buffer.readUtf8()).has("version")).isFalse();
+
+    // registering an item while streaming changes the version carried by every frame
+    robotInventory.register(mock(Measurable.class));
+    json.measurementsToJson(buffer);
+    assertThat(new JSONObject(buffer.readUtf8()).getInt("version")).isEqualTo(1);
+    binary.measurementsToFrame(buffer);
+    assertThat(buffer.size()).isEqualTo(FrameFormat.BINARY_HEADER_SIZE + 3 * 8);
+    buffer.skip(16);
+    assertThat(buffer.readIntLe()).isEqualTo(1);
+    assertThat(Double.longBitsToDouble(buffer.readLongLe())).isEqualTo(27.0);
+  }
+
+  @Test
+  void binaryFrameSteadyStateDoesNotAllocate() throws IOException {
+    // a real inventory, reading the version of a mock inventory each frame would allocate
+    var robotInventory =
+        new RobotInventory(List.of(inventory.measurableForId(0), inventory.measurableForId(1)));
+    Subscription subscription =
+        new Subscription(
+            robotInventory,
+            InetAddress.getByName("localhost"),
+            ResourceHelper.getString("/request-binary.json"));
+    ByteBuffer buffer = ByteBuffer.allocateDirect(subscription.getMaxFrameSize());
+
+    var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    int ticks = 50_000;
+
+    for (int i = 0; i < ticks; i++) { // warm up
+      buffer.clear();
+      subscription.writeFrame(buffer);
+    }
+
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ticks; i++) {
+      buffer.clear();
+      subscription.writeFrame(buffer);
+    }
+    long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+    // unmasked frames leave out the mask byte counted in the maximum frame size
+    assertThat(buffer.position()).isEqualTo(FrameFormat.BINARY_HEADER_SIZE + 3 * 8);
+    assertThat(buffer.order(ByteOrder.LITTLE_ENDIAN).getDouble(buffer.position() - 8))
+        .isEqualTo(2767.0);
+    assertThat(allocated / ticks).as("bytes allocated per tick").isZero();
+  }
+
+  @Test
+  void deltaEncodingSendsOnlyChangedMeasures() throws IOException {
+    Subscription subscription =
+        new Subscription(
+            inventory,
+            InetAddress.getByName("localhost"),
+            ResourceHelper.getString("/request-delta.json"));
+    assertThat(subscription.getEncoding()).isEqualTo(FrameEncoding.DELTA);
+    ByteBuffer buffer =
+        ByteBuffer.allocate(subscription.getMaxFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+
+    // first frame is a full keyframe
+    subscription.writeFrame(buffer);
+    assertThat(buffer.getShort(12)).isEqualTo((short) 3);
+    assertThat(buffer.get(15)).isEqualTo((byte) FrameFormat.FLAG_KEYFRAME);
+    assertThat(buffer.position()).isEqualTo(FrameFormat.BINARY_HEADER_SIZE + 3 * 8);
+
+    // change within deadband is not sent
+    counter = 1.0;
+    buffer.clear();
+    subscription.writeFrame(buffer);
+    assertThat(buffer.getShort(12)).isZero();
+    assertThat(buffer.get(15)).isEqualTo((byte) FrameFormat.FLAG_MEASURE_MASK);
+    assertThat(buffer.get(FrameFormat.BINARY_HEADER_SIZE)).isZero();
+
+    // deadband is measured from the value last sent
+    counter = 2.0;
+    buffer.clear();
+    subscription.writeFrame(buffer);
+    assertThat(buffer.getShort(12)).isEqualTo((short) 1);
+    assertThat(buffer.get(FrameFormat.BINARY_HEADER_SIZE)).isEqualTo((byte) 0b010);
+    assertThat(buffer.getDouble(FrameFormat.BINARY_HEADER_SIZE + 1)).isEqualTo(2.0);
+    assertThat(buffer.position()).isEqualTo(FrameFormat.BINARY_HEADER_SIZE + 1 + 8);
+  }
+
+  @Test
+  void sampleTimesFollowValues() throws IOException {
+    String request =
+        "{\"type\":\"start\",\"format\":\"binary32\",\"sampleTimes\":true,\"subscription\":["
+            + "{\"itemId\":0,\"measurementId\":\"BASE_ID\"},"
+            + "{\"itemId\":1,\"measurementId\":\"VALUE\"}]}";
+    Subscription subscription =
+        new Subscription(inventory, InetAddress.getByName("localhost"), request);
+    assertThat(subscription.getSampleTimes()).isTrue();
+    ByteBuffer buffer =
+        ByteBuffer.allocate(subscription.getMaxFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+
+    long before = System.nanoTime() / 1000;
+    subscription.writeFrame(buffer);
+    long after = System.nanoTime() / 1000;
+
+    assertThat(buffer.position()).isEqualTo(FrameFormat.BINARY_HEADER_SIZE + 8 + 2 * 4 + 2 * 4);
+    assertThat(buffer.get(15)).isEqualTo((byte) FrameFormat.FLAG_SAMPLE_TIMES);
+    int offset = FrameFormat.BINARY_HEADER_SIZE;
+    long sampleTime = buffer.getLong(offset);
+    assertThat(sampleTime).isBetween(before, after);
+    assertThat(buffer.getFloat(offset + 8)).isEqualTo(27.0f);
+    assertThat(buffer.getFloat(offset + 12)).isEqualTo(67.0f);
+    // values read by suppliers are captured when read, after the sample time
+    assertThat(buffer.getInt(offset + 16)).isBetween(0, (int) (after - sampleTime));
+    assertThat(buffer.getInt(offset + 20)).isBetween(0, (int) (after - sampleTime));
+  }
+
   @Test
   void toJson() throws IOException, JSONException {
     Subscription subscription =
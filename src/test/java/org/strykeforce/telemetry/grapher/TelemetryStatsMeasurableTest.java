@@ -0,0 +1,44 @@
+package org.strykeforce.telemetry.grapher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.strykeforce.telemetry.measurable.Measure;
+
+class TelemetryStatsMeasurableTest {
+
+  private final TelemetryStats stats = new TelemetryStats();
+  private long nanoTime;
+  private final TelemetryStatsMeasurable measurable =
+      new TelemetryStatsMeasurable(stats, "Telemetry Statistics", 0, 1000, () -> nanoTime);
+
+  @Test
+  void reportsLatestInterval() {
+    // a long run of steady ticks
+    for (int i = 0; i < 100_000; i++) stats.getJitter().record(5);
+    assertThat(value("JITTER_P99")).isEqualTo(5.0);
+
+    // a stall in the next interval is not hidden by the earlier ticks
+    for (int i = 0; i < 10; i++) stats.getJitter().record(2000);
+    assertThat(value("JITTER_P99")).as("not updated within interval").isEqualTo(5.0);
+    nanoTime += TimeUnit.SECONDS.toNanos(1);
+    assertThat(value("JITTER_P99")).isEqualTo(2000.0);
+    assertThat(value("JITTER_MAX")).isEqualTo(2000.0);
+
+    nanoTime += TimeUnit.SECONDS.toNanos(1);
+    assertThat(value("JITTER_P99")).as("nothing recorded in interval").isZero();
+    // lifetime statistics are still available
+    assertThat(stats.getJitter().getCount()).isEqualTo(100_010);
+    assertThat(stats.getJitter().getMax()).isEqualTo(2000);
+  }
+
+  private double value(String name) {
+    return measurable.getMeasures().stream()
+        .filter(m -> m.getName().equals(name))
+        .findFirst()
+        .map(Measure::getMeasurement)
+        .orElseThrow()
+        .getAsDouble();
+  }
+}
@@ -0,0 +1,43 @@
+package org.strykeforce.telemetry.measurable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusSignal;
+import java.util.function.DoubleSupplier;
+import org.junit.jupiter.api.Test;
+
+class StatusSignalMeasurementTest {
+
+  @Test
+  void plainReadRefreshesSignal() {
+    var signal = mock(StatusSignal.class);
+    when(signal.getValueAsDouble()).thenReturn(2.0);
+    try (var statics = mockStatic(BaseStatusSignal.class)) {
+      var measurement = new StatusSignalMeasurement(signal, "rio", 1.5);
+
+      assertThat(measurement.getAsDouble()).isEqualTo(3.0);
+      statics.verify(() -> BaseStatusSignal.refreshAll(signal), times(1));
+    }
+  }
+
+  @Test
+  void readAfterBatchRefreshUsesCachedValue() {
+    var signal = mock(StatusSignal.class);
+    when(signal.getValueAsDouble()).thenReturn(2.0);
+    try (var statics = mockStatic(BaseStatusSignal.class)) {
+      var measurement = new StatusSignalMeasurement(signal, "rio");
+      var refresher = new StatusSignalRefresher(new DoubleSupplier[] {measurement});
+      refresher.requestAll();
+      refresher.refresh();
+
+      assertThat(measurement.getAsDouble()).isEqualTo(2.0);
+      // only the batch refresh
+      statics.verify(() -> BaseStatusSignal.refreshAll(signal), times(1));
+    }
+  }
+}
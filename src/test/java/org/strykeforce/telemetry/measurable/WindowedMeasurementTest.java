@@ -0,0 +1,42 @@
+package org.strykeforce.telemetry.measurable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class WindowedMeasurementTest {
+
+  @Test
+  void reportsWindowStatistics() {
+    double[] samples = {3.0, -4.0, Double.NaN, 1.0, 4.0};
+    assertThat(window(Aggregate.MIN, samples)).isEqualTo(-4.0);
+    assertThat(window(Aggregate.MAX, samples)).isEqualTo(4.0);
+    assertThat(window(Aggregate.MEAN, samples)).isEqualTo(1.0);
+    assertThat(window(Aggregate.RMS, samples)).isEqualTo(Math.sqrt(42.0 / 4));
+  }
+
+  @Test
+  void readStartsNewWindow() {
+    var measurement = new WindowedMeasurement(() -> 27.0, Aggregate.MAX);
+    measurement.sample(67.0);
+    assertThat(measurement.getAsDouble()).isEqualTo(67.0);
+    measurement.sample(-1.0);
+    assertThat(measurement.getAsDouble()).isEqualTo(-1.0);
+    // empty window reads the source
+    assertThat(measurement.getAsDouble()).isEqualTo(27.0);
+  }
+
+  @Test
+  void aggregateFromWireName() {
+    assertThat(Aggregate.fromWireName("rms")).isEqualTo(Aggregate.RMS);
+    assertThat(Aggregate.fromWireName("MAX")).isEqualTo(Aggregate.MAX);
+    assertThrows(IllegalArgumentException.class, () -> Aggregate.fromWireName("median"));
+  }
+
+  private static double window(Aggregate aggregate, double[] samples) {
+    var measurement = new WindowedMeasurement(() -> 0.0, aggregate);
+    for (double sample : samples) measurement.sample(sample);
+    return measurement.getAsDouble();
+  }
+}
@@ -0,0 +1,114 @@
+package org.strykeforce.telemetry.nt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.PubSubOption;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.strykeforce.telemetry.CountingMeasurable;
+import org.strykeforce.telemetry.ManualScheduler;
+import org.strykeforce.telemetry.RobotInventory;
+import org.strykeforce.telemetry.measurable.Measure;
+
+class NTSinkTest {
+
+  private static final long PERIOD = 5;
+
+  private final CountingMeasurable counting = new CountingMeasurable();
+  private final ManualScheduler scheduler = new ManualScheduler();
+  private NetworkTableInstance nti;
+
+  @BeforeEach
+  void setUp() {
+    nti = NetworkTableInstance.create();
+    nti.startLocal();
+  }
+
+  @AfterEach
+  void tearDown() {
+    nti.stopLocal();
+    nti.close();
+  }
+
+  @Test
+  void publishesMeasuresByTypeAndDevice() {
+    var countSub =
+        nti.getDoubleTopic("/ThirdCoast/counting/2767/COUNT")
+            .subscribe(-1.0, PubSubOption.keepDuplicates(true), PubSubOption.pollStorage(100));
+    var constantSub =
+        nti.getDoubleTopic("/ThirdCoast/counting/2767/CONSTANT")
+            .subscribe(-1.0, PubSubOption.keepDuplicates(true), PubSubOption.pollStorage(100));
+    var sink = new NTSink(nti, PERIOD, true, "ThirdCoast", scheduler);
+    var inventory = new RobotInventory(Set.of(counting));
+    sink.start(inventory);
+    assertThat(sink.getTopicNames())
+        .containsExactlyInAnyOrder(
+            "/ThirdCoast/counting/2767/COUNT", "/ThirdCoast/counting/2767/CONSTANT");
+    tick(20);
+    sink.stop();
+    assertThat(sink.isPublishing()).isFalse();
+    assertThat(scheduler.getTaskCount()).isZero();
+
+    var counts = countSub.readQueueValues();
+    assertThat(counts).hasSize(20);
+    assertThat(counts[counts.length - 1]).isEqualTo(counting.getCount()).isEqualTo(20.0);
+    // unchanged values are only published once
+    assertThat(constantSub.readQueueValues()).containsExactly(2767.0);
+  }
+
+  @Test
+  void publishesRegisteredItems() {
+    var sink = new NTSink(nti, PERIOD, false, "Robot", scheduler);
+    var inventory = new RobotInventory(Set.of());
+    sink.start(inventory);
+    tick(1);
+    assertThat(sink.getTopicNames()).isEmpty();
+    inventory.register(counting);
+    tick(1);
+    assertThat(sink.getTopicNames()).contains("/Robot/counting/2767/CONSTANT");
+    assertThat(nti.getDoubleTopic("/Robot/counting/2767/CONSTANT").subscribe(-1.0).get())
+        .isEqualTo(2767.0);
+    sink.stop();
+  }
+
+  @Test
+  void stopsPublishingWhenMeasureThrows() {
+    var failing =
+        new CountingMeasurable() {
+          @NotNull
+          @Override
+          public Set<Measure> getMeasures() {
+            return Set.of(
+                new Measure(
+                    "FAIL",
+                    "Fail",
+                    () -> {
+                      throw new IllegalStateException("broken measure");
+                    }));
+          }
+        };
+    var sink = new NTSink(nti, PERIOD, true, "ThirdCoast", scheduler);
+    sink.start(new RobotInventory(Set.of(failing)));
+    assertThat(sink.isPublishing()).isTrue();
+    tick(1);
+    assertThat(sink.isPublishing()).isFalse();
+    assertThat(scheduler.getTaskCount()).isZero();
+    assertThat(sink.getTopicNames()).isEmpty();
+
+    // the publishers are closed and the sink can be started again
+    sink.start(new RobotInventory(Set.of(counting)));
+    tick(5);
+    sink.stop();
+    assertThat(counting.getCount()).isEqualTo(5);
+  }
+
+  /** Run the next {@code count} publishing passes, the first is due at the current time. */
+  private void tick(int count) {
+    scheduler.advance(TimeUnit.MILLISECONDS.toNanos(PERIOD) * count - 1, TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,305 @@
+package org.strykeforce.telemetry.recorder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.strykeforce.telemetry.recorder.TelemetryRecorderKt.segmentPaths;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.strykeforce.telemetry.CountingMeasurable;
+import org.strykeforce.telemetry.ManualScheduler;
+import org.strykeforce.telemetry.RobotInventory;
+import org.strykeforce.telemetry.measurable.Measure;
+
+class TelemetryRecorderTest {
+
+  private static final long PERIOD = 2;
+  private static final long EPOCH = 1_700_000_000_000L;
+
+  private final CountingMeasurable counting = new CountingMeasurable();
+  private final ManualScheduler scheduler = new ManualScheduler();
+  // added to the wall clock, to set it back
+  private long clockOffset;
+
+  @TempDir Path directory;
+
+  @Test
+  void recordsAndRollsSegments() throws Exception {
+    // room for header and 15 records of 2 columns per segment
+    var recorder = recorder(512, 3);
+    recorder.start(new RobotInventory(Set.of(counting)));
+    tick(125);
+    recorder.stop();
+    assertThat(recorder.isRecording()).isFalse();
+    assertThat(scheduler.getTaskCount()).isZero();
+
+    var segments = new RecordingReader(directory).segments();
+    assertThat(segments).hasSize(3);
+    var segment = segments.get(0);
+    assertThat(segment.getColumns())
+        .extracting(RecordedColumn::getName)
+        .containsExactlyInAnyOrder("Counting Measurable: Count", "Counting Measurable: Constant");
+    assertThat(segment.getRecordCount()).isPositive();
+
+    int countColumn = columnIndex(segment, "COUNT");
+    int constantColumn = columnIndex(segment, "CONSTANT");
+    // the oldest segments were deleted, so the first record kept is not the first recorded
+    double previous = segment.value(0, countColumn) - 1.0;
+    assertThat(previous).isPositive();
+    for (var s : segments) {
+      for (int record = 0; record < s.getRecordCount(); record++) {
+        assertThat(s.value(record, countColumn)).isEqualTo(previous + 1.0);
+        assertThat(s.value(record, constantColumn)).isEqualTo(2767.0);
+        previous = s.value(record, countColumn);
+      }
+    }
+    assertThat(previous).isEqualTo(125.0).isEqualTo(counting.getCount());
+  }
+
+  @Test
+  void readTimeRange() throws Exception {
+    var recorder = recorder(4096, 4);
+    recorder.start(new RobotInventory(Set.of(counting)));
+    tick(50);
+    recorder.stop();
+
+    var reader = new RecordingReader(directory);
+    var segment = reader.segments().get(0);
+    assertThat(segment.getRecordCount()).isEqualTo(50);
+    long start = segment.timestamp(2);
+    long end = segment.timestamp(segment.getRecordCount() - 3);
+    assertThat(start).isEqualTo(EPOCH + 2 * PERIOD);
+    assertThat(end).isEqualTo(EPOCH + 47 * PERIOD);
+
+    List<Long> timestamps = new ArrayList<>();
+    reader.forEachRecord(start, end, (s, record) -> timestamps.add(s.timestamp(record)));
+    assertThat(timestamps).hasSize(46).isSorted();
+    assertThat(timestamps.get(0)).isEqualTo(start);
+    assertThat(timestamps.get(timestamps.size() - 1)).isEqualTo(end);
+
+    var csv = new StringWriter();
+    reader.writeCsv(start, end, csv);
+    var lines = csv.toString().split("\n");
+    assertThat(lines[0]).startsWith("timestamp,").contains("\"Counting Measurable: Count\"");
+    assertThat(lines).hasSize(timestamps.size() + 1);
+    assertThat(lines[1]).startsWith(start + ",");
+  }
+
+  @Test
+  void keepsSegmentsInOrderWhenClockGoesBackwards() throws Exception {
+    // room for header and 15 records of 2 columns per segment
+    var recorder = recorder(512, 2);
+    recorder.start(new RobotInventory(Set.of(counting)));
+    tick(20);
+    clockOffset = -TimeUnit.HOURS.toMillis(1);
+    tick(20);
+    recorder.stop();
+
+    var segments = new RecordingReader(directory).segments();
+    // the oldest segment was deleted, not the one started after the clock went back
+    assertThat(segments)
+        .extracting(s -> s.getPath().getFileName().toString())
+        .containsExactly("telemetry-2.tcr", "telemetry-3.tcr");
+    var before = segments.get(0);
+    var after = segments.get(1);
+    assertThat(after.getStartTime()).isLessThan(before.getStartTime());
+    assertThat(after.getStartNanoTime()).isGreaterThan(before.getStartNanoTime());
+
+    int countColumn = columnIndex(before, "COUNT");
+    List<Long> nanoTimes = new ArrayList<>();
+    double previous = before.value(0, countColumn) - 1.0;
+    for (var s : segments) {
+      for (int record = 0; record < s.getRecordCount(); record++) {
+        nanoTimes.add(s.nanoTime(record));
+        assertThat(s.value(record, countColumn)).isEqualTo(previous + 1.0);
+        previous = s.value(record, countColumn);
+      }
+    }
+    assertThat(nanoTimes).isSorted().doesNotHaveDuplicates();
+    assertThat(previous).isEqualTo(40.0);
+
+    // a segment's records are found by time even though the clock changed while it was recorded
+    int record = 5;
+    long time = before.timestamp(record);
+    assertThat(before.firstRecordAtOrAfter(time)).isEqualTo(record);
+    assertThat(after.timestamp(0)).isEqualTo(after.getStartTime());
+  }
+
+  @Test
+  void rejectsInventoryWhoseHeaderDoesNotFit() {
+    var verbose =
+        new CountingMeasurable() {
+          @NotNull
+          @Override
+          public String getDescription() {
+            return "Verbose Measurable ".repeat(20);
+          }
+        };
+    var recorder = recorder(512, 3);
+    assertThatThrownBy(() -> recorder.start(new RobotInventory(Set.of(verbose))))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("column descriptions");
+    assertThat(recorder.isRecording()).isFalse();
+  }
+
+  @Test
+  void stopsRecordingWhenMeasureThrows() throws Exception {
+    var failing =
+        new CountingMeasurable() {
+          @NotNull
+          @Override
+          public Set<Measure> getMeasures() {
+            return Set.of(
+                new Measure(
+                    "FAIL",
+                    "Fail",
+                    () -> {
+                      throw new IllegalStateException("broken measure");
+                    }));
+          }
+        };
+    var recorder = recorder(4096, 3);
+    recorder.start(new RobotInventory(Set.of(failing)));
+    assertThat(recorder.isRecording()).isTrue();
+    tick(1);
+    assertThat(recorder.isRecording()).isFalse();
+    assertThat(scheduler.getTaskCount()).isZero();
+
+    // the segment is closed and the recorder can be started again
+    recorder.start(new RobotInventory(Set.of(counting)));
+    tick(5);
+    recorder.stop();
+    assertThat(counting.getCount()).isEqualTo(5);
+  }
+
+  @Test
+  void stopDoesNotBlockRecordingErrors() throws Exception {
+    var entered = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var failing =
+        new CountingMeasurable() {
+          @NotNull
+          @Override
+          public Set<Measure> getMeasures() {
+            return Set.of(
+                new Measure(
+                    "FAIL",
+                    "Fail",
+                    () -> {
+                      entered.countDown();
+                      try {
+                        release.await();
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                      throw new IllegalStateException("broken measure");
+                    }));
+          }
+        };
+    var recorder =
+        new TelemetryRecorder(
+            directory,
+            PERIOD,
+            4096,
+            3,
+            Executors::newSingleThreadScheduledExecutor,
+            System::currentTimeMillis,
+            System::nanoTime);
+    recorder.start(new RobotInventory(Set.of(failing)));
+    assertThat(entered.await(1, TimeUnit.SECONDS)).isTrue();
+
+    var stopper = new Thread(recorder::stop);
+    stopper.start();
+    while (stopper.getState() != Thread.State.TIMED_WAITING) Thread.onSpinWait();
+    // the recording task fails while stop waits for it, and must not wait for stop to halt
+    release.countDown();
+    stopper.join(500);
+    assertThat(stopper.isAlive()).isFalse();
+    assertThat(recorder.isRecording()).isFalse();
+  }
+
+  @Test
+  void recordStillWritingWhenStopTimesOutClosesSegment() throws Exception {
+    var entered = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var slow =
+        new CountingMeasurable() {
+          @NotNull
+          @Override
+          public Set<Measure> getMeasures() {
+            return Set.of(
+                new Measure(
+                    "SLOW",
+                    "Slow",
+                    () -> {
+                      entered.countDown();
+                      try {
+                        release.await();
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                      return 2767.0;
+                    }));
+          }
+        };
+    int segmentSize = 4096;
+    var recorder =
+        new TelemetryRecorder(
+            directory,
+            PERIOD,
+            segmentSize,
+            3,
+            Executors::newSingleThreadScheduledExecutor,
+            System::currentTimeMillis,
+            System::nanoTime);
+    recorder.start(new RobotInventory(Set.of(slow)));
+    assertThat(entered.await(1, TimeUnit.SECONDS)).isTrue();
+
+    // stop gives up waiting while the record is being written, so must leave the segment open
+    recorder.stop();
+    var path = segmentPaths(directory).get(0);
+    assertThat(Files.size(path)).isEqualTo(segmentSize);
+
+    // the recording task closes and trims the segment once the record is written
+    release.countDown();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (Files.size(path) == segmentSize && System.nanoTime() < deadline) Thread.sleep(10);
+    var segment = new RecordingReader(directory).segments().get(0);
+    assertThat(segment.getRecordCount()).isEqualTo(1);
+    assertThat(segment.value(0, 0)).isEqualTo(2767.0);
+  }
+
+  private TelemetryRecorder recorder(int segmentSize, int maxSegments) {
+    return new TelemetryRecorder(
+        directory,
+        PERIOD,
+        segmentSize,
+        maxSegments,
+        scheduler,
+        () -> EPOCH + clockOffset + scheduler.currentTimeMillis(),
+        scheduler::nanoTime);
+  }
+
+  /** Record the next {@code count} records, the first is due at the current time. */
+  private void tick(int count) {
+    scheduler.advance(TimeUnit.MILLISECONDS.toNanos(PERIOD) * count - 1, TimeUnit.NANOSECONDS);
+  }
+
+  private static int columnIndex(RecordingSegment segment, String measure) {
+    var columns = segment.getColumns();
+    for (int i = 0; i < columns.size(); i++) {
+      if (columns.get(i).getMeasure().equals(measure)) return i;
+    }
+    throw new AssertionError(measure);
+  }
+}
@@ -0,0 +1,62 @@
+package org.strykeforce.telemetry.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class HistogramTest {
+
+  @Test
+  void emptyHistogram() {
+    var histogram = new Histogram(10, 10);
+    assertThat(histogram.getCount()).isZero();
+    assertThat(histogram.getMax()).isZero();
+    assertThat(histogram.percentile(0.99)).isZero();
+  }
+
+  @Test
+  void percentilesAreBucketUpperBounds() {
+    var histogram = new Histogram(10, 10);
+    for (int i = 0; i < 100; i++) histogram.record(i);
+    assertThat(histogram.getCount()).isEqualTo(100);
+    assertThat(histogram.getMax()).isEqualTo(99);
+    assertThat(histogram.percentile(0.0)).isEqualTo(10);
+    assertThat(histogram.percentile(0.5)).isEqualTo(50);
+    assertThat(histogram.percentile(0.9)).isEqualTo(90);
+    assertThat(histogram.percentile(1.0)).isEqualTo(99);
+  }
+
+  @Test
+  void overflowReportsMax() {
+    var histogram = new Histogram(10, 10);
+    histogram.record(-5);
+    histogram.record(5);
+    histogram.record(1234);
+    assertThat(histogram.getMax()).isEqualTo(1234);
+    assertThat(histogram.percentile(0.5)).isEqualTo(10);
+    assertThat(histogram.percentile(0.99)).isEqualTo(1234);
+  }
+
+  @Test
+  void intervalCountsValuesBetweenSnapshots() {
+    var histogram = new Histogram(10, 10);
+    for (int i = 0; i < 100; i++) histogram.record(1234);
+    var start = histogram.snapshot();
+    histogram.record(5);
+    histogram.record(42);
+    var interval = histogram.snapshot().since(start);
+
+    assertThat(interval.getCount()).isEqualTo(2);
+    assertThat(interval.getMax()).isEqualTo(50);
+    assertThat(interval.percentile(0.5)).isEqualTo(10);
+    assertThat(interval.percentile(0.99)).isEqualTo(50);
+    // the lifetime statistics are unchanged by taking snapshots
+    assertThat(histogram.getCount()).isEqualTo(102);
+    assertThat(histogram.percentile(0.5)).isEqualTo(1234);
+
+    var empty = histogram.snapshot().since(histogram.snapshot());
+    assertThat(empty.getCount()).isZero();
+    assertThat(empty.getMax()).isZero();
+    assertThat(empty.percentile(0.99)).isZero();
+  }
+}
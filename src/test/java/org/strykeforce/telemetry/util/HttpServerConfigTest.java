@@ -0,0 +1,118 @@
+package org.strykeforce.telemetry.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class HttpServerConfigTest {
+
+  private HttpServer server;
+  private ExecutorService executor;
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    server.stop(0);
+    executor.shutdown();
+    assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  void closesStalledClientAtDeadline() throws Exception {
+    start(HttpServerConfig.newExecutor("Test", 1, 1, 200));
+
+    try (var stalled = new Socket(InetAddress.getLoopbackAddress(), port())) {
+      // send part of the request headers then stall
+      var headers = "GET /ok HTTP/1.1\r\nHost: test\r\n";
+      stalled.getOutputStream().write(headers.getBytes(StandardCharsets.US_ASCII));
+      stalled.setSoTimeout(5000);
+      long start = System.nanoTime();
+
+      assertThat(stalled.getInputStream().read()).isEqualTo(-1);
+      assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(5));
+    }
+    // the pool thread is free again
+    assertThat(get("/ok")).isEqualTo(200);
+  }
+
+  @Test
+  void refusesWith503WhenQueueIsFull() throws Exception {
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    start(HttpServerConfig.newExecutor("Test", 1, 1, 5000));
+    HttpServerConfig.createContext(
+        server,
+        "/block",
+        exchange -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          exchange.sendResponseHeaders(200, -1);
+          exchange.close();
+        });
+
+    // one request runs on the only pool thread and another waits in the queue
+    var blocked = CompletableFuture.supplyAsync(() -> get("/block"));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    var queued = CompletableFuture.supplyAsync(() -> get("/ok"));
+    Thread.sleep(200);
+
+    long start = System.nanoTime();
+    assertThat(get("/ok")).isEqualTo(503);
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+
+    release.countDown();
+    assertThat(blocked.get(5, TimeUnit.SECONDS)).isEqualTo(200);
+    assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo(200);
+    assertThat(get("/ok")).isEqualTo(200);
+  }
+
+  private void start(ExecutorService executor) throws IOException {
+    this.executor = executor;
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(executor);
+    HttpServerConfig.createContext(
+        server,
+        "/ok",
+        exchange -> {
+          exchange.sendResponseHeaders(200, -1);
+          exchange.close();
+        });
+    server.start();
+  }
+
+  private int port() {
+    return server.getAddress().getPort();
+  }
+
+  private int get(String path) {
+    try {
+      var url = new URL("http://127.0.0.1:" + port() + path);
+      var connection = (HttpURLConnection) url.openConnection();
+      connection.setConnectTimeout(5000);
+      connection.setReadTimeout(5000);
+      try {
+        return connection.getResponseCode();
+      } finally {
+        connection.disconnect();
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
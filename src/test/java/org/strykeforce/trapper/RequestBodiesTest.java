@@ -0,0 +1,151 @@
+package org.strykeforce.trapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class RequestBodiesTest {
+
+  private static final Moshi MOSHI = new Moshi.Builder().build();
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void activityBodyMatchesStringBody(boolean gzip) throws Exception {
+    var activity = new Activity("Ünïcode activity ✓");
+    Map<String, Object> meta = new LinkedHashMap<>();
+    meta.put("event", "2767 \"quoted\"");
+    meta.put("match", 42.0);
+    activity.setMeta(meta);
+
+    assertSameBody(activity.asRequestBody(), stringBody(Activity.class, activity), gzip);
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void actionBodyMatchesStringBody(boolean gzip) throws Exception {
+    var action = new Action("Drive\tforward");
+    action.setActivity("http://localhost:8000/activities/7/");
+    action.setMeasures(List.of("position", "velocity"));
+
+    assertSameBody(action.asRequestBody(), stringBody(Action.class, action), gzip);
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void traceBodiesMatchStringBodies(boolean gzip) throws Exception {
+    var traces = traces();
+    JsonAdapter<List<Trace>> listAdapter =
+        MOSHI.adapter(Types.newParameterizedType(List.class, Trace.class));
+    var listBody = stringBody(listAdapter, traces);
+
+    assertSameBody(traces.get(0).asRequestBody(), stringBody(Trace.class, traces.get(0)), gzip);
+    assertSameBody(TraceKt.requestBodyFromList(traces), listBody, gzip);
+    assertSameBody(traceBuffer().asRequestBody(), listBody, gzip);
+  }
+
+  @Test
+  void smallBodiesHaveContentLength() throws Exception {
+    var action = new Action("action");
+    action.setMeasures(List.of("position"));
+    var bodies =
+        List.of(
+            new Activity("activity").asRequestBody(),
+            action.asRequestBody(),
+            traces().get(0).asRequestBody());
+
+    for (var body : bodies) {
+      assertThat(body.contentLength()).isEqualTo(bytes(body).length);
+      assertThat(body.isOneShot()).isFalse();
+    }
+  }
+
+  @Test
+  void bodiesAreStreamedAndRepeatable() throws Exception {
+    var body = traceBuffer().asRequestBody();
+    var gzipBody = new GzipRequestBody(body);
+
+    // trace uploads are streamed and sent chunked, their length is not known until written
+    assertThat(body.contentLength()).isEqualTo(-1);
+    assertThat(gzipBody.contentLength()).isEqualTo(-1);
+    assertThat(TraceKt.requestBodyFromList(traces()).contentLength()).isEqualTo(-1);
+    assertThat(body.contentType()).isEqualTo(SessionKt.getMEDIA_TYPE_JSON());
+    assertThat(gzipBody.contentType()).isEqualTo(body.contentType());
+
+    // OkHttp may write a body again to retry a request
+    assertThat(body.isOneShot()).isFalse();
+    assertThat(gzipBody.isOneShot()).isFalse();
+    assertThat(bytes(body)).isEqualTo(bytes(body));
+    assertThat(gunzip(bytes(gzipBody))).isEqualTo(gunzip(bytes(gzipBody))).isEqualTo(bytes(body));
+  }
+
+  /** Compare a streamed body with the body built from a string before bodies were streamed. */
+  private static void assertSameBody(RequestBody streamed, RequestBody string, boolean gzip)
+      throws IOException {
+    var expected = bytes(string);
+    var actual = gzip ? gunzip(bytes(new GzipRequestBody(streamed))) : bytes(streamed);
+    // compare as text first for a readable failure
+    assertThat(new String(actual, StandardCharsets.UTF_8))
+        .isEqualTo(new String(expected, StandardCharsets.UTF_8));
+    assertThat(actual).isEqualTo(expected);
+    assertThat(streamed.contentType()).isEqualTo(string.contentType());
+  }
+
+  /** A request body built the way postables were before they were streamed. */
+  private static <T> RequestBody stringBody(Class<T> type, T value) throws IOException {
+    return stringBody(MOSHI.adapter(type), value);
+  }
+
+  private static <T> RequestBody stringBody(JsonAdapter<T> adapter, T value) throws IOException {
+    var buffer = new Buffer();
+    adapter.toJson(buffer, value);
+    return RequestBody.create(buffer.readUtf8(), SessionKt.getMEDIA_TYPE_JSON());
+  }
+
+  private static byte[] bytes(RequestBody body) throws IOException {
+    var buffer = new Buffer();
+    body.writeTo(buffer);
+    return buffer.readByteArray();
+  }
+
+  private static byte[] gunzip(byte[] bytes) throws IOException {
+    try (var in = new GZIPInputStream(new Buffer().write(bytes).inputStream())) {
+      return in.readAllBytes();
+    }
+  }
+
+  private static List<Trace> traces() {
+    List<Trace> traces = new ArrayList<>();
+    double[][] values = {{0.1, -1e-300}, {Double.MAX_VALUE, -0.0}, {Math.PI, 2767.0}};
+    for (int row = 0; row < values.length; row++) {
+      var trace = new Trace(row * 20);
+      trace.setAction(7);
+      trace.setData(List.of(values[row][0], values[row][1]));
+      traces.add(trace);
+    }
+    return traces;
+  }
+
+  private static TraceBuffer traceBuffer() {
+    var buffer = new TraceBuffer(2, 2);
+    buffer.setAction(7);
+    for (var trace : traces()) {
+      var data = trace.getData();
+      buffer.add(trace.getTime(), new double[] {data.get(0), data.get(1)});
+    }
+    return buffer;
+  }
+}
@@ -0,0 +1,252 @@
+package org.strykeforce.trapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpoolingSessionTest {
+
+  // replays only run when posted to or asked to
+  private static final long REPLAY_MILLIS = 60_000;
+
+  @TempDir Path directory;
+  private StandInServer server;
+  private SpoolingSession session;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = new StandInServer();
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (session != null) session.close();
+    server.stop();
+  }
+
+  @Test
+  void postsInOrderWithServerIds() throws Exception {
+    session = open();
+    var activity = session.post(new Activity("activity"));
+    var action = new Action("action");
+    action.setActivity(activity.getUrl());
+    session.post(action);
+    session.post(traces(action.getId(), 3));
+
+    assertThat(activity.getId()).isNegative();
+    assertThat(activity.getUrl()).startsWith("spool:");
+    assertThat(action.getId()).isNegative();
+    awaitReplayed();
+    assertThat(server.posts())
+        .containsExactly(
+            "activity 1",
+            "action 2 in " + server.baseUrl() + "/activities/1/",
+            "traces [0@2, 20@2, 40@2]");
+    assertThat(Files.list(directory)).isEmpty();
+  }
+
+  @Test
+  void spoolsWhileOfflineAndReplaysInOrder() throws Exception {
+    session = open();
+    // the server hangs on the first post then fails, as it does when it goes away
+    var hang = new CountDownLatch(1);
+    server.hang = hang;
+    server.available = false;
+    var activity = session.post(new Activity("activity"));
+    var action = new Action("action");
+    action.setActivity(activity.getUrl());
+    session.post(action);
+    var buffer = new TraceBuffer(1);
+    buffer.add(0, new double[] {1.0});
+    buffer.add(20, new double[] {2.0});
+    buffer.setAction(action.getId());
+    long start = System.nanoTime();
+    session.post(buffer);
+    session.post(new Activity("another"));
+
+    // posts return while the server hangs, well before the session would time out
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+    assertThat(session.getSpoolBytes()).isPositive();
+    hang.countDown();
+    awaitOffline();
+    assertThat(server.posts()).isEmpty();
+
+    server.available = true;
+    session.post(traces(action.getId(), 1));
+    session.replayNow();
+    awaitReplayed();
+    assertThat(session.isOffline()).isFalse();
+    assertThat(server.posts())
+        .containsExactly(
+            "activity 1",
+            "action 2 in " + server.baseUrl() + "/activities/1/",
+            "traces [0@2, 20@2]",
+            "activity 3",
+            "traces [0@2]");
+  }
+
+  @Test
+  void remapsIdsWhenReplayedAfterRestart() throws Exception {
+    server.available = false;
+    session = open();
+    var first = session.post(new Activity("first"));
+    var second = session.post(new Activity("second"));
+    var action = new Action("action");
+    action.setActivity(second.getUrl());
+    session.post(action);
+    session.post(traces(action.getId(), 2));
+    awaitOffline();
+    session.close();
+    assertThatThrownBy(() -> session.post(new Activity("late")))
+        .isInstanceOf(IllegalStateException.class);
+
+    server.available = true;
+    session = open();
+    awaitReplayed();
+    assertThat(List.of(first.getId(), second.getId(), action.getId())).allMatch(id -> id < 0);
+    assertThat(server.posts())
+        .containsExactly(
+            "activity 1",
+            "activity 2",
+            "action 3 in " + server.baseUrl() + "/activities/2/",
+            "traces [0@3, 20@3]");
+  }
+
+  private SpoolingSession open() {
+    return new SpoolingSession(
+        new OkHttpSession(server.baseUrl()), directory, 1 << 20, REPLAY_MILLIS);
+  }
+
+  private static List<Trace> traces(Integer action, int count) {
+    List<Trace> traces = new ArrayList<>();
+    for (int row = 0; row < count; row++) {
+      var trace = new Trace(row * 20);
+      trace.setAction(action);
+      trace.setData(List.of((double) row));
+      traces.add(trace);
+    }
+    return traces;
+  }
+
+  private void awaitOffline() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!session.isOffline()) {
+      assertThat(System.nanoTime()).isLessThan(deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  private void awaitReplayed() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (session.getSpoolBytes() > 0) {
+      assertThat(System.nanoTime()).isLessThan(deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  /**
+   * A stand-in Trapper server that assigns ids to posted activities and actions, and records each
+   * post. While not {@code available} it fails every post, after waiting for {@code hang} if set.
+   */
+  static class StandInServer {
+
+    volatile boolean available = true;
+    volatile CountDownLatch hang;
+    private final List<String> posts = new ArrayList<>();
+    private final JsonAdapter<Map<String, Object>> postableAdapter;
+    private final JsonAdapter<List<Map<String, Object>>> tracesAdapter;
+    private final HttpServer server;
+    private int nextId = 1;
+
+    StandInServer() throws IOException {
+      var moshi = new Moshi.Builder().build();
+      var postable = Types.newParameterizedType(Map.class, String.class, Object.class);
+      postableAdapter = moshi.adapter(postable);
+      tracesAdapter = moshi.adapter(Types.newParameterizedType(List.class, postable));
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      server.createContext("/", this::handle);
+      server.start();
+    }
+
+    String baseUrl() {
+      return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    synchronized List<String> posts() {
+      return List.copyOf(posts);
+    }
+
+    void stop() {
+      server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+      if (!available) {
+        var hang = this.hang;
+        this.hang = null;
+        if (hang != null) {
+          try {
+            hang.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        exchange.sendResponseHeaders(503, -1);
+        exchange.close();
+        return;
+      }
+      var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+      var endpoint = exchange.getRequestURI().getPath();
+      String response;
+      synchronized (this) {
+        if (endpoint.equals("/traces/")) {
+          List<String> rows = new ArrayList<>();
+          for (var trace : tracesAdapter.fromJson(body)) {
+            rows.add(number(trace.get("time")) + "@" + number(trace.get("action")));
+          }
+          posts.add("traces " + rows);
+          response = "";
+        } else {
+          var postable = postableAdapter.fromJson(body);
+          int id = nextId++;
+          postable.put("id", id);
+          postable.put("url", baseUrl() + endpoint + id + "/");
+          if (endpoint.equals("/activities/")) {
+            posts.add("activity " + id);
+          } else {
+            posts.add("action " + id + " in " + postable.get("activity"));
+          }
+          response = postableAdapter.toJson(postable);
+        }
+      }
+      var bytes = response.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(201, bytes.length == 0 ? -1 : bytes.length);
+      exchange.getResponseBody().write(bytes);
+      exchange.close();
+    }
+
+    private static String number(Object value) {
+      return value == null ? "-" : String.valueOf(((Number) value).intValue());
+    }
+  }
+}
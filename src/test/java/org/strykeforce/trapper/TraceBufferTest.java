@@ -0,0 +1,212 @@
+package org.strykeforce.trapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+class TraceBufferTest {
+
+  @Test
+  void addsRows() {
+    var buffer = new TraceBuffer(2);
+    var values = new double[] {1.0, 2.0, 3.0};
+    buffer.add(20, values);
+    values[0] = -1.0;
+    buffer.add(40, values);
+
+    assertThat(buffer.getSize()).isEqualTo(2);
+    assertThat(buffer.time(0)).isEqualTo(20);
+    assertThat(buffer.value(0, 0)).isEqualTo(1.0);
+    assertThat(buffer.value(1, 0)).isEqualTo(-1.0);
+    assertThat(buffer.value(1, 1)).isEqualTo(2.0);
+    assertThatThrownBy(() -> buffer.time(2)).isInstanceOf(IndexOutOfBoundsException.class);
+    assertThatThrownBy(() -> buffer.add(60, new double[1]))
+        .isInstanceOf(IllegalArgumentException.class);
+
+    buffer.clear();
+    assertThat(buffer.getSize()).isZero();
+    assertThatThrownBy(() -> buffer.time(0)).isInstanceOf(IndexOutOfBoundsException.class);
+  }
+
+  @Test
+  void growsWhenFull() {
+    var buffer = new TraceBuffer(2, 2);
+    for (int row = 0; row < 9; row++) buffer.add(row * 20, new double[] {row, -row});
+
+    assertThat(buffer.getSize()).isEqualTo(9);
+    for (int row = 0; row < 9; row++) {
+      assertThat(buffer.time(row)).isEqualTo(row * 20);
+      assertThat(buffer.value(row, 0)).isEqualTo(row);
+      assertThat(buffer.value(row, 1)).isEqualTo(-row);
+    }
+  }
+
+  @Test
+  void writesRowsAsTraceList() throws Exception {
+    var buffer = new TraceBuffer(2, 2);
+    buffer.setAction(7);
+    buffer.add(0, new double[] {0.5, 1.0 / 3.0});
+    buffer.add(20, new double[] {Double.MAX_VALUE, -0.0});
+    buffer.add(40, new double[] {Math.PI, 2767.0});
+
+    var json = new Buffer();
+    buffer.asRequestBody().writeTo(json);
+    JsonAdapter<List<Trace>> adapter =
+        new Moshi.Builder().build().adapter(Types.newParameterizedType(List.class, Trace.class));
+    var traces = adapter.fromJson(json);
+
+    assertThat(traces).hasSize(3);
+    for (int row = 0; row < traces.size(); row++) {
+      var trace = traces.get(row);
+      assertThat(trace.getTime()).isEqualTo(buffer.time(row));
+      assertThat(trace.getAction()).isEqualTo(7);
+      assertThat(trace.getData()).containsExactly(buffer.value(row, 0), buffer.value(row, 1));
+    }
+  }
+
+  @Test
+  void postWithUploadsEachRowOnce() {
+    var trapperSubsystem = mock(TrapperSubsystem.class);
+    when(trapperSubsystem.isEnabled()).thenReturn(true);
+    var action = new Action("buffered");
+    action.setId(7);
+    action.setMeasures(List.of("time squared"));
+    var command = new BufferedCommand(action, trapperSubsystem);
+    var session = new RecordingSession();
+
+    for (int i = 0; i < 3; i++) command.execute();
+    command.postWith(session);
+    for (int i = 0; i < 2; i++) command.execute();
+    command.postWith(session);
+
+    assertThat(session.posts).containsExactly(List.of(0, 20, 40), List.of(60, 80));
+    assertThat(command.getTraces()).isEmpty();
+    assertThat(command.getTraceBuffer().getAction()).isEqualTo(7);
+    assertThat(command.getTraceBuffer().getMeasures()).containsExactly("time squared");
+  }
+
+  @Test
+  void postWithUploadsEachTraceOnce() {
+    var trapperSubsystem = mock(TrapperSubsystem.class);
+    when(trapperSubsystem.isEnabled()).thenReturn(true);
+    var command = new TracedCommand(trapperSubsystem);
+    var session = new RecordingSession();
+
+    for (int i = 0; i < 3; i++) command.execute();
+    command.postWith(session);
+    for (int i = 0; i < 2; i++) command.execute();
+    command.postWith(session);
+
+    assertThat(session.posts).containsExactly(List.of(0, 20, 40), List.of(60, 80));
+    assertThat(command.getTraces()).isEmpty();
+  }
+
+  @Test
+  void postQueuesEachTraceOnce() {
+    var trapperSubsystem = mock(TrapperSubsystem.class);
+    when(trapperSubsystem.isEnabled()).thenReturn(true);
+    List<List<Integer>> posts = new ArrayList<>();
+    doAnswer(
+            invocation -> {
+              // copy the times, the command clears its traces once queued
+              List<Trace> traces = invocation.getArgument(0);
+              posts.add(traces.stream().map(Trace::getTime).toList());
+              return null;
+            })
+        .when(trapperSubsystem)
+        .post(anyList());
+    var command = new TracedCommand(trapperSubsystem);
+
+    for (int i = 0; i < 3; i++) command.execute();
+    command.post();
+    for (int i = 0; i < 2; i++) command.execute();
+    command.post();
+
+    assertThat(posts).containsExactly(List.of(0, 20, 40), List.of(60, 80));
+    assertThat(command.getTraces()).isEmpty();
+  }
+
+  @Test
+  void executeFailsIfNeitherTracedNorRecorded() {
+    var trapperSubsystem = mock(TrapperSubsystem.class);
+    when(trapperSubsystem.isEnabled()).thenReturn(true);
+    var command = new ActionCommand("untraced", trapperSubsystem) {};
+
+    assertThatThrownBy(command::execute)
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("must override trace");
+  }
+
+  /** Traces each execute with a row of the trace buffer, without overriding the trace. */
+  private static class BufferedCommand extends ActionCommand {
+    private final double[] values = new double[1];
+    private int time;
+
+    BufferedCommand(Action action, TrapperSubsystem trapperSubsystem) {
+      super(action, trapperSubsystem);
+    }
+
+    @Override
+    public boolean record() {
+      values[0] = (double) time * time;
+      getTraceBuffer().add(time, values);
+      time += 20;
+      return true;
+    }
+  }
+
+  /** Traces each execute with a {@link Trace}. */
+  private static class TracedCommand extends ActionCommand {
+    private int time;
+
+    TracedCommand(TrapperSubsystem trapperSubsystem) {
+      super("traced", trapperSubsystem);
+    }
+
+    @Override
+    public Trace getTrace() {
+      var trace = new Trace(time);
+      time += 20;
+      return trace;
+    }
+  }
+
+  /** Records the times of the traces or trace buffer rows of each post to it. */
+  private static class RecordingSession implements Session {
+    final List<List<Integer>> posts = new ArrayList<>();
+
+    @Override
+    public <T extends Postable> T post(T postable) {
+      return postable;
+    }
+
+    @Override
+    public <T extends Postable> void postAsync(T postable, Consumer<T> postableConsumer) {
+      postableConsumer.accept(postable);
+    }
+
+    @Override
+    public void post(List<Trace> traces) {
+      posts.add(traces.stream().map(Trace::getTime).toList());
+    }
+
+    @Override
+    public void post(TraceBuffer traces) {
+      List<Integer> times = new ArrayList<>();
+      for (int row = 0; row < traces.getSize(); row++) times.add(traces.time(row));
+      posts.add(times);
+    }
+  }
+}
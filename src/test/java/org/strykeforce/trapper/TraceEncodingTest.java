@@ -0,0 +1,268 @@
+package org.strykeforce.trapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class TraceEncodingTest {
+
+  private static final List<String> MEASURES = List.of("position", "velocity, filtered", "\"x\"");
+  private static final double[][] VALUES = {
+    {0.1, -1e-300, 1.0 / 3.0},
+    {Double.MAX_VALUE, -0.0, 2767.0},
+    {Math.PI, Double.MIN_VALUE, -42.5},
+  };
+
+  private StandInServer server;
+
+  @AfterEach
+  void tearDown() {
+    if (server != null) server.stop();
+  }
+
+  @ParameterizedTest
+  @EnumSource(TraceEncoding.class)
+  void traceBufferRoundTrips(TraceEncoding encoding) throws Exception {
+    server = new StandInServer(Set.of(TraceEncoding.values()));
+    var session = new OkHttpSession(server.baseUrl(), false, encoding);
+    session.post(traceBuffer());
+
+    assertThat(server.contentTypes).containsExactly(encoding.getMediaType().toString());
+    // trace buffers are streamed, the server decodes the chunked body
+    assertThat(server.transferEncodings).containsExactly("chunked");
+    assertThat(server.rows).isEqualTo(expectedRows());
+    if (encoding != TraceEncoding.JSON) assertThat(server.measures).isEqualTo(MEASURES);
+  }
+
+  @ParameterizedTest
+  @EnumSource(TraceEncoding.class)
+  void traceListRoundTrips(TraceEncoding encoding) throws Exception {
+    server = new StandInServer(Set.of(TraceEncoding.values()));
+    var session = new OkHttpSession(server.baseUrl(), false, encoding);
+    List<Trace> traces = new ArrayList<>();
+    for (int row = 0; row < VALUES.length; row++) {
+      var trace = new Trace(row * 20);
+      trace.setAction(7);
+      List<Double> data = new ArrayList<>();
+      for (double value : VALUES[row]) data.add(value);
+      trace.setData(data);
+      traces.add(trace);
+    }
+    session.post(traces);
+
+    assertThat(server.contentTypes).containsExactly(encoding.getMediaType().toString());
+    assertThat(server.rows).isEqualTo(expectedRows());
+  }
+
+  @Test
+  void mixedTraceListIsSentAsJson() throws Exception {
+    server = new StandInServer(Set.of(TraceEncoding.values()));
+    var session = new OkHttpSession(server.baseUrl(), false, TraceEncoding.BINARY);
+    var first = new Trace(0);
+    first.setAction(7);
+    first.setData(List.of(1.0));
+    var second = new Trace(20);
+    second.setAction(8);
+    second.setData(List.of(2.0));
+    session.post(List.of(first, second));
+
+    assertThat(server.contentTypes).containsExactly(TraceEncoding.JSON.getMediaType().toString());
+    assertThat(server.rows)
+        .containsExactly(new Row(0, 7, List.of(1.0)), new Row(20, 8, List.of(2.0)));
+  }
+
+  @Test
+  void gzipBinaryRoundTrips() throws Exception {
+    server = new StandInServer(Set.of(TraceEncoding.values()));
+    var session = new OkHttpSession(server.baseUrl(), true, TraceEncoding.BINARY);
+    session.post(traceBuffer());
+
+    assertThat(server.gzipped).isTrue();
+    assertThat(server.rows).isEqualTo(expectedRows());
+  }
+
+  @Test
+  void fallsBackToJsonWhenEncodingIsRejected() throws Exception {
+    server = new StandInServer(Set.of(TraceEncoding.JSON));
+    var session = new OkHttpSession(server.baseUrl(), false, TraceEncoding.CSV);
+    session.post(traceBuffer());
+
+    assertThat(session.getTraceEncoding()).isEqualTo(TraceEncoding.JSON);
+    assertThat(server.contentTypes)
+        .containsExactly(
+            TraceEncoding.CSV.getMediaType().toString(),
+            TraceEncoding.JSON.getMediaType().toString());
+    assertThat(server.rows).isEqualTo(expectedRows());
+  }
+
+  private static TraceBuffer traceBuffer() {
+    var buffer = new TraceBuffer(MEASURES.size(), 2);
+    buffer.setAction(7);
+    buffer.setMeasures(MEASURES);
+    for (int row = 0; row < VALUES.length; row++) buffer.add(row * 20, VALUES[row]);
+    return buffer;
+  }
+
+  private static List<Row> expectedRows() {
+    List<Row> rows = new ArrayList<>();
+    for (int row = 0; row < VALUES.length; row++) {
+      List<Double> data = new ArrayList<>();
+      for (double value : VALUES[row]) data.add(value);
+      rows.add(new Row(row * 20, 7, data));
+    }
+    return rows;
+  }
+
+  record Row(int time, Integer action, List<Double> data) {}
+
+  /** A stand-in Trapper trace endpoint that decodes every encoding into rows. */
+  static class StandInServer {
+
+    final List<Row> rows = new ArrayList<>();
+    final List<String> contentTypes = new ArrayList<>();
+    final List<String> transferEncodings = new ArrayList<>();
+    List<String> measures = List.of();
+    boolean gzipped;
+    private final Set<TraceEncoding> accepted;
+    private final HttpServer server;
+
+    StandInServer(Set<TraceEncoding> accepted) throws IOException {
+      this.accepted = accepted;
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      server.createContext("/traces/", this::handle);
+      server.start();
+    }
+
+    String baseUrl() {
+      return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void stop() {
+      server.stop(0);
+    }
+
+    private synchronized void handle(HttpExchange exchange) throws IOException {
+      var contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+      contentTypes.add(contentType);
+      transferEncodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+      InputStream in = exchange.getRequestBody();
+      if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+        gzipped = true;
+        in = new GZIPInputStream(in);
+      }
+      byte[] body = in.readAllBytes();
+      var encoding =
+          accepted.stream()
+              .filter(it -> it.getMediaType().toString().equals(contentType))
+              .findFirst();
+      if (encoding.isEmpty()) {
+        exchange.sendResponseHeaders(415, -1);
+        exchange.close();
+        return;
+      }
+      switch (encoding.get()) {
+        case JSON -> decodeJson(body);
+        case CSV -> decodeCsv(body);
+        case BINARY -> decodeBinary(body);
+      }
+      exchange.sendResponseHeaders(201, -1);
+      exchange.close();
+    }
+
+    private void decodeJson(byte[] body) throws IOException {
+      JsonAdapter<List<Trace>> adapter =
+          new Moshi.Builder().build().adapter(Types.newParameterizedType(List.class, Trace.class));
+      for (var trace : adapter.fromJson(new String(body, StandardCharsets.UTF_8))) {
+        rows.add(new Row(trace.getTime(), trace.getAction(), trace.getData()));
+      }
+    }
+
+    private void decodeCsv(byte[] body) {
+      var lines = new String(body, StandardCharsets.UTF_8).split("\r\n");
+      var header = parseCsvLine(lines[0]);
+      assertThat(header.subList(0, 2)).containsExactly("time", "action");
+      measures = header.subList(2, header.size());
+      for (int i = 1; i < lines.length; i++) {
+        var fields = parseCsvLine(lines[i]);
+        List<Double> data = new ArrayList<>();
+        for (var field : fields.subList(2, fields.size())) data.add(Double.parseDouble(field));
+        Integer action = fields.get(1).isEmpty() ? null : Integer.parseInt(fields.get(1));
+        rows.add(new Row(Integer.parseInt(fields.get(0)), action, data));
+      }
+    }
+
+    private void decodeBinary(byte[] body) {
+      var buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+      int rowCount = buffer.getInt();
+      int measureCount = buffer.getInt();
+      int action = buffer.getInt();
+      List<String> names = new ArrayList<>();
+      for (int i = 0; i < measureCount; i++) {
+        var name = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(name);
+        names.add(new String(name, StandardCharsets.UTF_8));
+      }
+      measures = names;
+      int[] times = new int[rowCount];
+      for (int row = 0; row < rowCount; row++) times[row] = buffer.getInt();
+      double[][] values = new double[rowCount][measureCount];
+      for (int measure = 0; measure < measureCount; measure++) {
+        for (int row = 0; row < rowCount; row++) values[row][measure] = buffer.getDouble();
+      }
+      assertThat(buffer.hasRemaining()).isFalse();
+      for (int row = 0; row < rowCount; row++) {
+        List<Double> data = new ArrayList<>();
+        for (double value : values[row]) data.add(value);
+        rows.add(new Row(times[row], action == 0 ? null : action, data));
+      }
+    }
+
+    /** Split a CSV line into fields, unquoting quoted fields. */
+    private static List<String> parseCsvLine(String line) {
+      List<String> fields = new ArrayList<>();
+      var field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); i++) {
+        char c = line.charAt(i);
+        if (quoted) {
+          if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+            field.append('"');
+            i++;
+          } else if (c == '"') {
+            quoted = false;
+          } else {
+            field.append(c);
+          }
+        } else if (c == '"') {
+          quoted = true;
+        } else if (c == ',') {
+          fields.add(field.toString());
+          field.setLength(0);
+        } else {
+          field.append(c);
+        }
+      }
+      fields.add(field.toString());
+      return fields;
+    }
+  }
+}
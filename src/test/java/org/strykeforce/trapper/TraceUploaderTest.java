@@ -0,0 +1,179 @@
+package org.strykeforce.trapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TraceUploaderTest {
+
+  private TraceUploader uploader;
+
+  @AfterEach
+  void tearDown() {
+    if (uploader != null) uploader.close();
+  }
+
+  @Test
+  void postsTracesInBatches() {
+    var session = new FakeSession();
+    uploader = new TraceUploader(session, 100, 10, 500, 0, 10);
+    assertThat(uploader.offer(traces(25))).isTrue();
+
+    assertThat(uploader.flush(5000)).isTrue();
+    assertThat(session.uploads).containsExactly("10 traces", "10 traces", "5 traces");
+    assertThat(session.times).isEqualTo(times(25));
+    assertThat(uploader.getUploadedTraces()).isEqualTo(25);
+    assertThat(uploader.getQueueDepth()).isZero();
+  }
+
+  @Test
+  void postsTraceBufferOnItsOwn() {
+    var session = new FakeSession();
+    uploader = new TraceUploader(session, 100, 10, 500, 0, 10);
+    var buffer = new TraceBuffer(1, 4);
+    for (int time = 3; time < 8; time++) buffer.add(time, new double[] {time});
+    uploader.offer(traces(3));
+    uploader.offer(buffer);
+    uploader.offer(traces(2));
+
+    assertThat(uploader.flush(5000)).isTrue();
+    assertThat(session.uploads).containsExactly("3 traces", "buffer of 5", "2 traces");
+    assertThat(uploader.getUploadedTraces()).isEqualTo(10);
+  }
+
+  @Test
+  void dropsTracesWhenQueueIsFull() throws Exception {
+    var session = new FakeSession();
+    session.blocked = new CountDownLatch(1);
+    uploader = new TraceUploader(session, 5, 1, 0, 0, 10);
+    uploader.offer(traces(1));
+    // the worker has taken the first trace and is blocked posting it
+    assertThat(session.posting.await(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(uploader.offer(traces(8))).isFalse();
+    assertThat(uploader.getDroppedTraces()).isEqualTo(3);
+    assertThat(uploader.offer(new TraceBuffer(1))).isFalse();
+    assertThat(uploader.getQueueDepth()).isEqualTo(6);
+
+    session.blocked.countDown();
+    assertThat(uploader.flush(5000)).isTrue();
+    assertThat(uploader.getUploadedTraces()).isEqualTo(6);
+    assertThat(session.times).containsExactly(0, 0, 1, 2, 3, 4);
+  }
+
+  @Test
+  void retriesFailedPostsWithBackoff() {
+    var session = new FakeSession();
+    session.failures = 2;
+    uploader = new TraceUploader(session, 100, 10, 500, 3, 20);
+    uploader.offer(traces(4));
+
+    assertThat(uploader.flush(5000)).isTrue();
+    assertThat(session.attempts).hasSize(3);
+    long firstWait = session.attempts.get(1) - session.attempts.get(0);
+    long secondWait = session.attempts.get(2) - session.attempts.get(1);
+    assertThat(firstWait).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+    assertThat(secondWait).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(40));
+    assertThat(uploader.getUploadedTraces()).isEqualTo(4);
+    assertThat(uploader.getFailedTraces()).isZero();
+  }
+
+  @Test
+  void dropsBatchAfterLastRetry() {
+    var session = new FakeSession();
+    session.failures = Integer.MAX_VALUE;
+    uploader = new TraceUploader(session, 100, 10, 500, 2, 1);
+    uploader.offer(traces(4));
+
+    assertThat(uploader.flush(5000)).isTrue();
+    assertThat(session.attempts).hasSize(3);
+    assertThat(uploader.getUploadedTraces()).isZero();
+    assertThat(uploader.getFailedTraces()).isEqualTo(4);
+    assertThat(uploader.getQueueDepth()).isZero();
+  }
+
+  @Test
+  void closeUploadsQueuedTraces() {
+    var session = new FakeSession();
+    uploader = new TraceUploader(session, 100, 10, 5000, 0, 10);
+    uploader.offer(traces(15));
+    uploader.close();
+
+    assertThat(session.times).isEqualTo(times(15));
+    assertThat(uploader.offer(traces(1))).isFalse();
+    assertThat(uploader.getDroppedTraces()).isEqualTo(1);
+  }
+
+  private static List<Trace> traces(int count) {
+    List<Trace> traces = new ArrayList<>();
+    for (int time = 0; time < count; time++) traces.add(new Trace(time));
+    return traces;
+  }
+
+  private static List<Integer> times(int count) {
+    List<Integer> times = new ArrayList<>();
+    for (int time = 0; time < count; time++) times.add(time);
+    return times;
+  }
+
+  /**
+   * Records the traces posted to it, failing the first {@code failures} posts and, if {@code
+   * blocked} is set, waiting for it to count down before returning from a post.
+   */
+  private static class FakeSession implements Session {
+    final List<String> uploads = new ArrayList<>();
+    final List<Integer> times = new ArrayList<>();
+    final List<Long> attempts = new ArrayList<>();
+    final CountDownLatch posting = new CountDownLatch(1);
+    volatile CountDownLatch blocked;
+    int failures;
+
+    @Override
+    public <T extends Postable> T post(T postable) {
+      return postable;
+    }
+
+    @Override
+    public <T extends Postable> void postAsync(T postable, Consumer<T> postableConsumer) {
+      postableConsumer.accept(postable);
+    }
+
+    @Override
+    public void post(List<Trace> traces) {
+      attempt();
+      uploads.add(traces.size() + " traces");
+      // copy the times, the uploader reuses its batch list
+      traces.forEach(trace -> times.add(trace.getTime()));
+    }
+
+    @Override
+    public void post(TraceBuffer traces) {
+      attempt();
+      uploads.add("buffer of " + traces.getSize());
+      for (int row = 0; row < traces.getSize(); row++) times.add(traces.time(row));
+    }
+
+    private void attempt() {
+      attempts.add(System.nanoTime());
+      posting.countDown();
+      if (blocked != null) {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (attempts.size() <= failures) {
+        throw new UncheckedIOException(new IOException("server unavailable"));
+      }
+    }
+  }
+}